@@ -0,0 +1,32 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha;
+
+import org.pathirage.thulitha.workloads.WorkloadGenerator;
+import org.pathirage.thulitha.workloads.WorkloadGeneratorConfig;
+
+import java.util.List;
+
+final class BenchmarkWorkloads {
+  private static final long SEED = 42; // every fork and run benchmarks the same replicas
+
+  private BenchmarkWorkloads() {
+  }
+
+  static List<Replica> replicas(int count) {
+    return new WorkloadGenerator(new WorkloadGeneratorConfig(null)).run(count, SEED);
+  }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filling a single broker or storage volume with replicas until it runs out of capacity. Each operation starts from
+ * an empty broker or volume, so construction cost is included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BrokerBenchmark {
+  private static final int REPLICAS = 2048;
+
+  @Param({"M4_2X", "M4_4X", "D2_8X"})
+  CCInstanceType instanceType;
+
+  private StorageVolumeType storageVolumeType;
+  private List<Replica> replicas;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    storageVolumeType = BrokerType.defaultVolumeType(instanceType);
+    replicas = BenchmarkWorkloads.replicas(REPLICAS);
+  }
+
+  @Benchmark
+  public int brokerAdd() {
+    Broker broker = new Broker("0", instanceType, storageVolumeType, CapacityPlanner.IO_OP_SIZE_128KB, false);
+    int added = 0;
+    for (Replica r : replicas) {
+      if (broker.add(r)) {
+        added++;
+      }
+    }
+
+    return added;
+  }
+
+  @Benchmark
+  public int storageVolumeAddReplica() {
+    StorageVolume volume = new StorageVolume("0", storageVolumeType, instanceType, CapacityPlanner.IO_OP_SIZE_128KB);
+    int added = 0;
+    for (Replica r : replicas) {
+      if (volume.addReplica(r, r.getId() == 0)) {
+        added++;
+      }
+    }
+
+    return added;
+  }
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * First fit feasibility of one replica against a set of partially filled brokers: per object checks over
+ * {@link Broker} against {@link FeasibilityKernel} and {@link BrokerIndex}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FeasibilityBenchmark {
+  @Param({"64", "512", "4096"})
+  int brokerCount;
+
+  private List<Broker> brokers;
+  private FeasibilityKernel kernel;
+  private BrokerIndex index;
+  private List<Replica> probes;
+  private long[][] demands;
+  private double[] weights;
+  private int next = 0;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    List<Replica> replicas = BenchmarkWorkloads.replicas(brokerCount * 64);
+
+    brokers = new ArrayList<>();
+    for (int i = 0; i < brokerCount; i++) {
+      brokers.add(new Broker(String.valueOf(i), CCInstanceType.M4_4X, StorageVolumeType.ST1STATIC, 128, false));
+    }
+
+    // First fit replicas until about three quarters of the brokers are in use, like a packing in progress. Probes
+    // then have to skip the full brokers at the front.
+    int used = 0;
+    for (Replica r : replicas) {
+      for (int i = 0; i < brokerCount; i++) {
+        if (brokers.get(i).add(r)) {
+          used = Math.max(used, i + 1);
+          break;
+        }
+      }
+
+      if (used > brokerCount * 3 / 4) {
+        break;
+      }
+    }
+
+    kernel = new FeasibilityKernel(brokers);
+    index = new BrokerIndex(brokers);
+
+    probes = replicas.subList(replicas.size() - 1024, replicas.size());
+    demands = new long[probes.size()][];
+    for (int i = 0; i < demands.length; i++) {
+      demands[i] = FeasibilityKernel.demand(brokers.get(0), probes.get(i), new long[FeasibilityKernel.DIMENSIONS]);
+    }
+
+    weights = new double[FeasibilityKernel.DIMENSIONS];
+    long[] capacity = brokers.get(0).getCapacity();
+    for (int d = 0; d < weights.length; d++) {
+      weights[d] = 1.0 / Math.max(1, capacity[d]);
+    }
+  }
+
+  private long[] nextDemand() {
+    long[] demand = demands[next];
+    next = next + 1 == demands.length ? 0 : next + 1;
+    return demand;
+  }
+
+  private Replica nextReplica() {
+    Replica replica = probes.get(next);
+    next = next + 1 == probes.size() ? 0 : next + 1;
+    return replica;
+  }
+
+  /**
+   * Same checks as Broker.isFeasible without the partition check: demand is converted per broker and dimension.
+   */
+  @Benchmark
+  public int perObject() {
+    Replica replica = nextReplica();
+    for (int i = 0; i < brokers.size(); i++) {
+      Broker broker = brokers.get(i);
+      boolean fits = true;
+      for (int d = 0; d < FeasibilityKernel.DIMENSIONS; d++) {
+        if (broker.demand(replica, d) > broker.getRemainingCapacity(d)) {
+          fits = false;
+          break;
+        }
+      }
+
+      if (fits) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  @Benchmark
+  public int kernelFirstFeasible() {
+    return kernel.firstFeasible(nextDemand(), 0);
+  }
+
+  @Benchmark
+  public int kernelBestFeasible() {
+    return kernel.bestFeasible(nextDemand(), weights);
+  }
+
+  @Benchmark
+  public int brokerIndex() {
+    return index.findFirstFeasible(nextDemand(), 0);
+  }
+}
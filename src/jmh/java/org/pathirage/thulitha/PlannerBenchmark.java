@@ -0,0 +1,98 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end planner runs over a generated workload. Replaces the single timed run in
+ * {@link Evaluator#measureExecutionTime(CCInstanceType, List)} with warmed up, repeated measurements.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PlannerBenchmark {
+  @Param({"1000", "10000"})
+  int replicaCount;
+
+  @Param({"M4_2X", "M4_4X", "D2_8X"})
+  CCInstanceType instanceType;
+
+  private StorageVolumeType storageVolumeType;
+  private List<Replica> replicas;
+  private ReplicaTable table;
+  private int brokerCount;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    storageVolumeType = BrokerType.defaultVolumeType(instanceType);
+    replicas = BenchmarkWorkloads.replicas(replicaCount);
+    table = ReplicaTable.fromReplicas(replicas);
+    brokerCount = bfd().size();
+  }
+
+  @Benchmark
+  public List<Broker> bfd() {
+    return new BFDCapacityPlanner(replicas, instanceType, storageVolumeType, true, true,
+        BFDCapacityPlanner.BinCountSearch.GALLOPING).solve();
+  }
+
+  /**
+   * Same plan as {@link #bfd()} from the columnar workload.
+   */
+  @Benchmark
+  public List<Broker> bfdTable() {
+    return new BFDCapacityPlanner(table, instanceType, storageVolumeType, true, true,
+        BFDCapacityPlanner.BinCountSearch.GALLOPING, Runtime.getRuntime().availableProcessors()).solve();
+  }
+
+  /**
+   * A single packing at the bin count BFD settles on, without the bin count search.
+   */
+  @Benchmark
+  public List<Broker> bfdPacking() {
+    return new BFDCapacityPlanner(replicas, instanceType, storageVolumeType, true, true).solve(brokerCount, replicas);
+  }
+
+  @Benchmark
+  public List<Broker> random() {
+    // Random planners consume their replica list
+    return new RandomCapacityPlanner(new ArrayList<>(replicas), instanceType, storageVolumeType, true, brokerCount).solve();
+  }
+
+  @Benchmark
+  public List<Broker> randomBalancing() {
+    return new RandomBalancingCapacityPlanner(new ArrayList<>(replicas), instanceType, storageVolumeType, true, brokerCount).solve();
+  }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Storage performance model predictions over the inputs StorageVolume produces: write percentages 0-100 and small
+ * leader and follower counts.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StorageModelBenchmark {
+  @Param({"ST1", "D2HDD"})
+  StorageVolumeType storageVolumeType;
+
+  private int writePct = 0;
+  private int leaders = 0;
+  private int followers = 0;
+
+  private void next() {
+    writePct = writePct == 100 ? 0 : writePct + 1;
+    leaders = (leaders + 1) % 16;
+    followers = (followers + 3) % 24;
+  }
+
+  @Benchmark
+  public int effectiveIOPS() {
+    next();
+    return storageVolumeType.effectiveIOPS(CapacityPlanner.IO_OP_SIZE_128KB, CCInstanceType.M4_4X.getStorageBWMB(),
+        writePct, leaders, followers);
+  }
+
+  /**
+   * Model evaluation without the prediction cache.
+   */
+  @Benchmark
+  public int predictIOPS() {
+    next();
+    return storageVolumeType.predictIOPS(CapacityPlanner.IO_OP_SIZE_128KB, CCInstanceType.M4_4X.getStorageBWMB(),
+        writePct, leaders, followers);
+  }
+}
@@ -15,6 +15,8 @@
  */
 package org.pathirage.thulitha;
 
+import org.pathirage.thulitha.utils.ReplicaQueue;
+import org.pathirage.thulitha.utils.SizeEngine;
 import org.pathirage.thulitha.utils.SizeUtility;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,75 +24,403 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntFunction;
+import java.util.function.IntToDoubleFunction;
 
 public class BFDCapacityPlanner extends CapacityPlanner {
   private static final Logger log = LoggerFactory.getLogger(BFDCapacityPlanner.class);
 
+  private static final BooleanSupplier NOT_CANCELLED = () -> false;
+
   private final boolean startWithLowestPossible;
+  private final BinCountSearch binCountSearch;
+  private final int parallelism;
+  private final List<BinCountProbe> probes = new ArrayList<>();
+  private final PlannerMetrics.PhaseTimes phaseTimes = new PlannerMetrics.PhaseTimes();
+  private double rekeyThreshold = 0;
+  private List<Replica> tableRows; // replicas of the table rows, built once per solve and shared by all probes
 
   public BFDCapacityPlanner(List<Replica> replicas, CCInstanceType instanceType, StorageVolumeType storageVolumeType, boolean dynamic, boolean startWithLowestPossible) {
+    this(replicas, instanceType, storageVolumeType, dynamic, startWithLowestPossible, BinCountSearch.LINEAR);
+  }
+
+  public BFDCapacityPlanner(List<Replica> replicas, CCInstanceType instanceType, StorageVolumeType storageVolumeType, boolean dynamic, boolean startWithLowestPossible, BinCountSearch binCountSearch) {
+    this(replicas, instanceType, storageVolumeType, dynamic, startWithLowestPossible, binCountSearch,
+        Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param parallelism number of bin counts probed concurrently by {@link BinCountSearch#PARALLEL}
+   */
+  public BFDCapacityPlanner(List<Replica> replicas, CCInstanceType instanceType, StorageVolumeType storageVolumeType, boolean dynamic, boolean startWithLowestPossible, BinCountSearch binCountSearch, int parallelism) {
     super(replicas, instanceType, storageVolumeType, dynamic);
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism should be at least 1, but was " + parallelism);
+    }
+
     this.startWithLowestPossible = startWithLowestPossible;
+    this.binCountSearch = binCountSearch;
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Plan a workload stored in a {@link ReplicaTable}. Sizes are computed from the columns and each row becomes a
+   * {@link Replica} once per {@link #solve()}, every bin count tried packs the same replicas.
+   */
+  public BFDCapacityPlanner(ReplicaTable table, CCInstanceType instanceType, StorageVolumeType storageVolumeType, boolean dynamic, boolean startWithLowestPossible, BinCountSearch binCountSearch, int parallelism) {
+    super(table, instanceType, storageVolumeType, dynamic);
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism should be at least 1, but was " + parallelism);
+    }
+
+    this.startWithLowestPossible = startWithLowestPossible;
+    this.binCountSearch = binCountSearch;
+    this.parallelism = parallelism;
   }
 
   @Override
   public List<Broker> solve() {
+    long start = PlannerMetrics.start();
+    phaseTimes.reset();
     int lowerBound = (int)computeLowestBinCount();
+    tableRows = table != null ? table.toReplicas() : null;
+    PlannerMetrics.stop(PlannerMetrics.Phase.SIZING, start, phaseTimes);
     List<Broker> solution;
-    int i = 0;
-    while(true) {
-      try {
-        solution = solve(lowerBound, new ArrayList<>(replicas));
-        if (solution != null && solution.size() > 0) {
-          break;
+    probes.clear();
+
+    if (binCountSearch == BinCountSearch.GALLOPING) {
+      solution = gallopingSearch(lowerBound);
+    } else if (binCountSearch == BinCountSearch.PARALLEL) {
+      solution = parallelSearch(lowerBound);
+    } else {
+      solution = linearSearch(lowerBound);
+    }
+
+    log.info("Number of iterations: " + probes.size());
+    if (log.isDebugEnabled()) {
+      for (BinCountProbe probe : probes) {
+        log.debug(probe.toString());
+      }
+    }
+
+    if (PlannerMetrics.ENABLED) {
+      int failed = 0;
+      for (BinCountProbe probe : probes) {
+        if (!probe.isFeasible()) {
+          failed++;
         }
-      } catch (CapacityPlanningException e) {
+      }
+      PlannerMetrics.solved(new PlannerMetrics.SolveSummary("BFD", instanceType, storageVolumeType, replicaCount(),
+          solution.size(), probes.size(), failed, (System.nanoTime() - start) / 1000, phaseTimes));
+    }
+
+    return solution;
+  }
+
+  private List<Broker> linearSearch(int lowerBound) {
+    List<Broker> solution;
+    while(true) {
+      solution = probe(lowerBound);
+      if (solution != null && solution.size() > 0) {
+        break;
+      } else if (solution == null) {
         lowerBound += 1;
       }
-      i++;
     }
 
-    log.info("Number of iterations: " + i);
+    return solution;
+  }
+
+  /**
+   * Gallop upwards from the lower bound (lb, lb + 1, lb + 3, lb + 7, ...) until a bin count succeeds and then binary
+   * search between the last failure and the first success. Costs O(log gap) packings instead of O(gap).
+   */
+  private List<Broker> gallopingSearch(int lowerBound) {
+    int maxBinCount = replicaCount(); // solve(int, List) rejects anything larger
+    int lastFailure = lowerBound - 1;
+    int step = 1;
+    int candidate = Math.min(lowerBound, maxBinCount);
+    List<Broker> best;
+
+    while (true) {
+      best = probe(candidate);
+      if (best != null) {
+        break;
+      }
+
+      lastFailure = candidate;
+      if (candidate >= maxBinCount) {
+        throw new CapacityPlanningException("Could not find a solution with up to " + maxBinCount + " brokers.");
+      }
+
+      candidate = Math.min(lastFailure + step, maxBinCount);
+      step *= 2;
+    }
+
+    int lo = lastFailure + 1;
+    int hi = candidate;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      List<Broker> solution = probe(mid);
+      if (solution != null) {
+        best = solution;
+        hi = mid;
+      } else {
+        lo = mid + 1;
+      }
+    }
+
+    return best;
+  }
+
+  /**
+   * Probe up to <code>parallelism</code> bin counts at once. While no bin count is known to work, candidates gallop
+   * upwards from the lower bound; afterwards they split the interval between the largest failure and the smallest
+   * success evenly. A probe is abandoned as soon as a smaller bin count succeeds.
+   */
+  private List<Broker> parallelSearch(int lowerBound) {
+    final int maxBinCount = replicaCount(); // solve(int, List) rejects anything larger
+    int lo = Math.min(lowerBound, maxBinCount);
+    int hi = -1;
+    int stride = 1;
+    List<Broker> best = null;
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+    try {
+      while (hi < 0 || lo < hi) {
+        List<Integer> candidates = new ArrayList<>();
+        for (int j = 0; j < parallelism; j++) {
+          int candidate = hi < 0 ? Math.min(lo + j * stride, maxBinCount) : lo + (int) (((long) j * (hi - lo)) / parallelism);
+          if (candidates.isEmpty() || candidates.get(candidates.size() - 1) < candidate) {
+            candidates.add(candidate);
+          }
+        }
+
+        final AtomicInteger smallestFeasible = new AtomicInteger(hi < 0 ? Integer.MAX_VALUE : hi);
+        List<ForkJoinTask<ProbeResult>> tasks = new ArrayList<>();
+        for (final int candidate : candidates) {
+          tasks.add(pool.submit(() -> speculativeProbe(candidate, smallestFeasible)));
+        }
+
+        int largestFailure = -1;
+        List<Broker> roundBest = null;
+        int roundBestBinCount = -1;
+        for (int j = 0; j < tasks.size(); j++) {
+          ProbeResult result = tasks.get(j).join();
+          probes.add(result.probe);
+          if (result.solution != null && roundBest == null) {
+            roundBest = result.solution;
+            roundBestBinCount = candidates.get(j);
+            for (int k = j + 1; k < tasks.size(); k++) {
+              tasks.get(k).cancel(false);
+            }
+            break;
+          } else if (result.solution == null && !result.probe.isCancelled()) {
+            largestFailure = candidates.get(j);
+          }
+        }
+
+        if (roundBest != null) {
+          best = roundBest;
+          hi = roundBestBinCount;
+        } else if (hi < 0 && candidates.get(candidates.size() - 1) >= maxBinCount) {
+          throw new CapacityPlanningException("Could not find a solution with up to " + maxBinCount + " brokers.");
+        } else if (hi < 0) {
+          stride *= 2;
+        }
+
+        if (largestFailure >= 0) {
+          lo = Math.max(lo, largestFailure + 1);
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+
+    return best;
+  }
+
+  private ProbeResult speculativeProbe(final int binCount, final AtomicInteger smallestFeasible) {
+    long start = System.nanoTime();
+    List<Broker> solution = null;
+    boolean cancelled = smallestFeasible.get() < binCount;
+    if (cancelled) {
+      return new ProbeResult(new BinCountProbe(binCount, false, true, 0), null);
+    }
+
+    try {
+      solution = pack(binCount, () -> smallestFeasible.get() < binCount);
+      smallestFeasible.accumulateAndGet(binCount, Math::min);
+    } catch (CancellationException e) {
+      cancelled = true;
+    } catch (CapacityPlanningException e) {
+      if (log.isDebugEnabled()) {
+        log.debug("Bin count " + binCount + " is not feasible: " + e.getMessage());
+      }
+    }
+
+    return new ProbeResult(new BinCountProbe(binCount, solution != null, cancelled, System.nanoTime() - start), solution);
+  }
 
+  private List<Broker> probe(int binCount) {
+    long start = System.nanoTime();
+    List<Broker> solution = null;
+    try {
+      solution = pack(binCount, NOT_CANCELLED);
+    } catch (CapacityPlanningException e) {
+      if (log.isDebugEnabled()) {
+        log.debug("Bin count " + binCount + " is not feasible: " + e.getMessage());
+      }
+    }
+
+    probes.add(new BinCountProbe(binCount, solution != null, false, System.nanoTime() - start));
     return solution;
   }
 
+  /**
+   * Recompute replica sizes from the capacity left after each placement instead of only once per bin count.
+   * Remaining replicas are re-sorted whenever a normalization factor moved by more than the given fraction since
+   * the last re-sort. Zero or less (the default) keeps sizes fixed.
+   */
+  public void setRekeyThreshold(double rekeyThreshold) {
+    this.rekeyThreshold = rekeyThreshold;
+  }
+
+  public double getRekeyThreshold() {
+    return rekeyThreshold;
+  }
+
+  /**
+   * Number of bin counts tried by the last call to {@link #solve()}
+   */
+  public int getIterations() {
+    return probes.size();
+  }
+
+  /**
+   * Bin counts tried by the last call to {@link #solve()} in the order they were tried
+   */
+  public List<BinCountProbe> getProbes() {
+    return Collections.unmodifiableList(probes);
+  }
+
+  private List<Broker> pack(int binCount, BooleanSupplier cancelled) {
+    if (table != null) {
+      return solve(binCount, table, tableRows, cancelled);
+    }
+
+    return solve(binCount, new ArrayList<>(replicas), cancelled);
+  }
+
   public List<Broker> solve(int binCount, List<Replica> replicas) throws CapacityPlanningException {
+    return solve(binCount, replicas, NOT_CANCELLED);
+  }
+
+  /**
+   * Pack replicas into at most the given number of brokers. Does not modify the replicas, so concurrent calls may
+   * share them. Brokers are opened as needed, so the solution only holds brokers that received replicas.
+   *
+   * @param cancelled polled once per replica; packing stops with a {@link CancellationException} when it returns true
+   */
+  List<Broker> solve(int binCount, List<Replica> replicas, BooleanSupplier cancelled) throws CapacityPlanningException {
     if (binCount > replicas.size()) {
       throw new CapacityPlanningException("Could not find a solution.");
     }
 
-    List<Broker> brokers = createBrokers(binCount);
+    log.info(String.format("Solving capacity planning for %s replicas with up to %s brokers", replicas.size(), binCount));
 
-    log.info(String.format("Solving capacity planning for %s replicas with initial brokers %s", replicas.size(), brokers.size()));
+    long start = PlannerMetrics.start();
+    BrokerPool pool = new BrokerPool(instanceType, storageVolumeType, IO_OP_SIZE_128KB, binCount);
+    long[] totalRemaining = SizeUtility.computeTotalRemaining(pool.getTemplate(), binCount);
+    double[] replicaSizes = SizeUtility.computeReplicaSizes(replicas, totalRemaining);
+    SizeEngine sizeEngine = new SizeEngine(totalRemaining);
+    PlannerMetrics.stop(PlannerMetrics.Phase.SIZING, start, phaseTimes);
+    return pack(pool, sort(replicaSizes), replicas::get, sizeEngine, i -> sizeEngine.size(replicas.get(i)), cancelled);
+  }
 
-    SizeUtility.updateBrokerSize(brokers);
-    SizeUtility.updateReplicaSize(replicas, brokers);
-    Collections.sort(brokers);
+  /**
+   * Pack table rows into at most the given number of brokers. Rows are packed in the same order as the equivalent
+   * replica list, so both produce the same plan.
+   *
+   * @param rows replica of each row, as built by {@link ReplicaTable#toReplicas()}
+   */
+  List<Broker> solve(int binCount, ReplicaTable table, List<Replica> rows, BooleanSupplier cancelled)
+      throws CapacityPlanningException {
+    if (binCount > table.size()) {
+      throw new CapacityPlanningException("Could not find a solution.");
+    }
 
-    // TODO: Do we need to sort replicas first?
-    while (!replicas.isEmpty()) {
-      Replica largestReplica = Collections.max(replicas);
+    log.info(String.format("Solving capacity planning for %s replicas with up to %s brokers", table.size(), binCount));
 
-      if (dynamic) {
-        Collections.sort(brokers);
-      }
+    long start = PlannerMetrics.start();
+    BrokerPool pool = new BrokerPool(instanceType, storageVolumeType, IO_OP_SIZE_128KB, binCount);
+    long[] totalRemaining = SizeUtility.computeTotalRemaining(pool.getTemplate(), binCount);
+    double[] replicaSizes = SizeUtility.computeReplicaSizes(table, totalRemaining);
+    SizeEngine sizeEngine = new SizeEngine(totalRemaining);
+    PlannerMetrics.stop(PlannerMetrics.Phase.SIZING, start, phaseTimes);
+    return pack(pool, sort(replicaSizes), rows::get, sizeEngine, i -> sizeEngine.size(table, i), cancelled);
+  }
 
-      boolean packed = false;
-      for (Broker b : brokers) {
-        if (b.add(largestReplica)) {
-          packed = true;
-          break;
+  private ReplicaQueue sort(double[] replicaSizes) {
+    long start = PlannerMetrics.start();
+    ReplicaQueue queue = new ReplicaQueue(replicaSizes);
+    PlannerMetrics.sorted();
+    PlannerMetrics.stop(PlannerMetrics.Phase.SORTING, start, phaseTimes);
+    return queue;
+  }
+
+  /**
+   * All brokers start out identical, so ordering them by size (as BFD does) keeps creation order and first fit over
+   * brokers opened on demand is the same as first fit over preallocated ones.
+   *
+   * @param queue      replica indexes in packing order
+   * @param replicaAt  replica for an index taken from the queue
+   * @param sizeEngine normalization state used when sizes are re-keyed during packing
+   * @param resize     current size of the replica at an index, computed with sizeEngine
+   */
+  private List<Broker> pack(BrokerPool pool, ReplicaQueue queue, IntFunction<Replica> replicaAt, SizeEngine sizeEngine,
+                            IntToDoubleFunction resize, BooleanSupplier cancelled) {
+    boolean dynamicWeights = rekeyThreshold > 0;
+    if (dynamicWeights) {
+      pool.track(sizeEngine);
+    }
+
+    int rekeys = 0;
+    long start = PlannerMetrics.start();
+    try {
+      while (!queue.isEmpty()) {
+        if (cancelled.getAsBoolean()) {
+          throw new CancellationException("Packing into " + pool.getLimit() + " brokers cancelled.");
         }
-      }
 
-      if (!packed) {
-        throw new CapacityPlanningException("Could not pack replica " + largestReplica);
+        Replica largestReplica = replicaAt.apply(queue.pollIndex());
+        if (!pool.place(largestReplica)) {
+          throw new CapacityPlanningException("Could not pack replica " + largestReplica);
+        }
+
+        if (dynamicWeights && !queue.isEmpty() && sizeEngine.drift() > rekeyThreshold) {
+          queue.rekey(resize);
+          sizeEngine.markKeyed();
+          PlannerMetrics.rekeyed();
+          rekeys++;
+        }
       }
+    } finally {
+      // Failed probes are timed too, they are the cost of bin count retries
+      PlannerMetrics.stop(PlannerMetrics.Phase.PACKING, start, phaseTimes);
+    }
+    start = PlannerMetrics.start();
 
-      replicas.remove(largestReplica);
+    if (dynamicWeights) {
+      log.info(String.format("Re-keyed remaining replicas %s times", rekeys));
     }
 
+    List<Broker> brokers = new ArrayList<>(pool.getBrokers());
     List<Broker> emptyBrokers = new ArrayList<>();
     for (Broker b : brokers) {
       if (b.isEmpty()) {
@@ -98,9 +428,10 @@ public class BFDCapacityPlanner extends CapacityPlanner {
       }
     }
 
-    log.info("Empty brokers " + emptyBrokers.size());
+    log.info(String.format("Opened %s of %s brokers, empty brokers %s", brokers.size(), pool.getLimit(), emptyBrokers.size()));
 
     brokers.removeAll(emptyBrokers);
+    PlannerMetrics.stop(PlannerMetrics.Phase.CLEANUP, start, phaseTimes);
 
     return brokers;
   }
@@ -111,6 +442,65 @@ public class BFDCapacityPlanner extends CapacityPlanner {
       return super.computeLowestBinCount();
     }
 
-    return replicas.size();
+    return replicaCount();
+  }
+
+  public enum BinCountSearch {
+    LINEAR,
+    GALLOPING,
+    PARALLEL
+  }
+
+  private static class ProbeResult {
+    private final BinCountProbe probe;
+    private final List<Broker> solution;
+
+    ProbeResult(BinCountProbe probe, List<Broker> solution) {
+      this.probe = probe;
+      this.solution = solution;
+    }
+  }
+
+  public static class BinCountProbe {
+    private final int binCount;
+    private final boolean feasible;
+    private final boolean cancelled;
+    private final long elapsedNanos;
+
+    BinCountProbe(int binCount, boolean feasible, boolean cancelled, long elapsedNanos) {
+      this.binCount = binCount;
+      this.feasible = feasible;
+      this.cancelled = cancelled;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    public int getBinCount() {
+      return binCount;
+    }
+
+    public boolean isFeasible() {
+      return feasible;
+    }
+
+    /**
+     * Whether the probe was abandoned because a smaller bin count succeeded first
+     */
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    public long getElapsedNanos() {
+      return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+      return "BinCountProbe{" +
+          "binCount=" + binCount +
+          ", feasible=" + feasible +
+          ", cancelled=" + cancelled +
+          ", elapsedMillis=" + (elapsedNanos / 1000000.0) +
+          '}';
+    }
   }
 }
@@ -15,6 +15,7 @@
  */
 package org.pathirage.thulitha;
 
+import org.pathirage.thulitha.utils.LongHashSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -42,8 +43,12 @@ public class Broker implements Comparable<Broker> {
   private final StorageVolumeType storageVolumeType;
   private final int iopSizeKB;
   private int maxStorageVolumes = -1;
+  private final int volumeLimit; // volumes selectStorageVolume may open, unlike maxStorageVolumes it never grows
   private final List<StorageVolume> storageVolumes = new ArrayList<>();
-  private final Set<String> partitions = new HashSet<>();
+  private final StorageVolumeIndex storageVolumeIndex = new StorageVolumeIndex();
+  private final long[] emptyVolumeRemaining;
+  private final long[] volumeDemand = new long[2];
+  private final LongHashSet partitions = new LongHashSet(); // topic partition keys of hosted replicas
   private final boolean dumb;
 
   public Broker(CCInstanceType instanceType, StorageVolumeType storageVolumeType, int iopSizeKB) {
@@ -51,6 +56,14 @@ public class Broker implements Comparable<Broker> {
   }
 
   public Broker(CCInstanceType instanceType, StorageVolumeType storageVolumeType, int iopSizeKB, boolean dumb) {
+    this(UUID.randomUUID().toString(), instanceType, storageVolumeType, iopSizeKB, dumb);
+  }
+
+  /**
+   * @param id broker identifier, planners assign sequential ids instead of generating UUIDs
+   */
+  public Broker(String id, CCInstanceType instanceType, StorageVolumeType storageVolumeType, int iopSizeKB, boolean dumb) {
+    this.id = id;
     this.instanceType = instanceType;
     this.storageVolumeType = storageVolumeType;
     this.iopSizeKB = iopSizeKB;
@@ -58,8 +71,9 @@ public class Broker implements Comparable<Broker> {
     this.capacity = computeInitialCapacity();
     this.remainingCapacity = this.capacity.clone();
     this.replicas = new ArrayList<>();
-    this.id = UUID.randomUUID().toString();
     this.maxStorageVolumes = computeMaxVolumeCount();
+    this.volumeLimit = maxStorageVolumes;
+    this.emptyVolumeRemaining = new long[]{storageVolumeType.getSizeMB(), storageVolumeType.getIOPS(iopSizeKB, instanceType.getStorageBWMB())};
     this.totalSizeOfItems = new long[]{0, 0, 0, 0, 0};
     initializeStorageVolumes();
   }
@@ -69,9 +83,24 @@ public class Broker implements Comparable<Broker> {
   }
 
   public boolean add(Replica replica) {
+    if (PlannerMetrics.ENABLED) {
+      return instrumentedAdd(replica);
+    }
+
     return isFeasible(replica) && insert(replica);
   }
 
+  private boolean instrumentedAdd(Replica replica) {
+    int rejection = rejection(replica);
+    if (rejection < 0 && insert(replica)) {
+      PlannerMetrics.added();
+      return true;
+    }
+
+    PlannerMetrics.rejected(rejection < 0 ? PlannerMetrics.REJECTED_VOLUME : rejection);
+    return false;
+  }
+
   private boolean insert(Replica replica) {
     boolean leader = replica.getId() == 0; // Replica with id 0 is always the leader
 
@@ -83,12 +112,16 @@ public class Broker implements Comparable<Broker> {
 //      return true;
 //    }
 
-    StorageVolume storageVolume = selectStorageVolume(replica);
-    if (storageVolume == null) {
+    int position = selectStorageVolume(replica);
+    if (position < 0) {
       return false;
     }
 
+    StorageVolume storageVolume = storageVolumes.get(position);
     storageVolume.addReplica(replica, leader);
+    if (!dumb) {
+      storageVolumeIndex.update(position);
+    }
 
     if (!dumb) {
       allocateMoreStorageBinsIfNecessary();
@@ -102,76 +135,214 @@ public class Broker implements Comparable<Broker> {
     remainingCapacity[0] -= replica.getRequirements()[0];
     remainingCapacity[3] -= replica.getRequirements()[3];
     remainingCapacity[4] -= replica.getRequirements()[4];
-
-    // We should not expose all available storage capacity as remaining since replica's does not share storage volumes.
-    // So always use the remaining capacity of storage volume with largest remaining capacity
-    StorageVolume maxSV = getStorageVolumeWithMaxRemainingCapacity();
-    remainingCapacity[1] = maxSV.getRemaining()[0];
-    remainingCapacity[2] = Math.min(maxSV.getRemaining()[1], ((instanceType.getStorageBWMB() * MBS_TO_KB) / iopSizeKB) - ((totalSizeOfItems[2] * MBS_TO_KB) / iopSizeKB));
-    capacity[1] = maxSV.getRemaining()[0];
-    capacity[2] = maxSV.getRemaining()[1];
+    updateStorageRemainingCapacity();
 
     replicas.add(replica);
-    partitions.add(replica.getTopicPartition());
+    partitions.add(replica.getTopicPartitionKey());
 
     return true;
   }
 
-  public StorageVolume getStorageVolumeWithMaxRemainingCapacity() {
-    Collections.sort(storageVolumes);
-    // sort storage volume in ascending order of remaining capacity and get the last one.
-    StorageVolume maxSv = storageVolumes.get(storageVolumes.size() - 1);
+  /**
+   * Take a replica off this broker and the storage volume hosting it.
+   *
+   * @return false if the replica is not assigned to this broker
+   */
+  public boolean remove(Replica replica) {
+    int index = -1;
+    for (int i = 0; i < replicas.size(); i++) {
+      if (replicas.get(i) == replica) {
+        index = i;
+        break;
+      }
+    }
+
+    if (index < 0) {
+      return false;
+    }
+
+    boolean leader = replica.getId() == 0;
+    for (int position = 0; position < storageVolumes.size(); position++) {
+      if (storageVolumes.get(position).removeReplica(replica, leader)) {
+        if (!dumb) {
+          storageVolumeIndex.update(position);
+        }
+        break;
+      }
+    }
+
+    for (int i = 0; i < 5; i++) {
+      totalSizeOfItems[i] -= replica.getRequirements()[i];
+    }
+
+    replicas.remove(index);
+    partitions.remove(replica.getTopicPartitionKey());
+
+    if (replicas.isEmpty()) {
+      // Same capacity as a new broker, volumes that were opened stay empty until replicas get added again
+      long[] initial = computeInitialCapacity();
+      System.arraycopy(initial, 0, capacity, 0, initial.length);
+      System.arraycopy(initial, 0, remainingCapacity, 0, initial.length);
+      return true;
+    }
+
+    remainingCapacity[0] += replica.getRequirements()[0];
+    remainingCapacity[3] += replica.getRequirements()[3];
+    remainingCapacity[4] += replica.getRequirements()[4];
+    updateStorageRemainingCapacity();
+
+    return true;
+  }
+
+  /**
+   * Fresh broker of the same type holding the same replicas, added in the order they were added here.
+   *
+   * @throws IllegalStateException if the replicas can not be replayed, which happens after removals
+   */
+  Broker copy(String id) {
+    Broker copy = replay(id, null, null);
+    if (copy == null) {
+      throw new IllegalStateException("Could not replay the assignment of broker " + this.id);
+    }
+
+    return copy;
+  }
 
+  /**
+   * Fresh broker with the same id and type holding the replicas of this broker except <code>removed</code>, in the
+   * order they were added here, followed by <code>added</code>. Either replica may be null. Unlike
+   * {@link #remove(Replica)}, which leaves volumes opened for the removed replica behind, the result is always a state
+   * a new broker reaches by adding its replicas.
+   *
+   * @return null if the replicas do not fit a new broker in that order
+   */
+  Broker replay(Replica removed, Replica added) {
+    return replay(id, removed, added);
+  }
+
+  private Broker replay(String id, Replica removed, Replica added) {
+    Broker replayed = new Broker(id, instanceType, storageVolumeType, iopSizeKB, dumb);
+    for (Replica r : replicas) {
+      if (r != removed && !replayed.add(r)) {
+        return null;
+      }
+    }
+
+    return added == null || replayed.add(added) ? replayed : null;
+  }
+
+  /**
+   * @return true if the replica passes the capacity and partition checks of {@link #add(Replica)}, which may still
+   * fail to find a storage volume for it
+   */
+  boolean fits(Replica replica) {
+    return isFeasible(replica);
+  }
+
+  boolean hostsPartitionOf(Replica replica) {
+    return partitions.contains(replica.getTopicPartitionKey());
+  }
+
+  private void updateStorageRemainingCapacity() {
+    // We should not expose all available storage capacity as remaining since replica's does not share storage volumes.
+    // So always use the remaining capacity of storage volume with largest remaining capacity
+    long[] maxRemaining = maxVolumeRemaining();
+    remainingCapacity[1] = maxRemaining[0];
+    remainingCapacity[2] = Math.min(maxRemaining[1], ((instanceType.getStorageBWMB() * MBS_TO_KB) / iopSizeKB) - ((totalSizeOfItems[2] * MBS_TO_KB) / iopSizeKB));
+    capacity[1] = maxRemaining[0];
+    capacity[2] = maxRemaining[1];
+  }
+
+  public StorageVolume getStorageVolumeWithMaxRemainingCapacity() {
     if (storageVolumes.size() < maxStorageVolumes) {
       return new StorageVolume(id, storageVolumeType, instanceType, iopSizeKB);
     } else {
-      return maxSv;
+      return storageVolumes.get(storageVolumes.size() - 1);
+    }
+  }
+
+  /**
+   * Remaining {size, IOPS} of {@link #getStorageVolumeWithMaxRemainingCapacity()} without allocating a volume.
+   * Volume sizes are never set, so sorting volumes kept them in allocation order and the last volume is the one
+   * reported.
+   */
+  private long[] maxVolumeRemaining() {
+    if (storageVolumes.size() < maxStorageVolumes) {
+      return emptyVolumeRemaining;
     }
+
+    return storageVolumes.get(storageVolumes.size() - 1).getRemaining();
   }
 
   private boolean isFeasible(Replica replica) {
-    if (partitions.contains(replica.getTopicPartition())) {
-      return false;
+    return rejection(replica) < 0;
+  }
+
+  /**
+   * @return first capacity dimension the replica does not fit in, {@link PlannerMetrics#REJECTED_PARTITION} if the
+   * broker already hosts a replica of the partition or -1 if the replica fits
+   */
+  private int rejection(Replica replica) {
+    if (partitions.contains(replica.getTopicPartitionKey())) {
+      return PlannerMetrics.REJECTED_PARTITION;
     }
 
     if (dumb) {
-      return true;
+      return -1;
     }
 
     for (int i = 0; i < replica.getDimensionCount(); i++) {
-      if (i != 2) {
-        if (replica.getDimension(i) > remainingCapacity[i]) {
-          return false;
-        }
-      } else {
-        if (((replica.getDimension(i) * MBS_TO_KB) / iopSizeKB) > remainingCapacity[i]) {
-          return false;
-        }
+      if (demand(replica, i) > remainingCapacity[i]) {
+        return i;
       }
     }
-    return true;
+    return -1;
   }
 
-  private StorageVolume selectStorageVolume(Replica replica) {
+  /**
+   * Replica's requirement along a dimension expressed in this broker's capacity units. Storage bandwidth
+   * requirement gets converted to IOPS.
+   */
+  long demand(Replica replica, int dimension) {
+    if (dimension == 2) {
+      return (replica.getDimension(dimension) * MBS_TO_KB) / iopSizeKB;
+    }
+
+    return replica.getDimension(dimension);
+  }
+
+  /**
+   * First volume in allocation order that can hold the replica, opening new volumes while under the limit.
+   *
+   * @return position of the volume in storageVolumes or -1 if the replica does not fit
+   */
+  private int selectStorageVolume(Replica replica) {
     if (dumb) {
       Collections.shuffle(storageVolumes);
-      return storageVolumes.get(0);
+      return 0;
     }
 
-    Collections.sort(storageVolumes);
-    for (StorageVolume volume : storageVolumes) {
-      if (volume.isFeasible(replica)) {
-        return volume;
+    volumeDemand[0] = replica.getDimension(1);
+    volumeDemand[1] = demand(replica, 2);
+    int position = storageVolumeIndex.findFirstFeasible(volumeDemand);
+    PlannerMetrics.volumeChecked();
+    while (position < 0 && storageVolumes.size() < volumeLimit) {
+      int added = addStorageVolume(new StorageVolume(id, storageVolumeType, instanceType, iopSizeKB));
+      if (storageVolumes.get(added).isFeasible(replica)) {
+        position = added;
       }
     }
 
-    if (storageVolumes.size() < computeMaxVolumeCount()) {
-      storageVolumes.add(new StorageVolume(id, storageVolumeType, instanceType, iopSizeKB));
-    } else {
-      return null;
+    return position;
+  }
+
+  private int addStorageVolume(StorageVolume storageVolume) {
+    storageVolumes.add(storageVolume);
+    if (!dumb) {
+      storageVolumeIndex.add(storageVolume);
     }
 
-    return selectStorageVolume(replica);
+    return storageVolumes.size() - 1;
   }
 
   public void allocateMoreStorageBinsIfNecessary() {
@@ -183,7 +354,7 @@ public class Broker implements Comparable<Broker> {
       }
 
       if ((effectiveThroughput / 1024.0) < instanceType.getStorageBWMB()) {
-        storageVolumes.add(new StorageVolume(id, storageVolumeType, instanceType, iopSizeKB));
+        addStorageVolume(new StorageVolume(id, storageVolumeType, instanceType, iopSizeKB));
         maxStorageVolumes += 1;
       }
     }
@@ -263,7 +434,7 @@ public class Broker implements Comparable<Broker> {
 
   private void initializeStorageVolumes() {
     for (int i = 0; i < computeVolumeCount(); i++) {
-      storageVolumes.add(new StorageVolume(id, storageVolumeType, instanceType, iopSizeKB, dumb));
+      addStorageVolume(new StorageVolume(id, storageVolumeType, instanceType, iopSizeKB, dumb));
     }
   }
 
@@ -327,6 +498,13 @@ public class Broker implements Comparable<Broker> {
     return new Double(totalSizeOfItems[4]) / instanceType.getNetworkBWMB();
   }
 
+  /**
+   * @return number of storage volumes replicas can be spread over
+   */
+  int getVolumeLimit() {
+    return volumeLimit;
+  }
+
   public int getReplicaCount() {
     return replicas.size();
   }
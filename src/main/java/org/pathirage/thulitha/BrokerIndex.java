@@ -0,0 +1,163 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Segment tree over brokers in packing order. Each node keeps the maximum remaining capacity of its subtree along
+ * every dimension, so the first broker that can hold a replica is found by descending only into subtrees whose
+ * maximums cover the replica's demand instead of scanning all brokers.
+ * <p>
+ * Positions are fixed once a broker is added. Callers must invoke {@link #update(int)} after a broker's remaining
+ * capacity changes.
+ */
+class BrokerIndex {
+  private static final int DIMENSIONS = 5;
+
+  private final List<Broker> brokers;
+  private int leaves;
+  private long[][] max; // {dimension}{tree node}, node 1 is the root
+
+  BrokerIndex() {
+    this(new ArrayList<Broker>());
+  }
+
+  BrokerIndex(List<Broker> brokers) {
+    this.brokers = new ArrayList<>(brokers);
+    rebuild(Math.max(1, brokers.size()));
+  }
+
+  int size() {
+    return brokers.size();
+  }
+
+  Broker get(int position) {
+    return brokers.get(position);
+  }
+
+  List<Broker> getBrokers() {
+    return brokers;
+  }
+
+  /**
+   * Append a broker after the current last position.
+   *
+   * @return position of the broker
+   */
+  int add(Broker broker) {
+    brokers.add(broker);
+    if (brokers.size() > leaves) {
+      rebuild(brokers.size());
+    } else {
+      update(brokers.size() - 1);
+    }
+
+    return brokers.size() - 1;
+  }
+
+  /**
+   * Refresh the remaining capacity of the broker at the given position.
+   */
+  void update(int position) {
+    Broker broker = brokers.get(position);
+    int node = leaves + position;
+    for (int d = 0; d < DIMENSIONS; d++) {
+      max[d][node] = broker.getRemainingCapacity(d);
+    }
+
+    node >>= 1;
+    while (node >= 1) {
+      for (int d = 0; d < DIMENSIONS; d++) {
+        max[d][node] = Math.max(max[d][2 * node], max[d][2 * node + 1]);
+      }
+      node >>= 1;
+    }
+  }
+
+  /**
+   * Find the first broker at or after <code>from</code> whose remaining capacity covers the demand along every
+   * dimension.
+   *
+   * @param demand replica requirements in broker units (see {@link Broker#demand(Replica, int)})
+   * @param from   first position to consider
+   * @return broker position or -1 if there is no such broker
+   */
+  int findFirstFeasible(long[] demand, int from) {
+    if (from >= brokers.size()) {
+      return -1;
+    }
+
+    return findFirstFeasible(1, 0, leaves - 1, demand, from);
+  }
+
+  private int findFirstFeasible(int node, int lo, int hi, long[] demand, int from) {
+    if (hi < from || !covers(node, demand)) {
+      return -1;
+    }
+
+    if (lo == hi) {
+      return lo < brokers.size() ? lo : -1;
+    }
+
+    int mid = (lo + hi) >>> 1;
+    int position = findFirstFeasible(2 * node, lo, mid, demand, from);
+    if (position >= 0) {
+      return position;
+    }
+
+    return findFirstFeasible(2 * node + 1, mid + 1, hi, demand, from);
+  }
+
+  private boolean covers(int node, long[] demand) {
+    for (int d = 0; d < DIMENSIONS; d++) {
+      if (demand[d] > max[d][node]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private void rebuild(int minLeaves) {
+    int l = 1;
+    while (l < minLeaves) {
+      l <<= 1;
+    }
+
+    leaves = l;
+    max = new long[DIMENSIONS][2 * leaves];
+    for (int d = 0; d < DIMENSIONS; d++) {
+      for (int node = 1; node < 2 * leaves; node++) {
+        max[d][node] = Long.MIN_VALUE;
+      }
+    }
+
+    for (int i = 0; i < brokers.size(); i++) {
+      Broker broker = brokers.get(i);
+      for (int d = 0; d < DIMENSIONS; d++) {
+        max[d][leaves + i] = broker.getRemainingCapacity(d);
+      }
+    }
+
+    for (int node = leaves - 1; node >= 1; node--) {
+      for (int d = 0; d < DIMENSIONS; d++) {
+        max[d][node] = Math.max(max[d][2 * node], max[d][2 * node + 1]);
+      }
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha;
+
+import org.pathirage.thulitha.utils.SizeEngine;
+
+import java.util.List;
+
+/**
+ * Brokers opened on demand during packing, up to a limit. A replica goes to the first open broker that accepts it;
+ * a new broker is opened only when none does. Unopened brokers are empty and identical, so this places replicas
+ * exactly where first fit over <code>limit</code> preallocated brokers would, while only paying for brokers that get
+ * used. Brokers get sequential ids in opening order.
+ */
+class BrokerPool {
+  private final CCInstanceType instanceType;
+  private final StorageVolumeType storageVolumeType;
+  private final int iopSizeKB;
+  private final int limit;
+  private final BrokerIndex index = new BrokerIndex();
+  private final Broker template;
+  private final long[] demand = new long[5];
+  private final long[] before = new long[5];
+  private SizeEngine sizeEngine;
+
+  BrokerPool(CCInstanceType instanceType, StorageVolumeType storageVolumeType, int iopSizeKB, int limit) {
+    this.instanceType = instanceType;
+    this.storageVolumeType = storageVolumeType;
+    this.iopSizeKB = iopSizeKB;
+    this.limit = limit;
+    this.template = newBroker("template");
+  }
+
+  /**
+   * Empty broker with the capacity every broker in the pool starts with. Never part of the plan.
+   */
+  Broker getTemplate() {
+    return template;
+  }
+
+  /**
+   * Report the capacity consumed by each placement to the given engine. Its totals should start out as
+   * <code>limit</code> times the template's capacity.
+   */
+  void track(SizeEngine sizeEngine) {
+    this.sizeEngine = sizeEngine;
+  }
+
+  int getLimit() {
+    return limit;
+  }
+
+  int size() {
+    return index.size();
+  }
+
+  List<Broker> getBrokers() {
+    return index.getBrokers();
+  }
+
+  /**
+   * Add the replica to the first open broker that accepts it, opening a new broker if necessary.
+   *
+   * @return false if neither an open broker nor a new one accepts the replica
+   */
+  boolean place(Replica replica) {
+    for (int d = 0; d < demand.length; d++) {
+      demand[d] = template.demand(replica, d);
+    }
+
+    int position = index.findFirstFeasible(demand, 0);
+    while (position >= 0) {
+      if (add(position, replica)) {
+        return true;
+      }
+
+      position = index.findFirstFeasible(demand, position + 1);
+    }
+
+    if (index.size() >= limit) {
+      return false;
+    }
+
+    return add(index.add(newBroker(String.valueOf(index.size()))), replica);
+  }
+
+  private boolean add(int position, Replica replica) {
+    Broker broker = index.get(position);
+    if (sizeEngine != null) {
+      System.arraycopy(broker.getRemainingCapacity(), 0, before, 0, before.length);
+    }
+
+    if (!broker.add(replica)) {
+      return false;
+    }
+
+    index.update(position);
+    if (sizeEngine != null) {
+      sizeEngine.update(before, broker.getRemainingCapacity());
+    }
+
+    return true;
+  }
+
+  private Broker newBroker(String id) {
+    return new Broker(id, instanceType, storageVolumeType, iopSizeKB, false);
+  }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Instance type and the storage volume type its brokers use.
+ */
+public final class BrokerType {
+  private final CCInstanceType instanceType;
+  private final StorageVolumeType storageVolumeType;
+
+  public BrokerType(CCInstanceType instanceType, StorageVolumeType storageVolumeType) {
+    if (!compatibleVolumeTypes(instanceType).contains(storageVolumeType)) {
+      throw new IllegalArgumentException(instanceType + " brokers can not use " + storageVolumeType + " volumes.");
+    }
+
+    this.instanceType = instanceType;
+    this.storageVolumeType = storageVolumeType;
+  }
+
+  /**
+   * Volume types planners can model for the instance type: local disks for instances that have them, ST1 otherwise.
+   * The first one is backed by a storage performance model.
+   */
+  public static List<StorageVolumeType> compatibleVolumeTypes(CCInstanceType instanceType) {
+    if (instanceType.getLocalDiskCount() > 0) {
+      return Arrays.asList(StorageVolumeType.D2HDD, StorageVolumeType.D2HDDSTATIC);
+    }
+
+    return Arrays.asList(StorageVolumeType.ST1, StorageVolumeType.ST1STATIC);
+  }
+
+  public static StorageVolumeType defaultVolumeType(CCInstanceType instanceType) {
+    return compatibleVolumeTypes(instanceType).get(0);
+  }
+
+  /**
+   * Every instance type with its default volume type.
+   */
+  public static List<BrokerType> defaults() {
+    List<BrokerType> types = new ArrayList<>();
+    for (CCInstanceType t : CCInstanceType.values()) {
+      types.add(new BrokerType(t, defaultVolumeType(t)));
+    }
+
+    return types;
+  }
+
+  public CCInstanceType getInstanceType() {
+    return instanceType;
+  }
+
+  public StorageVolumeType getStorageVolumeType() {
+    return storageVolumeType;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof BrokerType)) {
+      return false;
+    }
+
+    BrokerType that = (BrokerType) o;
+    return instanceType == that.instanceType && storageVolumeType == that.storageVolumeType;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * instanceType.hashCode() + storageVolumeType.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return instanceType + "/" + storageVolumeType;
+  }
+}
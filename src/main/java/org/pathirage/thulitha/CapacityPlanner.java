@@ -1,11 +1,18 @@
 package org.pathirage.thulitha;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public abstract class CapacityPlanner {
+  private static final Logger log = LoggerFactory.getLogger(CapacityPlanner.class);
+
   static final int IO_OP_SIZE_128KB = 128;
   final List<Replica> replicas;
+  final ReplicaTable table; // set instead of replicas when planning a columnar workload
   final CCInstanceType instanceType;
   final StorageVolumeType storageVolumeType;
   boolean dynamic = true;
@@ -15,6 +22,18 @@ public abstract class CapacityPlanner {
                   StorageVolumeType storageVolumeType,
                   boolean dynamic) {
     this.replicas = replicas;
+    this.table = null;
+    this.instanceType = instanceType;
+    this.storageVolumeType = storageVolumeType;
+    this.dynamic = dynamic;
+  }
+
+  CapacityPlanner(ReplicaTable table,
+                  CCInstanceType instanceType,
+                  StorageVolumeType storageVolumeType,
+                  boolean dynamic) {
+    this.replicas = Collections.emptyList();
+    this.table = table;
     this.instanceType = instanceType;
     this.storageVolumeType = storageVolumeType;
     this.dynamic = dynamic;
@@ -22,52 +41,42 @@ public abstract class CapacityPlanner {
 
   public abstract List<Broker> solve();
 
+  int replicaCount() {
+    return table != null ? table.size() : replicas.size();
+  }
+
   List<Broker> createBrokers(int binCount) {
     List<Broker> brokers = new ArrayList<>();
     for (int i = 0; i < binCount; i++) {
-      brokers.add(new Broker(instanceType, storageVolumeType, IO_OP_SIZE_128KB));
+      brokers.add(new Broker(String.valueOf(i), instanceType, storageVolumeType, IO_OP_SIZE_128KB, false));
     }
 
     return brokers;
   }
 
   public long lowestPossibleBrokersRequired() {
-    long numberOfBrokers = 0;
-    long[] totalSizeOfItems = computeTotalSizeOfReplicas();
-    long[] brokerCapacity = instanceType.capacity();
-
-
-    for(int d = 0; d < 5; d++) {
-      long nb = totalSizeOfItems[d]/ brokerCapacity[d];
-      if (totalSizeOfItems[d] % brokerCapacity[d] > 0) {
-        nb += 1;
-      }
-
-      numberOfBrokers = Math.max(numberOfBrokers, nb);
-    }
-
-    return numberOfBrokers;
+    return computeLowerBounds().getBrokerCount();
   }
 
   long computeLowestBinCount() {
-    long numberOfBrokers = 0;
-    long[] totalSizeOfItems = computeTotalSizeOfReplicas();
-    long[] brokerCapacity = instanceType.capacity();
-
-
-    for(int d = 0; d < 5; d++) {
-      long nb = totalSizeOfItems[d]/ brokerCapacity[d];
-      if (totalSizeOfItems[d] % brokerCapacity[d] > 0) {
-        nb += 1;
-      }
+    return computeLowerBounds().getBrokerCount();
+  }
 
-      numberOfBrokers = Math.max(numberOfBrokers, nb);
+  LowerBounds.Bounds computeLowerBounds() {
+    LowerBounds lowerBounds = new LowerBounds(instanceType, storageVolumeType, IO_OP_SIZE_128KB);
+    LowerBounds.Bounds bounds = table != null ? lowerBounds.compute(table) : lowerBounds.compute(replicas);
+    if (log.isDebugEnabled()) {
+      log.debug("Lower bounds: " + bounds);
     }
 
-    return numberOfBrokers;
+    return bounds;
   }
 
   long[] computeTotalSizeOfReplicas() {
+    if (table != null) {
+      return table.computeTotalSizeOfItems();
+    }
+
     long[] totalItemSize = new long[]{0, 0, 0, 0, 0};
 
     for (Replica r : replicas) {
@@ -80,6 +89,10 @@ public abstract class CapacityPlanner {
   }
 
   long[] getMaxRequirements() {
+    if (table != null) {
+      return table.getMaxRequirements();
+    }
+
     long[] max = new long[]{0,0,0,0,0};
 
     for (Replica r : replicas) {
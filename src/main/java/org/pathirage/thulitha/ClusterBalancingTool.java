@@ -13,6 +13,9 @@ public class ClusterBalancingTool {
   private final CCInstanceType instanceType;
   private final StorageVolumeType storageVolumeType;
   private final int iopSizeKB;
+  private double targetSpread = Rebalancer.DEFAULT_TARGET_SPREAD;
+  private long timeBudgetMillis = Rebalancer.DEFAULT_TIME_BUDGET_MILLIS;
+  private Rebalancer.Result lastResult;
 
   public ClusterBalancingTool(List<Broker> brokers) {
     this.brokers = brokers;
@@ -35,15 +38,33 @@ public class ClusterBalancingTool {
       }
     }
 
+    // Move replicas off the most loaded brokers, including onto the ones added above
+    Rebalancer rebalancer = new Rebalancer(brokers);
+    rebalancer.setTargetSpread(targetSpread);
+    rebalancer.setTimeBudgetMillis(timeBudgetMillis);
+    lastResult = rebalancer.rebalance();
+
     // Note: This size measure cannot be use with bin packing
     SizeUtility.updateBrokerSizeBasedOnTotalSizeOfItems(brokers, replicas);
-    while(!isTerminationConditionMet()) {
-      // Perform re-assignment
-    }
 
     return brokers;
   }
 
+  public void setTargetSpread(double targetSpread) {
+    this.targetSpread = targetSpread;
+  }
+
+  public void setTimeBudgetMillis(long timeBudgetMillis) {
+    this.timeBudgetMillis = timeBudgetMillis;
+  }
+
+  /**
+   * @return moves made by the last {@link #balance()} call
+   */
+  public Rebalancer.Result getLastResult() {
+    return lastResult;
+  }
+
   private DescriptiveStatistics computeBrokerSizeStats() {
     DescriptiveStatistics statistics = new DescriptiveStatistics();
 
@@ -54,11 +75,6 @@ public class ClusterBalancingTool {
     return statistics;
   }
 
-  private boolean isTerminationConditionMet(){
-    // TODO: When calculating stats we need to use total size of items assigned to a broker or total (used) resources assigned to a broker
-    return false;
-  }
-
   private List<Replica> getAllReplicas(List<Broker> brokers) {
     List<Replica> replicas = new ArrayList<>();
 
@@ -0,0 +1,73 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha;
+
+/**
+ * Regression tree flattened into parallel arrays. Node 0 is the root. Inner nodes send a value that is less than the
+ * split point to the left child and everything else to the right child. Leaves carry the predicted value.
+ * <p>
+ * Inputs are the storage model attributes (write percentage, leaders, followers). Prediction does not allocate.
+ */
+class CompiledRegressionTree {
+  static final int LEAF = -1;
+
+  private final int[] attribute;
+  private final double[] splitPoint;
+  private final int[] left;
+  private final int[] right;
+  private final double[] value;
+
+  CompiledRegressionTree(int[] attribute, double[] splitPoint, int[] left, int[] right, double[] value) {
+    int nodes = attribute.length;
+    if (splitPoint.length != nodes || left.length != nodes || right.length != nodes || value.length != nodes) {
+      throw new IllegalArgumentException("Node arrays should have the same length.");
+    }
+
+    this.attribute = attribute;
+    this.splitPoint = splitPoint;
+    this.left = left;
+    this.right = right;
+    this.value = value;
+  }
+
+  /**
+   * @return predicted value or NaN if the tree has no prediction for the input
+   */
+  double predict(double writePct, double leaders, double followers) {
+    int node = 0;
+    while (attribute[node] != LEAF) {
+      double v;
+      switch (attribute[node]) {
+        case 0:
+          v = writePct;
+          break;
+        case 1:
+          v = leaders;
+          break;
+        default:
+          v = followers;
+      }
+
+      node = v < splitPoint[node] ? left[node] : right[node];
+    }
+
+    return value[node];
+  }
+
+  int getNodeCount() {
+    return attribute.length;
+  }
+}
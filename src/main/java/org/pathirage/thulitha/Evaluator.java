@@ -20,12 +20,22 @@ import com.beust.jcommander.Parameter;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.apache.commons.math3.util.Pair;
 import org.pathirage.thulitha.utils.SizeUtility;
+import org.pathirage.thulitha.workloads.WorkloadFileReader;
+import org.pathirage.thulitha.workloads.WorkloadFileWriter;
 import org.pathirage.thulitha.workloads.WorkloadGenerator;
 import org.pathirage.thulitha.workloads.WorkloadGeneratorConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 public class Evaluator {
   private static final Logger log = LoggerFactory.getLogger(Evaluator.class);
@@ -45,6 +55,38 @@ public class Evaluator {
   @Parameter(names = {"-i", "--iterations"})
   int iterations = 5;
 
+  @Parameter(names = {"-bs", "--bin-count-search"})
+  BFDCapacityPlanner.BinCountSearch binCountSearch = BFDCapacityPlanner.BinCountSearch.LINEAR;
+
+  @Parameter(names = {"-pp", "--probe-parallelism"})
+  int probeParallelism = Runtime.getRuntime().availableProcessors();
+
+  @Parameter(names = {"-wc", "--warm-up-cache"}, description = "Pre-compute storage model predictions for volumes with up to this many logs")
+  int warmUpCacheLogs = 0;
+
+  @Parameter(names = {"-pm", "--preload-models"}, description = "Load storage performance models in parallel before planning")
+  boolean preloadModels = false;
+
+  @Parameter(names = {"-st", "--startup-timing"}, description = "Report JVM startup, model loading and first plan times")
+  boolean reportStartupTiming = false;
+
+  @Parameter(names = {"-rk", "--rekey-threshold"}, description = "Re-sort replicas during packing when normalization factors drift by more than this fraction")
+  double rekeyThreshold = 0;
+
+  @Parameter(names = {"-wd", "--workload-dir"}, description = "Save generated workloads to this directory and load them from it on later runs")
+  String workloadDir;
+
+  @Parameter(names = {"-sp", "--sweep-parallelism"}, description = "Number of evaluation cells (instance type, iteration, replica count) to run concurrently. Execution time evaluation always runs one cell at a time")
+  int sweepParallelism = 1;
+
+  @Parameter(names = {"-s", "--seed"}, description = "Derive the workload of every evaluation cell from this seed")
+  Long seed;
+
+  @Parameter(names = {"-md", "--metrics-dump"}, description = "Write planner metrics as JSON to this file after the evaluation. Needs -Dthulitha.metrics=true")
+  String metricsDump;
+
+  private final AtomicLong firstPlanMillis = new AtomicLong(-1);
+
   public static void main(String[] args) {
     Evaluator evaluator = new Evaluator();
     JCommander.newBuilder()
@@ -56,22 +98,88 @@ public class Evaluator {
   }
 
   public void run() {
+    long runStart = System.currentTimeMillis();
+    if (preloadModels) {
+      long start = System.nanoTime();
+      StorageVolumeType.preloadModels(true);
+      log.info(String.format("Preloaded storage performance models in %s ms", (System.nanoTime() - start) / 1000000));
+    }
+
+    if (warmUpCacheLogs > 0) {
+      for (CCInstanceType t : getInstanceTypes()) {
+        StorageVolumeType volumeType = getVolumeType(t);
+        if (volumeType == StorageVolumeType.ST1 || volumeType == StorageVolumeType.D2HDD) {
+          StorageVolumeType.getPredictionCache().warmUp(t, volumeType, CapacityPlanner.IO_OP_SIZE_128KB, warmUpCacheLogs);
+        }
+      }
+    }
+
+    if (PlannerMetrics.ENABLED) {
+      PlannerMetrics.register();
+    } else if (metricsDump != null) {
+      log.warn("Planner metrics are disabled, set -Dthulitha.metrics=true to collect them.");
+    }
+
+    evaluate();
+
+    log.info("Storage model predictions: " + StorageVolumeType.getPredictionCache());
+
+    if (metricsDump != null) {
+      try {
+        Files.write(Paths.get(metricsDump), PlannerMetrics.get().dump().getBytes(StandardCharsets.UTF_8));
+      } catch (IOException e) {
+        throw new RuntimeException("Could not write planner metrics to " + metricsDump, e);
+      }
+    }
+
+    if (reportStartupTiming) {
+      long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+      log.info(String.format("JVM startup to run: %s ms, first plan: %s ms", runStart - jvmStart, firstPlanMillis.get()));
+    }
+  }
+
+  private BFDCapacityPlanner newBFDPlanner(List<Replica> replicas, CCInstanceType instanceType) {
+    BFDCapacityPlanner planner = new BFDCapacityPlanner(replicas, instanceType, getVolumeType(instanceType), true, startWithLowerBound, binCountSearch, probeParallelism);
+    planner.setRekeyThreshold(rekeyThreshold);
+    return planner;
+  }
+
+  private List<Broker> plan(CapacityPlanner planner) {
+    long start = System.nanoTime();
+    List<Broker> solution = planner.solve();
+    firstPlanMillis.compareAndSet(-1, (System.nanoTime() - start) / 1000000);
+
+    return solution;
+  }
+
+  private void evaluate() {
     if (evaluation.equals("cr")) {
       List<CCInstanceType> instanceTypes = getInstanceTypes();
-      Map<CCInstanceType, Double> crs = new HashMap<>();
-      for (CCInstanceType t : instanceTypes) {
-        List<Double> competitiveRatios = new ArrayList<>();
+      Map<CCInstanceType, Double> crs = new LinkedHashMap<>();
+      List<CCInstanceType> cellTypes = new ArrayList<>();
+      List<Supplier<Double>> cells = new ArrayList<>();
+      for (int ti = 0; ti < instanceTypes.size(); ti++) {
+        CCInstanceType t = instanceTypes.get(ti);
         for (int p = 0; p < iterations; p++) {
-          log.info(String.format("Iteration %s of competitive ration calculation for instance type %s", p, t));
-          List<Double> iterationsCompetitiveRatios = new ArrayList<>();
+          int iteration = p;
+          int workload = ti * iterations + p;
           for (int i = 500; i < upperBound; i += 500) {
-            iterationsCompetitiveRatios.add(computeCompetitiveRatio(t, i));
+            int replicaCount = i;
+            cellTypes.add(t);
+            cells.add(() -> {
+              if (replicaCount == 500) {
+                log.info(String.format("Iteration %s of competitive ration calculation for instance type %s", iteration, t));
+              }
+              return computeCompetitiveRatio(t, replicaCount, workload);
+            });
           }
-
-          competitiveRatios.add(Collections.max(iterationsCompetitiveRatios));
         }
+      }
 
-        crs.put(t, Collections.max(competitiveRatios));
+      // Competitive ratio of an instance type is the worst ratio across its iterations and replica counts.
+      List<Double> ratios = new SweepExecutor(sweepParallelism).run(cells);
+      for (int c = 0; c < ratios.size(); c++) {
+        crs.merge(cellTypes.get(c), ratios.get(c), Math::max);
       }
 
       for (Map.Entry<CCInstanceType, Double> e : crs.entrySet()) {
@@ -80,8 +188,11 @@ public class Evaluator {
     } else if (evaluation.equals("et")) {
       List<CCInstanceType> instanceTypes = getInstanceTypes();
       Map<Integer, Map<CCInstanceType, Double>> executionTimes = new HashMap<>();
+      if (sweepParallelism > 1) {
+        log.info("Execution time evaluation runs one cell at a time, ignoring sweep parallelism.");
+      }
       for (int r = 5000; r < upperBound; r += 10000) {
-        List<Replica> replicas = new WorkloadGenerator(new WorkloadGeneratorConfig(null)).run(r);
+        List<Replica> replicas = getReplicas(r, 0);
         Map<CCInstanceType, Double> execTimeForInstanceType = new HashMap<>();
         for (CCInstanceType t : instanceTypes) {
           List<Double> executionTime = new ArrayList<>();
@@ -104,11 +215,21 @@ public class Evaluator {
     } else if (evaluation.equals("bl")) {
       List<CCInstanceType> instanceTypes = getInstanceTypes();
       Map<Integer, Map<CCInstanceType, Stat>> stats = new HashMap<>();
-      List<Replica> replicas = new WorkloadGenerator(new WorkloadGeneratorConfig(null)).run(upperBound);
+      List<Replica> replicas = getReplicas(upperBound, 0);
+      List<Supplier<Stat>> cells = new ArrayList<>();
       for (int p = 0; p < 3; p++) {
-        Map<CCInstanceType, Stat> typeStat = new HashMap<>();
+        int planner = p;
         for (CCInstanceType t : instanceTypes) {
-          typeStat.put(t, getWorkloadDistributionStats(t, new ArrayList<>(replicas), p));
+          cells.add(() -> getWorkloadDistributionStats(t, new ArrayList<>(replicas), planner));
+        }
+      }
+
+      // Planners do not modify replicas, so cells share the workload.
+      List<Stat> cellStats = new SweepExecutor(sweepParallelism).run(cells);
+      for (int p = 0; p < 3; p++) {
+        Map<CCInstanceType, Stat> typeStat = new HashMap<>();
+        for (int ti = 0; ti < instanceTypes.size(); ti++) {
+          typeStat.put(instanceTypes.get(ti), cellStats.get(p * instanceTypes.size() + ti));
         }
         stats.put(p, typeStat);
       }
@@ -120,6 +241,17 @@ public class Evaluator {
           System.out.println(String.format("%s\t\t%s\t\t%s\t\t%s\t\t%s", entry.getKey(), entry.getValue().mean, entry.getValue().std, entry.getValue().brokers, entry.getValue().minusRemaining));
         }
       }
+    } else if (evaluation.equals("mx")) {
+      List<BrokerType> brokerTypes = new ArrayList<>();
+      for (CCInstanceType t : getInstanceTypes()) {
+        brokerTypes.add(new BrokerType(t, getVolumeType(t)));
+      }
+
+      for (int p = 0; p < iterations; p++) {
+        InstanceMixPlanner.Result result = new InstanceMixPlanner(getReplicas(upperBound, p), brokerTypes, sweepParallelism).plan();
+        System.out.println(String.format("Iteration %s: mix %s costs %s per hour, %s alone costs %s per hour", p,
+            result.getBrokerCounts(), result.getHourlyCost(), result.getHomogeneousType(), result.getHomogeneousHourlyCost()));
+      }
     }
   }
 
@@ -164,25 +296,25 @@ public class Evaluator {
   private Stat getWorkloadDistributionStats(CCInstanceType instanceType, List<Replica> replicas, int planner) {
 
     if (planner == 0) {
-      BFDCapacityPlanner capacityPlanner = new BFDCapacityPlanner(replicas, instanceType, getVolumeType(instanceType), true, startWithLowerBound);
-      List<Broker> solution = capacityPlanner.solve();
+      BFDCapacityPlanner capacityPlanner = newBFDPlanner(replicas, instanceType);
+      List<Broker> solution = plan(capacityPlanner);
       return computeDistributionStats(solution, planner);
     } else if (planner == 1) {
       List<Replica> replicasForBFDCP = new ArrayList<>(replicas);
-      BFDCapacityPlanner capacityPlanner = new BFDCapacityPlanner(replicasForBFDCP, instanceType, getVolumeType(instanceType), true, startWithLowerBound);
-      int brokerCount = capacityPlanner.solve().size();
+      BFDCapacityPlanner capacityPlanner = newBFDPlanner(replicasForBFDCP, instanceType);
+      int brokerCount = plan(capacityPlanner).size();
 
       RandomCapacityPlanner randomCP = new RandomCapacityPlanner(replicas, instanceType, getVolumeType(instanceType), true, brokerCount);
-      List<Broker> solution = randomCP.solve();
+      List<Broker> solution = plan(randomCP);
 
       return computeDistributionStats(solution, planner);
     } else if (planner == 2) {
       List<Replica> replicasForBFDCP = new ArrayList<>(replicas);
-      BFDCapacityPlanner capacityPlanner = new BFDCapacityPlanner(replicasForBFDCP, instanceType, getVolumeType(instanceType), true, startWithLowerBound);
-      int brokerCount = capacityPlanner.solve().size();
+      BFDCapacityPlanner capacityPlanner = newBFDPlanner(replicasForBFDCP, instanceType);
+      int brokerCount = plan(capacityPlanner).size();
 
       RandomBalancingCapacityPlanner randomCP = new RandomBalancingCapacityPlanner(replicas, instanceType, getVolumeType(instanceType), true, brokerCount);
-      List<Broker> solution = randomCP.solve();
+      List<Broker> solution = plan(randomCP);
 
       return computeDistributionStats(solution, planner);
     }
@@ -202,12 +334,10 @@ public class Evaluator {
   }
 
   public double measureExecutionTime(CCInstanceType instanceType, List<Replica> replicas) {
-    StorageVolumeType storageVolumeType = getVolumeType(instanceType);
-
-    BFDCapacityPlanner capacityPlanner = new BFDCapacityPlanner(replicas, instanceType, storageVolumeType, true, startWithLowerBound);
+    BFDCapacityPlanner capacityPlanner = newBFDPlanner(replicas, instanceType);
     long start = System.nanoTime();
 
-    long solutionSize = capacityPlanner.solve().size();
+    long solutionSize = plan(capacityPlanner).size();
     if (log.isDebugEnabled()) {
       log.debug("Solution size: " + solutionSize);
     }
@@ -229,27 +359,53 @@ public class Evaluator {
     return instanceTypes;
   }
 
-  private StorageVolumeType getVolumeType(CCInstanceType instanceType) {
-    if (instanceType == CCInstanceType.D2_2X || instanceType == CCInstanceType.D2_4X || instanceType == CCInstanceType.D2_8X) {
-      return StorageVolumeType.D2HDD;
-    }
-    return StorageVolumeType.ST1;
+  static StorageVolumeType getVolumeType(CCInstanceType instanceType) {
+    return BrokerType.defaultVolumeType(instanceType);
   }
 
-  private List<Replica> getReplicas(int count) {
-    return new WorkloadGenerator(new WorkloadGeneratorConfig(null)).run(count);
+  /**
+   * Generate the <code>workload</code>-th workload of the given size. With a workload directory, each workload is
+   * stored in and later loaded from its own file, so reruns see the same workloads.
+   */
+  private List<Replica> getReplicas(int count, int workload) {
+    if (workloadDir == null) {
+      return generateReplicas(count, workload);
+    }
+
+    Path path = Paths.get(workloadDir, String.format("replicas-%s-%s.thwl", count, workload));
+    try {
+      if (Files.exists(path)) {
+        try (WorkloadFileReader reader = new WorkloadFileReader(path)) {
+          return reader.toReplicas();
+        }
+      }
+
+      List<Replica> replicas = generateReplicas(count, workload);
+      Files.createDirectories(path.getParent());
+      WorkloadFileWriter.write(path, replicas);
+      return replicas;
+    } catch (IOException e) {
+      throw new RuntimeException("Could not access workload file " + path, e);
+    }
   }
 
-  private double computeCompetitiveRatio(CCInstanceType instanceType, int replicaCount) {
-    List<Replica> replicas = getReplicas(replicaCount);
-    StorageVolumeType storageVolumeType = getVolumeType(instanceType);
+  private List<Replica> generateReplicas(int count, int workload) {
+    WorkloadGenerator generator = new WorkloadGenerator(new WorkloadGeneratorConfig(null));
+    if (seed == null) {
+      return generator.run(count);
+    }
+
+    return generator.run(count, new SplittableRandom(seed ^ ((long) count << 32 | workload)).nextLong());
+  }
 
-    BFDCapacityPlanner capacityPlanner = new BFDCapacityPlanner(replicas, instanceType, storageVolumeType, true, startWithLowerBound);
+  private double computeCompetitiveRatio(CCInstanceType instanceType, int replicaCount, int workload) {
+    List<Replica> replicas = getReplicas(replicaCount, workload);
+    BFDCapacityPlanner capacityPlanner = newBFDPlanner(replicas, instanceType);
     long optimalBrokers = capacityPlanner.lowestPossibleBrokersRequired();
     if (log.isDebugEnabled()) {
       log.debug("Max values for each dimension: " + Arrays.toString(capacityPlanner.getMaxRequirements()));
     }
-    long solutionSize = capacityPlanner.solve().size();
+    long solutionSize = plan(capacityPlanner).size();
 
     // TODO: Move to cost.
 
@@ -0,0 +1,130 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Remaining capacity of many brokers in one primitive matrix (broker major, {@link #DIMENSIONS} values per broker) and
+ * scans that test a replica against all of them. Demands are in broker units (see {@link Broker#demand(Replica, int)}).
+ * <p>
+ * Scans walk the matrix sequentially with a single branch per broker. Use {@link BrokerIndex} when
+ * brokers are scanned in a fixed order many times; this kernel suits callers that look for the best fit rather than the
+ * first, such as {@link IncrementalCapacityPlanner}, where keeping brokers sorted costs more than a linear scan.
+ */
+public class FeasibilityKernel {
+  public static final int DIMENSIONS = 5;
+
+  private long[] remaining;
+  private int size = 0;
+
+  public FeasibilityKernel(int expectedBrokers) {
+    this.remaining = new long[Math.max(1, expectedBrokers) * DIMENSIONS];
+  }
+
+  public FeasibilityKernel(List<Broker> brokers) {
+    this(brokers.size());
+    for (Broker b : brokers) {
+      add(b.getRemainingCapacity());
+    }
+  }
+
+  /**
+   * @return position of the broker
+   */
+  public int add(long[] brokerRemaining) {
+    if ((size + 1) * DIMENSIONS > remaining.length) {
+      remaining = Arrays.copyOf(remaining, remaining.length * 2);
+    }
+
+    System.arraycopy(brokerRemaining, 0, remaining, size * DIMENSIONS, DIMENSIONS);
+    return size++;
+  }
+
+  public void update(int position, long[] brokerRemaining) {
+    if (position >= size) {
+      throw new IndexOutOfBoundsException("Position " + position + " of " + size);
+    }
+
+    System.arraycopy(brokerRemaining, 0, remaining, position * DIMENSIONS, DIMENSIONS);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public long getRemaining(int position, int dimension) {
+    return remaining[position * DIMENSIONS + dimension];
+  }
+
+  /**
+   * @return first position at or after <code>from</code> with enough remaining capacity or -1
+   */
+  public int firstFeasible(long[] demand, int from) {
+    final long d0 = demand[0], d1 = demand[1], d2 = demand[2], d3 = demand[3], d4 = demand[4];
+    final long[] r = remaining;
+
+    for (int i = Math.max(0, from), base = i * DIMENSIONS; i < size; i++, base += DIMENSIONS) {
+      // Non short-circuit and: one branch per broker instead of one per dimension
+      if ((r[base] >= d0) & (r[base + 1] >= d1) & (r[base + 2] >= d2) & (r[base + 3] >= d3) & (r[base + 4] >= d4)) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Feasible broker left with the least weighted slack after taking the demand. Ties go to the lower position.
+   *
+   * @param weights per dimension weight of the slack, e.g. the inverse of broker capacity
+   * @return position or -1 if no broker has enough remaining capacity
+   */
+  public int bestFeasible(long[] demand, double[] weights) {
+    final long d0 = demand[0], d1 = demand[1], d2 = demand[2], d3 = demand[3], d4 = demand[4];
+    final double w0 = weights[0], w1 = weights[1], w2 = weights[2], w3 = weights[3], w4 = weights[4];
+    final long[] r = remaining;
+
+    int best = -1;
+    double bestSlack = Double.POSITIVE_INFINITY;
+    for (int i = 0, base = 0; i < size; i++, base += DIMENSIONS) {
+      long s0 = r[base] - d0, s1 = r[base + 1] - d1, s2 = r[base + 2] - d2, s3 = r[base + 3] - d3, s4 = r[base + 4] - d4;
+      if ((s0 | s1 | s2 | s3 | s4) < 0) {
+        continue;
+      }
+
+      double slack = w0 * s0 + w1 * s1 + w2 * s2 + w3 * s3 + w4 * s4;
+      if (slack < bestSlack) {
+        bestSlack = slack;
+        best = i;
+      }
+    }
+
+    return best;
+  }
+
+  /**
+   * Capacity demand of a replica on brokers of the given type, in the units of {@link Broker#getRemainingCapacity()}.
+   */
+  public static long[] demand(Broker broker, Replica replica, long[] out) {
+    for (int d = 0; d < DIMENSIONS; d++) {
+      out[d] = broker.demand(replica, d);
+    }
+
+    return out;
+  }
+}
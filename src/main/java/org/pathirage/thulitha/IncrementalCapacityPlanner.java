@@ -0,0 +1,343 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha;
+
+import org.pathirage.thulitha.CapacityPlanner.CapacityPlanningException;
+import org.pathirage.thulitha.utils.Topic;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps a live plan and changes it one topic at a time instead of re-planning the whole workload.
+ * <p>
+ * New replicas are placed largest first. Each goes to the feasible broker it fits best, the one with the least
+ * normalized remaining capacity after the placement, and a broker is only opened when no broker in the plan accepts
+ * the replica. Remaining capacities are mirrored in a {@link FeasibilityKernel}, so finding that broker is one
+ * sequential scan over a primitive matrix instead of a walk over the brokers themselves.
+ * Removing a topic releases the brokers it leaves empty. Existing replicas never move, use {@link Rebalancer} or
+ * {@link SimulatedAnnealingOptimizer} to tidy up after many changes.
+ */
+public class IncrementalCapacityPlanner {
+  private static final Logger log = LoggerFactory.getLogger(IncrementalCapacityPlanner.class);
+  private static final long[] REJECTED = {-1, -1, -1, -1, -1};
+
+  private final CCInstanceType instanceType;
+  private final StorageVolumeType storageVolumeType;
+  private final Broker template;
+  private final long[] demand = new long[FeasibilityKernel.DIMENSIONS];
+  private final double[] scale = new double[FeasibilityKernel.DIMENSIONS];
+  private final Map<String, List<Replica>> topics = new LinkedHashMap<>();
+  private final Map<Replica, Broker> hosts = new IdentityHashMap<>();
+  private final Set<String> brokerIds = new HashSet<>();
+  private final List<Integer> rejected = new ArrayList<>();
+  private List<Broker> brokers;
+  private FeasibilityKernel kernel;
+  private int nextBrokerId;
+
+  /**
+   * @param brokers plan to start from, for example the solution of {@link BFDCapacityPlanner}. The brokers are
+   *                modified by later changes.
+   */
+  public IncrementalCapacityPlanner(List<Broker> brokers, CCInstanceType instanceType, StorageVolumeType storageVolumeType) {
+    this.instanceType = instanceType;
+    this.storageVolumeType = storageVolumeType;
+    this.template = newBroker("template");
+    for (int d = 0; d < scale.length; d++) {
+      long capacity = template.getRemainingCapacity(d);
+      scale[d] = capacity > 0 ? 1.0 / capacity : 0;
+    }
+
+    for (Broker broker : brokers) {
+      brokerIds.add(broker.getId());
+      for (Replica r : broker.getReplicas()) {
+        topics.computeIfAbsent(r.getTopic(), t -> new ArrayList<>()).add(r);
+        hosts.put(r, broker);
+      }
+    }
+
+    this.nextBrokerId = brokers.size();
+    reindex(brokers);
+  }
+
+  /**
+   * Place the replicas of a new topic. Either every replica gets placed or the plan is left as it was.
+   *
+   * @throws IllegalArgumentException    if the topic is already part of the plan
+   * @throws CapacityPlanningException if a replica does not fit even an empty broker
+   */
+  public Change addTopic(Topic topic) {
+    long start = System.nanoTime();
+    if (topics.containsKey(topic.getName())) {
+      throw new IllegalArgumentException("Topic " + topic.getName() + " is already planned.");
+    }
+
+    List<Replica> replicas = topic.getReplicas();
+    double[] sizes = new double[replicas.size()];
+    List<Integer> order = new ArrayList<>(replicas.size());
+    for (int i = 0; i < replicas.size(); i++) {
+      sizes[i] = normalizedDemand(replicas.get(i));
+      order.add(i);
+    }
+    order.sort((x, y) -> Double.compare(sizes[y], sizes[x]));
+
+    Map<Broker, Double> costBefore = new IdentityHashMap<>();
+    List<Broker> opened = new ArrayList<>();
+    List<Replica> placed = new ArrayList<>(replicas.size());
+    try {
+      for (int i : order) {
+        Replica replica = replicas.get(i);
+        Broker broker = place(replica, costBefore, opened);
+        hosts.put(replica, broker);
+        placed.add(replica);
+      }
+    } catch (CapacityPlanningException e) {
+      for (Replica replica : placed) {
+        hosts.remove(replica).remove(replica);
+      }
+      for (Broker broker : opened) {
+        brokerIds.remove(broker.getId());
+      }
+      List<Broker> kept = new ArrayList<>(brokers);
+      kept.removeAll(opened);
+      reindex(kept);
+      throw e;
+    }
+
+    topics.put(topic.getName(), placed);
+    Change change = new Change(topic.getName(), placed.size(), opened, Collections.<Broker>emptyList(),
+        costChange(costBefore), (System.nanoTime() - start) / 1000);
+    log.info(change.toString());
+    return change;
+  }
+
+  /**
+   * Take the replicas of a topic off their brokers and release brokers left empty.
+   *
+   * @throws IllegalArgumentException if the topic is not part of the plan
+   */
+  public Change removeTopic(String name) {
+    long start = System.nanoTime();
+    List<Replica> replicas = topics.remove(name);
+    if (replicas == null) {
+      throw new IllegalArgumentException("Topic " + name + " is not planned.");
+    }
+
+    Map<Broker, Double> costBefore = new IdentityHashMap<>();
+    for (Replica replica : replicas) {
+      Broker broker = hosts.remove(replica);
+      costBefore.putIfAbsent(broker, broker.getHourlyCost());
+      broker.remove(replica);
+    }
+
+    List<Broker> kept = new ArrayList<>();
+    List<Broker> released = new ArrayList<>();
+    for (Broker broker : brokers) {
+      if (broker.isEmpty() && costBefore.containsKey(broker)) {
+        released.add(broker);
+        brokerIds.remove(broker.getId());
+      } else {
+        kept.add(broker);
+      }
+    }
+
+    // Positions shift when brokers get released and remaining capacities changed, rebuilding is linear anyway
+    reindex(kept);
+    double costChange = costChange(costBefore);
+    for (Broker broker : released) {
+      costChange -= broker.getHourlyCost(); // counted as remaining in the cluster by costChange
+    }
+
+    Change change = new Change(name, replicas.size(), Collections.<Broker>emptyList(), released, costChange,
+        (System.nanoTime() - start) / 1000);
+    log.info(change.toString());
+    return change;
+  }
+
+  /**
+   * Best fitting broker that accepts the replica, or a newly opened one. The kernel weighs slack by the inverse of
+   * broker capacity, so the least slack after taking the replica is the least normalized remaining capacity. Brokers
+   * that turn the replica down anyway (no storage volume takes it or it already hosts the partition) are masked for
+   * the rest of the search.
+   */
+  private Broker place(Replica replica, Map<Broker, Double> costBefore, List<Broker> opened) {
+    FeasibilityKernel.demand(template, replica, demand);
+
+    int chosen;
+    double cost = 0;
+    while ((chosen = kernel.bestFeasible(demand, scale)) >= 0) {
+      Broker broker = brokers.get(chosen);
+      cost = broker.getHourlyCost();
+      if (broker.add(replica)) {
+        break;
+      }
+
+      kernel.update(chosen, REJECTED);
+      rejected.add(chosen);
+    }
+
+    for (int position : rejected) {
+      kernel.update(position, brokers.get(position).getRemainingCapacity());
+    }
+    rejected.clear();
+
+    if (chosen >= 0) {
+      Broker broker = brokers.get(chosen);
+      costBefore.putIfAbsent(broker, cost);
+      kernel.update(chosen, broker.getRemainingCapacity());
+      return broker;
+    }
+
+    Broker broker = newBroker(nextBrokerId());
+    if (!broker.add(replica)) {
+      throw new CapacityPlanningException("Replica " + replica + " does not fit an empty " + instanceType + " broker.");
+    }
+
+    costBefore.put(broker, 0.0);
+    brokerIds.add(broker.getId());
+    opened.add(broker);
+    brokers.add(broker);
+    kernel.add(broker.getRemainingCapacity());
+    return broker;
+  }
+
+  private void reindex(List<Broker> brokers) {
+    this.brokers = new ArrayList<>(brokers);
+    this.kernel = new FeasibilityKernel(brokers);
+  }
+
+  private double normalizedDemand(Replica replica) {
+    double size = 0;
+    for (int d = 0; d < scale.length; d++) {
+      size += template.demand(replica, d) * scale[d];
+    }
+
+    return size;
+  }
+
+  private static double costChange(Map<Broker, Double> costBefore) {
+    double change = 0;
+    for (Map.Entry<Broker, Double> e : costBefore.entrySet()) {
+      change += e.getKey().getHourlyCost() - e.getValue();
+    }
+
+    return change;
+  }
+
+  private String nextBrokerId() {
+    while (brokerIds.contains(String.valueOf(nextBrokerId))) {
+      nextBrokerId++;
+    }
+
+    return String.valueOf(nextBrokerId++);
+  }
+
+  private Broker newBroker(String id) {
+    return new Broker(id, instanceType, storageVolumeType, CapacityPlanner.IO_OP_SIZE_128KB, false);
+  }
+
+  /**
+   * Brokers of the current plan.
+   */
+  public List<Broker> getBrokers() {
+    return Collections.unmodifiableList(brokers);
+  }
+
+  public Set<String> getTopics() {
+    return Collections.unmodifiableSet(topics.keySet());
+  }
+
+  public double getHourlyCost() {
+    double cost = 0;
+    for (Broker broker : brokers) {
+      cost += broker.getHourlyCost();
+    }
+
+    return cost;
+  }
+
+  public static class Change {
+    private final String topic;
+    private final int replicas;
+    private final List<Broker> openedBrokers;
+    private final List<Broker> releasedBrokers;
+    private final double hourlyCostChange;
+    private final long elapsedMicros;
+
+    Change(String topic, int replicas, List<Broker> openedBrokers, List<Broker> releasedBrokers,
+           double hourlyCostChange, long elapsedMicros) {
+      this.topic = topic;
+      this.replicas = replicas;
+      this.openedBrokers = Collections.unmodifiableList(openedBrokers);
+      this.releasedBrokers = Collections.unmodifiableList(releasedBrokers);
+      this.hourlyCostChange = hourlyCostChange;
+      this.elapsedMicros = elapsedMicros;
+    }
+
+    public String getTopic() {
+      return topic;
+    }
+
+    public int getReplicaCount() {
+      return replicas;
+    }
+
+    public List<Broker> getOpenedBrokers() {
+      return openedBrokers;
+    }
+
+    public List<Broker> getReleasedBrokers() {
+      return releasedBrokers;
+    }
+
+    /**
+     * @return brokers added to the plan minus brokers released
+     */
+    public int getMarginalBrokers() {
+      return openedBrokers.size() - releasedBrokers.size();
+    }
+
+    /**
+     * @return change in the hourly cost of the plan, storage volumes included
+     */
+    public double getMarginalHourlyCost() {
+      return hourlyCostChange;
+    }
+
+    public long getElapsedMicros() {
+      return elapsedMicros;
+    }
+
+    @Override
+    public String toString() {
+      return "Change{" +
+          "topic=" + topic +
+          ", replicas=" + replicas +
+          ", marginalBrokers=" + getMarginalBrokers() +
+          ", marginalHourlyCost=" + hourlyCostChange +
+          ", elapsedMicros=" + elapsedMicros +
+          '}';
+    }
+  }
+}
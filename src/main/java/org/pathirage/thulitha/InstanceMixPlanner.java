@@ -0,0 +1,316 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha;
+
+import org.pathirage.thulitha.utils.SizeUtility;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Packs a workload into brokers of several {@link BrokerType}s so that the total hourly cost is as low as possible.
+ * <p>
+ * Every type is first planned on its own with {@link BFDCapacityPlanner}, the cheapest of these plans is the
+ * homogeneous baseline. The mix is then built greedily: each candidate type holds a plan for the replicas that are
+ * still unassigned and is ranked by the cost efficiency of its best broker (normalized demand hosted per dollar).
+ * Brokers of the top ranked type are committed as long as they beat every other candidate and the types whose plans
+ * went stale are re-planned on the remaining replicas, a few at a time in parallel. The cheaper of the mix and the
+ * homogeneous baseline is returned.
+ */
+public class InstanceMixPlanner {
+  private static final Logger log = LoggerFactory.getLogger(InstanceMixPlanner.class);
+
+  private final List<Replica> replicas;
+  private final List<BrokerType> types;
+  private final int parallelism;
+
+  public InstanceMixPlanner(List<Replica> replicas, List<BrokerType> types, int parallelism) {
+    if (types.isEmpty()) {
+      throw new IllegalArgumentException("At least one broker type is required.");
+    }
+
+    this.replicas = replicas;
+    this.types = new ArrayList<>(new LinkedHashSet<>(types));
+    this.parallelism = parallelism;
+  }
+
+  public Result plan() {
+    long start = System.nanoTime();
+    SweepExecutor executor = new SweepExecutor(parallelism);
+    double[] weights = computeWeights();
+
+    // Replicas a type can host at all, a type that can not host some replica may still host the rest
+    List<Set<Replica>> hostable = new ArrayList<>();
+    for (BrokerType type : types) {
+      hostable.add(hostable(type));
+    }
+
+    Set<Replica> remaining = Collections.newSetFromMap(new IdentityHashMap<>());
+    remaining.addAll(replicas);
+
+    List<Candidate> candidates = new ArrayList<>();
+    for (int t = 0; t < types.size(); t++) {
+      candidates.add(new Candidate(types.get(t), hostable.get(t)));
+    }
+    int solves = solve(executor, candidates, remaining, weights, 0);
+
+    BrokerType homogeneousType = null;
+    double homogeneousCost = Double.POSITIVE_INFINITY;
+    List<Broker> homogeneous = null;
+    for (Candidate c : candidates) {
+      if (c.hostable.size() == replicas.size() && cost(c.brokers) < homogeneousCost) {
+        homogeneousType = c.type;
+        homogeneousCost = cost(c.brokers);
+        homogeneous = new ArrayList<>(c.brokers);
+      }
+    }
+
+    PriorityQueue<Candidate> queue = new PriorityQueue<>();
+    for (Candidate c : candidates) {
+      if (!c.brokers.isEmpty()) {
+        queue.add(c);
+      }
+    }
+
+    List<Broker> mix = new ArrayList<>();
+    int version = 0;
+    while (!remaining.isEmpty()) {
+      if (queue.isEmpty()) {
+        throw new CapacityPlanner.CapacityPlanningException(remaining.size() + " replicas do not fit any of the broker types " + types);
+      }
+
+      Candidate top = queue.poll();
+      if (top.version != version) {
+        List<Candidate> stale = new ArrayList<>();
+        stale.add(top);
+        while (stale.size() < parallelism && !queue.isEmpty() && queue.peek().version != version) {
+          stale.add(queue.poll());
+        }
+
+        solves += solve(executor, stale, remaining, weights, version);
+        for (Candidate c : stale) {
+          if (!c.brokers.isEmpty()) {
+            queue.add(c);
+          }
+        }
+        continue;
+      }
+
+      double next = queue.isEmpty() ? Double.NEGATIVE_INFINITY : queue.peek().key;
+      int committed = 0;
+      while (committed < top.brokers.size() && (committed == 0 || top.efficiencies[committed] >= next)) {
+        Broker b = top.brokers.get(committed);
+        mix.add(b.copy(String.valueOf(mix.size())));
+        for (Replica r : b.getReplicas()) {
+          remaining.remove(r);
+        }
+        committed++;
+      }
+
+      // The rest of the top candidate's plan still covers exactly the remaining replicas it can host
+      version++;
+      top.commit(committed, version);
+      if (!top.brokers.isEmpty()) {
+        queue.add(top);
+      }
+    }
+
+    double mixCost = cost(mix);
+    log.info(String.format("Mix of %s brokers costs %s per hour, cheapest homogeneous plan (%s) costs %s", mix.size(), mixCost, homogeneousType, homogeneousCost));
+
+    List<Broker> brokers = mixCost <= homogeneousCost ? mix : homogeneous;
+    return new Result(brokers, homogeneousType, homogeneousCost, solves, (System.nanoTime() - start) / 1000000);
+  }
+
+  /**
+   * Re-plan the candidates on the remaining replicas they can host.
+   *
+   * @return number of plans computed
+   */
+  private int solve(SweepExecutor executor, List<Candidate> candidates, Set<Replica> remaining, double[] weights, int version) {
+    List<Supplier<List<Broker>>> cells = new ArrayList<>();
+    for (Candidate c : candidates) {
+      List<Replica> input = new ArrayList<>();
+      for (Replica r : replicas) {
+        if (remaining.contains(r) && c.hostable.contains(r)) {
+          input.add(r);
+        }
+      }
+
+      cells.add(() -> input.isEmpty() ? Collections.<Broker>emptyList() :
+          new BFDCapacityPlanner(input, c.type.getInstanceType(), c.type.getStorageVolumeType(), true, true,
+              BFDCapacityPlanner.BinCountSearch.GALLOPING).solve());
+    }
+
+    List<List<Broker>> plans = executor.run(cells);
+    for (int i = 0; i < candidates.size(); i++) {
+      candidates.get(i).update(plans.get(i), weights, version);
+    }
+
+    return cells.size();
+  }
+
+  private Set<Replica> hostable(BrokerType type) {
+    Set<Replica> hostable = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (Replica r : replicas) {
+      Broker empty = new Broker(type.getInstanceType(), type.getStorageVolumeType(), CapacityPlanner.IO_OP_SIZE_128KB, false);
+      if (empty.add(r)) {
+        hostable.add(r);
+      }
+    }
+
+    return hostable;
+  }
+
+  /**
+   * Share of the workload's total demand each dimension represents, so replicas can be weighed across broker types.
+   */
+  private double[] computeWeights() {
+    long[] total = SizeUtility.computeTotalSizeOfItems(replicas);
+    double[] weights = new double[total.length];
+    for (int d = 0; d < total.length; d++) {
+      weights[d] = total[d] == 0 ? 0 : 1.0 / total[d];
+    }
+
+    return weights;
+  }
+
+  private static double cost(List<Broker> brokers) {
+    double cost = 0;
+    for (Broker b : brokers) {
+      cost += b.getHourlyCost();
+    }
+
+    return cost;
+  }
+
+  private static class Candidate implements Comparable<Candidate> {
+    private final BrokerType type;
+    private final Set<Replica> hostable;
+    private List<Broker> brokers = Collections.emptyList(); // most efficient first
+    private double[] efficiencies;
+    private double key;
+    private int version = -1;
+
+    Candidate(BrokerType type, Set<Replica> hostable) {
+      this.type = type;
+      this.hostable = hostable;
+    }
+
+    void update(List<Broker> plan, double[] weights, int version) {
+      Map<Broker, Double> efficiency = new IdentityHashMap<>();
+      for (Broker b : plan) {
+        double hosted = 0;
+        for (Replica r : b.getReplicas()) {
+          for (int d = 0; d < weights.length; d++) {
+            hosted += r.getDimension(d) * weights[d];
+          }
+        }
+        efficiency.put(b, hosted / b.getHourlyCost());
+      }
+
+      brokers = new ArrayList<>(plan);
+      brokers.sort((a, b) -> Double.compare(efficiency.get(b), efficiency.get(a)));
+      efficiencies = new double[brokers.size()];
+      for (int i = 0; i < efficiencies.length; i++) {
+        efficiencies[i] = efficiency.get(brokers.get(i));
+      }
+      key = efficiencies.length == 0 ? 0 : efficiencies[0];
+      this.version = version;
+    }
+
+    void commit(int count, int version) {
+      brokers = brokers.subList(count, brokers.size());
+      efficiencies = Arrays.copyOfRange(efficiencies, count, efficiencies.length);
+      key = efficiencies.length == 0 ? 0 : efficiencies[0];
+      this.version = version;
+    }
+
+    @Override
+    public int compareTo(Candidate o) {
+      return Double.compare(o.key, key);
+    }
+  }
+
+  public static class Result {
+    private final List<Broker> brokers;
+    private final BrokerType homogeneousType;
+    private final double homogeneousHourlyCost;
+    private final int solves;
+    private final long elapsedMillis;
+
+    Result(List<Broker> brokers, BrokerType homogeneousType, double homogeneousHourlyCost, int solves, long elapsedMillis) {
+      this.brokers = brokers;
+      this.homogeneousType = homogeneousType;
+      this.homogeneousHourlyCost = homogeneousHourlyCost;
+      this.solves = solves;
+      this.elapsedMillis = elapsedMillis;
+    }
+
+    public List<Broker> getBrokers() {
+      return brokers;
+    }
+
+    public double getHourlyCost() {
+      return cost(brokers);
+    }
+
+    public Map<BrokerType, Integer> getBrokerCounts() {
+      Map<BrokerType, Integer> counts = new LinkedHashMap<>();
+      for (Broker b : brokers) {
+        counts.merge(new BrokerType(b.getInstanceType(), b.getStorageVolumeType()), 1, Integer::sum);
+      }
+
+      return counts;
+    }
+
+    /**
+     * @return cheapest type that can host the whole workload on its own or null if there is none
+     */
+    public BrokerType getHomogeneousType() {
+      return homogeneousType;
+    }
+
+    /**
+     * @return hourly cost of the cheapest single type plan, infinite if there is none
+     */
+    public double getHomogeneousHourlyCost() {
+      return homogeneousHourlyCost;
+    }
+
+    public int getSolves() {
+      return solves;
+    }
+
+    public long getElapsedMillis() {
+      return elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+      return "InstanceMix{" +
+          "brokers=" + getBrokerCounts() +
+          ", hourlyCost=" + getHourlyCost() +
+          ", homogeneousType=" + homogeneousType +
+          ", homogeneousHourlyCost=" + homogeneousHourlyCost +
+          ", solves=" + solves +
+          ", elapsedMillis=" + elapsedMillis +
+          '}';
+    }
+  }
+}
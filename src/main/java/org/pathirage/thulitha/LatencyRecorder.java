@@ -0,0 +1,112 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe latency histogram with power of two microsecond buckets. Percentiles are reported as the upper bound of
+ * the bucket they fall in, so they overestimate by less than a factor of two.
+ */
+class LatencyRecorder {
+  private static final int BUCKETS = 40; // the last bucket holds everything above 2^38 us (about three days)
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder totalMicros = new LongAdder();
+  private final LongAccumulator maxMicros = new LongAccumulator(Math::max, 0);
+  private final LongAdder errors = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+
+  void record(long nanos) {
+    long micros = Math.max(0, nanos / 1000);
+    buckets.incrementAndGet(bucket(micros));
+    count.increment();
+    totalMicros.add(micros);
+    maxMicros.accumulate(micros);
+  }
+
+  void error() {
+    errors.increment();
+  }
+
+  void reject() {
+    rejected.increment();
+  }
+
+  long getCount() {
+    return count.sum();
+  }
+
+  long getErrors() {
+    return errors.sum();
+  }
+
+  long getRejected() {
+    return rejected.sum();
+  }
+
+  /**
+   * @param quantile between 0 and 1
+   * @return upper bound of the bucket holding the quantile in microseconds, 0 if nothing was recorded
+   */
+  long percentileMicros(double quantile) {
+    long[] snapshot = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = buckets.get(i);
+      total += snapshot[i];
+    }
+
+    if (total == 0) {
+      return 0;
+    }
+
+    long rank = (long) Math.ceil(quantile * total);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += snapshot[i];
+      if (seen >= rank && snapshot[i] > 0) {
+        return Math.min(1L << i, maxMicros.get());
+      }
+    }
+
+    return maxMicros.get();
+  }
+
+  Map<String, Object> toMap() {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    long n = getCount();
+    stats.put("count", n);
+    stats.put("errors", getErrors());
+    stats.put("rejected", getRejected());
+    stats.put("meanMicros", n == 0 ? 0 : totalMicros.sum() / n);
+    stats.put("p50Micros", percentileMicros(0.5));
+    stats.put("p99Micros", percentileMicros(0.99));
+    stats.put("maxMicros", maxMicros.get());
+    return stats;
+  }
+
+  private static int bucket(long micros) {
+    // Bucket i holds latencies in (2^(i-1), 2^i]
+    int b = micros <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(micros - 1);
+    return Math.min(b, BUCKETS - 1);
+  }
+}
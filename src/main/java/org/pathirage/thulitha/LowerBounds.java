@@ -0,0 +1,255 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha;
+
+import org.pathirage.thulitha.utils.TopicInterner;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lower bounds on the number of brokers a workload needs, derived from the constraints {@link Broker} enforces:
+ * <ul>
+ * <li>memory, network in, network out and storage IOPS are per broker capacities, bounded with the Martello-Toth
+ * L2 bound which also counts replicas that cannot share a broker because each takes more than half of it</li>
+ * <li>storage is split into volumes that each hold less than their size, so the number of volumes needed (again L2)
+ * bounds the brokers when a broker can only open a limited number of volumes. Brokers on volumes whose throughput
+ * depends on the load keep opening volumes while they fall short of the instance storage bandwidth
+ * ({@link Broker#allocateMoreStorageBinsIfNecessary()}), so for those storage is left to the IOPS bound</li>
+ * <li>replicas of a partition are placed on different brokers</li>
+ * </ul>
+ * Storage bandwidth is converted to IOPS the same way {@link Broker#demand(Replica, int)} does.
+ */
+public class LowerBounds {
+  private static final int DIMENSIONS = 5;
+  private static final int MBS_TO_KB = 1024;
+
+  private final int iopSizeKB;
+  private final long[] capacity;
+  private final long volumeCapacity;
+  private final int volumesPerBroker;
+
+  public LowerBounds(CCInstanceType instanceType, StorageVolumeType storageVolumeType, int iopSizeKB) {
+    this.iopSizeKB = iopSizeKB;
+    this.capacity = new long[]{instanceType.getRAMMB(), 0, (instanceType.getStorageBWMB() * MBS_TO_KB) / iopSizeKB,
+        instanceType.getNetworkBWMB(), instanceType.getNetworkBWMB()};
+    this.volumeCapacity = storageVolumeType.getSizeMB() - 1; // volumes only accept replicas smaller than what is left
+    this.volumesPerBroker = maxVolumesPerBroker(instanceType, storageVolumeType, iopSizeKB);
+  }
+
+  /**
+   * @return most volumes a broker ever opens or 0 if there is no such limit
+   */
+  static int maxVolumesPerBroker(CCInstanceType instanceType, StorageVolumeType storageVolumeType, int iopSizeKB) {
+    int volumes = new Broker("lower-bound", instanceType, storageVolumeType, iopSizeKB, false).getVolumeLimit();
+    switch (storageVolumeType) {
+      case D2HDD:
+      case D2HDDSTATIC:
+        return volumes; // local disks
+      case ST1STATIC:
+        // Throughput of a volume does not change with its replicas, so brokers grow until the volumes cover the
+        // instance storage bandwidth
+        long volumeThroughputKB = (long) storageVolumeType.getIOPS(iopSizeKB, instanceType.getStorageBWMB()) * iopSizeKB;
+        while ((volumes * volumeThroughputKB) / 1024.0 < instanceType.getStorageBWMB()) {
+          volumes++;
+        }
+        return volumes;
+      default:
+        return 0;
+    }
+  }
+
+  public Bounds compute(List<Replica> replicas) {
+    int n = replicas.size();
+    long[][] demands = new long[DIMENSIONS][n];
+    long[] partitions = new long[n];
+    for (int i = 0; i < n; i++) {
+      Replica r = replicas.get(i);
+      for (int d = 0; d < DIMENSIONS; d++) {
+        demands[d][i] = demand(r.getDimension(d), d);
+      }
+      partitions[i] = r.getTopicPartitionKey();
+    }
+
+    return compute(demands, partitions);
+  }
+
+  public Bounds compute(ReplicaTable table) {
+    int n = table.size();
+    long[][] demands = new long[DIMENSIONS][n];
+    long[] partitions = new long[n];
+    for (int d = 0; d < DIMENSIONS; d++) {
+      long[] column = table.getColumn(d);
+      for (int i = 0; i < n; i++) {
+        demands[d][i] = demand(column[i], d);
+      }
+    }
+    for (int i = 0; i < n; i++) {
+      partitions[i] = TopicInterner.topicPartitionKey(table.getTopicId(i), table.getPartition(i));
+    }
+
+    return compute(demands, partitions);
+  }
+
+  private Bounds compute(long[][] demands, long[] partitions) {
+    long[] brokers = new long[DIMENSIONS];
+    long volumes = 0;
+    for (int d = 0; d < DIMENSIONS; d++) {
+      Arrays.sort(demands[d]);
+      if (d == 1) {
+        volumes = martelloToth(demands[d], volumeCapacity);
+        brokers[d] = volumesPerBroker > 0 ? ceilDiv(volumes, volumesPerBroker) : 0;
+      } else {
+        brokers[d] = martelloToth(demands[d], capacity[d]);
+      }
+    }
+
+    return new Bounds(brokers, volumes, maxReplicasPerPartition(partitions));
+  }
+
+  private long demand(long requirement, int dimension) {
+    if (dimension == 2) {
+      return (requirement * MBS_TO_KB) / iopSizeKB;
+    }
+
+    return requirement;
+  }
+
+  /**
+   * Martello-Toth L2 bound for one dimensional bin packing. For every threshold a no larger than half the capacity,
+   * items larger than capacity - a get a bin each, items larger than half the capacity get a bin each, and items
+   * between a and half the capacity fill the space left in the latter bins before needing bins of their own.
+   *
+   * @param sizes item sizes in ascending order
+   */
+  static long martelloToth(long[] sizes, long capacity) {
+    int n = sizes.length;
+    if (n == 0) {
+      return 0;
+    }
+    if (capacity <= 0) {
+      return n;
+    }
+
+    long[] prefix = new long[n + 1];
+    for (int i = 0; i < n; i++) {
+      prefix[i + 1] = prefix[i] + sizes[i];
+    }
+
+    long best = ceilDiv(prefix[n], capacity);
+    int half = upperBound(sizes, capacity / 2); // first item that does not fit twice
+    int from = 0;
+    while (from <= half) {
+      long a = from < n ? sizes[from] : capacity / 2;
+      if (from < half || from == 0) {
+        int large = upperBound(sizes, capacity - a);
+        long bigger = n - large;
+        long medium = large - half;
+        long mediumSize = prefix[large] - prefix[half];
+        long small = prefix[half] - prefix[from];
+        long bound = bigger + medium + Math.max(0, ceilDiv(small - (medium * capacity - mediumSize), capacity));
+        best = Math.max(best, bound);
+      }
+
+      if (from == n) {
+        break;
+      }
+      from = upperBound(sizes, a); // next distinct size
+    }
+
+    return best;
+  }
+
+  static int maxReplicasPerPartition(long[] partitions) {
+    Arrays.sort(partitions);
+    int max = 0;
+    int run = 0;
+    for (int i = 0; i < partitions.length; i++) {
+      run = i > 0 && partitions[i] == partitions[i - 1] ? run + 1 : 1;
+      max = Math.max(max, run);
+    }
+
+    return max;
+  }
+
+  /**
+   * @return index of the first element greater than value
+   */
+  private static int upperBound(long[] sorted, long value) {
+    int lo = 0;
+    int hi = sorted.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (sorted[mid] <= value) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+
+    return lo;
+  }
+
+  private static long ceilDiv(long a, long b) {
+    return a <= 0 ? 0 : (a + b - 1) / b;
+  }
+
+  public static class Bounds {
+    private final long[] dimensions;
+    private final long volumes;
+    private final int replicationFactor;
+
+    Bounds(long[] dimensions, long volumes, int replicationFactor) {
+      this.dimensions = dimensions;
+      this.volumes = volumes;
+      this.replicationFactor = replicationFactor;
+    }
+
+    /**
+     * @return brokers needed for the given dimension, storage (1) is derived from the volume count
+     */
+    public long getDimensionBound(int dimension) {
+      return dimensions[dimension];
+    }
+
+    public long getVolumeCount() {
+      return volumes;
+    }
+
+    public int getReplicationFactorBound() {
+      return replicationFactor;
+    }
+
+    public long getBrokerCount() {
+      long brokers = replicationFactor;
+      for (long b : dimensions) {
+        brokers = Math.max(brokers, b);
+      }
+
+      return brokers;
+    }
+
+    @Override
+    public String toString() {
+      return "Bounds{" +
+          "dimensions=" + Arrays.toString(dimensions) +
+          ", volumes=" + volumes +
+          ", replicationFactor=" + replicationFactor +
+          ", brokers=" + getBrokerCount() +
+          '}';
+    }
+  }
+}
@@ -0,0 +1,532 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha;
+
+import com.typesafe.config.ConfigRenderOptions;
+import com.typesafe.config.ConfigValueFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Turns a proposed plan into actions against the current one. Replicas of both plans are matched on topic, partition
+ * and replica id.
+ * <p>
+ * Brokers of a freshly computed plan have ids unrelated to the running cluster, so proposed brokers are first matched
+ * to current brokers. Matching greedily pairs the brokers that share the most replica storage, largest overlap first,
+ * which keeps the data copied between brokers low. Proposed brokers without a match get new ids: the next integers
+ * after the largest current id when all current ids are numeric (as Kafka requires), their own id otherwise.
+ * <p>
+ * A partition whose replica list differs after matching gets reassigned. Data only moves to brokers that join the
+ * partition's broker set: a reordered replica list copies nothing. Each joining broker copies the replica it gets from
+ * a broker that leaves the set, the one that held the same replica id when it leaves too, or from the partition's
+ * leader when the partition gains replicas. Moved data is the replica's storage requirement. Partitions only in the current plan are reported as deleted and partitions only in the
+ * proposed plan as created, neither is part of the reassignment.
+ */
+public class PlanDiff {
+  private final Map<Broker, String> brokerIds;
+  private final List<String> addedBrokers = new ArrayList<>();
+  private final List<String> removedBrokers = new ArrayList<>();
+  private final List<PartitionReassignment> reassignments = new ArrayList<>();
+  private final List<ReplicaMove> moves = new ArrayList<>();
+  private final List<String> createdPartitions = new ArrayList<>();
+  private final List<String> deletedPartitions = new ArrayList<>();
+  private final Map<String, long[]> transfers = new TreeMap<>(); // broker id -> {in MB, out MB}
+  private long movedMB;
+
+  private PlanDiff(Map<Broker, String> brokerIds) {
+    this.brokerIds = brokerIds;
+  }
+
+  public static PlanDiff compute(List<Broker> current, List<Broker> proposed) {
+    Map<String, Integer> currentHost = new HashMap<>();
+    for (int b = 0; b < current.size(); b++) {
+      for (Replica r : current.get(b).getReplicas()) {
+        if (currentHost.put(key(r), b) != null) {
+          throw new IllegalArgumentException("Replica " + key(r) + " is on more than one current broker.");
+        }
+      }
+    }
+
+    PlanDiff diff = new PlanDiff(matchBrokers(current, proposed, currentHost));
+    diff.collect(current, proposed);
+    return diff;
+  }
+
+  /**
+   * @return id every proposed broker ends up with
+   */
+  private static Map<Broker, String> matchBrokers(List<Broker> current, List<Broker> proposed, Map<String, Integer> currentHost) {
+    // Storage shared by each (proposed, current) pair, only pairs that share replicas are kept
+    Map<Long, Long> overlap = new HashMap<>();
+    for (int p = 0; p < proposed.size(); p++) {
+      for (Replica r : proposed.get(p).getReplicas()) {
+        Integer c = currentHost.get(key(r));
+        if (c != null) {
+          overlap.merge(((long) p << 32) | c, r.getDimension(1) + 1, Long::sum); // + 1 so empty replicas still count
+        }
+      }
+    }
+
+    List<Map.Entry<Long, Long>> pairs = new ArrayList<>(overlap.entrySet());
+    pairs.sort(Comparator.comparing((Map.Entry<Long, Long> e) -> e.getValue()).reversed()
+        .thenComparing(Map.Entry::getKey));
+
+    Map<Broker, String> ids = new IdentityHashMap<>();
+    boolean[] taken = new boolean[current.size()];
+    for (Map.Entry<Long, Long> pair : pairs) {
+      int p = (int) (pair.getKey() >>> 32);
+      int c = (int) (pair.getKey() & 0xffffffffL);
+      if (!taken[c] && !ids.containsKey(proposed.get(p))) {
+        taken[c] = true;
+        ids.put(proposed.get(p), current.get(c).getId());
+      }
+    }
+
+    // Empty current brokers can host proposed brokers that share nothing with the current plan
+    int next = 0;
+    for (int p = 0; p < proposed.size(); p++) {
+      Broker broker = proposed.get(p);
+      if (ids.containsKey(broker)) {
+        continue;
+      }
+      while (next < current.size() && (taken[next] || !current.get(next).isEmpty())) {
+        next++;
+      }
+      if (next < current.size()) {
+        taken[next] = true;
+        ids.put(broker, current.get(next).getId());
+      }
+    }
+
+    long largest = -1;
+    boolean numeric = true;
+    Set<String> usedIds = new HashSet<>();
+    for (Broker b : current) {
+      usedIds.add(b.getId());
+      if (numeric && isNumeric(b.getId())) {
+        largest = Math.max(largest, Long.parseLong(b.getId()));
+      } else {
+        numeric = false;
+      }
+    }
+
+    for (Broker broker : proposed) {
+      if (!ids.containsKey(broker)) {
+        String id;
+        if (numeric) {
+          id = String.valueOf(++largest);
+        } else {
+          id = broker.getId();
+          while (usedIds.contains(id)) {
+            id = "new-" + id;
+          }
+        }
+        usedIds.add(id);
+        ids.put(broker, id);
+      }
+    }
+
+    return ids;
+  }
+
+  private void collect(List<Broker> current, List<Broker> proposed) {
+    Map<String, String[]> before = new TreeMap<>(); // topic:partition -> broker id per replica id
+    for (Broker b : current) {
+      for (Replica r : b.getReplicas()) {
+        place(before, r, b.getId());
+      }
+    }
+
+    Map<String, String[]> after = new TreeMap<>();
+    Map<String, List<Replica>> proposedReplicas = new HashMap<>();
+    Set<String> seen = new HashSet<>();
+    for (Broker b : proposed) {
+      String id = brokerIds.get(b);
+      for (Replica r : b.getReplicas()) {
+        if (!seen.add(key(r))) {
+          throw new IllegalArgumentException("Replica " + key(r) + " is on more than one proposed broker.");
+        }
+
+        place(after, r, id);
+        proposedReplicas.computeIfAbsent(r.getTopicPartition(), p -> new ArrayList<>()).add(r);
+      }
+    }
+
+    for (Map.Entry<String, String[]> e : after.entrySet()) {
+      String[] was = before.get(e.getKey());
+      if (was == null) {
+        createdPartitions.add(e.getKey());
+      } else if (!Arrays.equals(was, e.getValue())) {
+        int split = e.getKey().lastIndexOf(':');
+        reassignments.add(new PartitionReassignment(e.getKey().substring(0, split),
+            Integer.parseInt(e.getKey().substring(split + 1)), replicaList(was), replicaList(e.getValue())));
+        collectMoves(proposedReplicas.get(e.getKey()), was, e.getValue());
+      }
+    }
+    for (String partition : before.keySet()) {
+      if (!after.containsKey(partition)) {
+        deletedPartitions.add(partition);
+      }
+    }
+
+    Set<String> kept = new HashSet<>(brokerIds.values());
+    Set<String> existing = new HashSet<>();
+    for (Broker b : current) {
+      existing.add(b.getId());
+      if (!kept.contains(b.getId())) {
+        removedBrokers.add(b.getId());
+      }
+    }
+    for (Broker b : proposed) {
+      if (!existing.contains(brokerIds.get(b))) {
+        addedBrokers.add(brokerIds.get(b));
+      }
+    }
+  }
+
+  /**
+   * Moves of one reassigned partition, from the difference between its current and proposed broker sets.
+   *
+   * @param replicas replicas of the partition in the proposed plan
+   * @param was      current broker id per replica id
+   * @param now      proposed broker id per replica id
+   */
+  private void collectMoves(List<Replica> replicas, String[] was, String[] now) {
+    Set<String> currentHosts = new HashSet<>(replicaList(was));
+    Set<String> leaving = new LinkedHashSet<>(replicaList(was)); // in replica id order
+    leaving.removeAll(replicaList(now));
+
+    List<Replica> joining = new ArrayList<>();
+    for (Replica r : replicas) {
+      if (!currentHosts.contains(now[r.getId()])) {
+        joining.add(r);
+      }
+    }
+    joining.sort(Comparator.comparingInt(Replica::getId));
+
+    // A replica whose own broker leaves copies from it, the others pair up with the remaining leaving brokers
+    List<Replica> unpaired = new ArrayList<>();
+    for (Replica r : joining) {
+      String own = r.getId() < was.length ? was[r.getId()] : null;
+      if (own != null && leaving.remove(own)) {
+        move(r, own, now[r.getId()]);
+      } else {
+        unpaired.add(r);
+      }
+    }
+
+    Iterator<String> remaining = leaving.iterator();
+    for (Replica r : unpaired) {
+      String from;
+      if (remaining.hasNext()) {
+        from = remaining.next();
+        remaining.remove();
+      } else {
+        from = source(was);
+      }
+      move(r, from, now[r.getId()]);
+    }
+  }
+
+  private void move(Replica r, String from, String to) {
+    long mb = r.getDimension(1);
+    moves.add(new ReplicaMove(r.getTopic(), r.getPartition(), r.getId(), from, to, mb));
+    transfer(to)[0] += mb;
+    transfer(from)[1] += mb;
+    movedMB += mb;
+  }
+
+  /**
+   * Broker a replica added to an existing partition copies from, the leader if it has one.
+   */
+  private static String source(String[] hosts) {
+    if (hosts != null) {
+      for (String host : hosts) {
+        if (host != null) {
+          return host;
+        }
+      }
+    }
+
+    return null;
+  }
+
+  private long[] transfer(String brokerId) {
+    return transfers.computeIfAbsent(brokerId, id -> new long[2]);
+  }
+
+  private static void place(Map<String, String[]> partitions, Replica r, String brokerId) {
+    String[] hosts = partitions.get(r.getTopicPartition());
+    if (hosts == null || hosts.length <= r.getId()) {
+      String[] grown = new String[r.getId() + 1];
+      if (hosts != null) {
+        System.arraycopy(hosts, 0, grown, 0, hosts.length);
+      }
+      hosts = grown;
+      partitions.put(r.getTopicPartition(), hosts);
+    }
+
+    hosts[r.getId()] = brokerId;
+  }
+
+  private static List<String> replicaList(String[] hosts) {
+    List<String> list = new ArrayList<>(hosts.length);
+    for (String host : hosts) {
+      if (host != null) {
+        list.add(host);
+      }
+    }
+
+    return Collections.unmodifiableList(list);
+  }
+
+  private static boolean isNumeric(String id) {
+    if (id.isEmpty() || id.length() > 18) {
+      return false;
+    }
+
+    for (int i = 0; i < id.length(); i++) {
+      if (!Character.isDigit(id.charAt(i))) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  static String key(Replica replica) {
+    return replica.getTopicPartition() + ":" + replica.getId();
+  }
+
+  /**
+   * Id a proposed broker gets in the cluster.
+   */
+  public String getBrokerId(Broker proposed) {
+    String id = brokerIds.get(proposed);
+    if (id == null) {
+      throw new IllegalArgumentException("Broker " + proposed.getId() + " is not part of the proposed plan.");
+    }
+
+    return id;
+  }
+
+  public List<String> getAddedBrokers() {
+    return Collections.unmodifiableList(addedBrokers);
+  }
+
+  public List<String> getRemovedBrokers() {
+    return Collections.unmodifiableList(removedBrokers);
+  }
+
+  public List<PartitionReassignment> getReassignments() {
+    return Collections.unmodifiableList(reassignments);
+  }
+
+  public List<ReplicaMove> getMoves() {
+    return Collections.unmodifiableList(moves);
+  }
+
+  public List<String> getCreatedPartitions() {
+    return Collections.unmodifiableList(createdPartitions);
+  }
+
+  public List<String> getDeletedPartitions() {
+    return Collections.unmodifiableList(deletedPartitions);
+  }
+
+  /**
+   * @return storage copied between brokers in MB
+   */
+  public long getMovedMB() {
+    return movedMB;
+  }
+
+  public long getInboundMB(String brokerId) {
+    long[] t = transfers.get(brokerId);
+    return t == null ? 0 : t[0];
+  }
+
+  public long getOutboundMB(String brokerId) {
+    long[] t = transfers.get(brokerId);
+    return t == null ? 0 : t[1];
+  }
+
+  /**
+   * Reassignment in the format of <code>kafka-reassign-partitions --reassignment-json-file</code>.
+   *
+   * @throws IllegalArgumentException if a broker id is not an integer
+   */
+  public String toKafkaReassignmentJson() {
+    return kafkaJson(false);
+  }
+
+  /**
+   * Reassignment that restores the current replica lists of the reassigned partitions.
+   */
+  public String toKafkaRollbackJson() {
+    return kafkaJson(true);
+  }
+
+  private String kafkaJson(boolean rollback) {
+    List<Object> partitions = new ArrayList<>();
+    for (PartitionReassignment r : reassignments) {
+      List<Object> replicas = new ArrayList<>();
+      for (String id : rollback ? r.getCurrentReplicas() : r.getProposedReplicas()) {
+        if (!isNumeric(id)) {
+          throw new IllegalArgumentException("Kafka broker ids are integers, got " + id);
+        }
+        replicas.add(Integer.parseInt(id));
+      }
+
+      Map<String, Object> partition = new LinkedHashMap<>();
+      partition.put("topic", r.getTopic());
+      partition.put("partition", r.getPartition());
+      partition.put("replicas", replicas);
+      partitions.add(partition);
+    }
+
+    Map<String, Object> json = new LinkedHashMap<>();
+    json.put("version", 1);
+    json.put("partitions", partitions);
+    return ConfigValueFactory.fromMap(json).render(ConfigRenderOptions.concise());
+  }
+
+  /**
+   * One line per moved replica: topic,partition,replica,from,to,mb
+   */
+  public String toCsv() {
+    StringBuilder csv = new StringBuilder("topic,partition,replica,from,to,mb\n");
+    for (ReplicaMove m : moves) {
+      csv.append(m.getTopic()).append(',').append(m.getPartition()).append(',').append(m.getReplicaId()).append(',')
+          .append(m.getFrom()).append(',').append(m.getTo()).append(',').append(m.getMB()).append('\n');
+    }
+
+    return csv.toString();
+  }
+
+  /**
+   * One line per broker that sends or receives data: broker,inMB,outMB
+   */
+  public String transfersToCsv() {
+    StringBuilder csv = new StringBuilder("broker,inMB,outMB\n");
+    for (Map.Entry<String, long[]> e : transfers.entrySet()) {
+      csv.append(e.getKey()).append(',').append(e.getValue()[0]).append(',').append(e.getValue()[1]).append('\n');
+    }
+
+    return csv.toString();
+  }
+
+  @Override
+  public String toString() {
+    return "PlanDiff{" +
+        "reassignedPartitions=" + reassignments.size() +
+        ", movedReplicas=" + moves.size() +
+        ", movedMB=" + movedMB +
+        ", addedBrokers=" + addedBrokers.size() +
+        ", removedBrokers=" + removedBrokers.size() +
+        ", createdPartitions=" + createdPartitions.size() +
+        ", deletedPartitions=" + deletedPartitions.size() +
+        '}';
+  }
+
+  public static class PartitionReassignment {
+    private final String topic;
+    private final int partition;
+    private final List<String> currentReplicas;
+    private final List<String> proposedReplicas;
+
+    PartitionReassignment(String topic, int partition, List<String> currentReplicas, List<String> proposedReplicas) {
+      this.topic = topic;
+      this.partition = partition;
+      this.currentReplicas = currentReplicas;
+      this.proposedReplicas = proposedReplicas;
+    }
+
+    public String getTopic() {
+      return topic;
+    }
+
+    public int getPartition() {
+      return partition;
+    }
+
+    /**
+     * @return broker ids ordered by replica id, the leader first
+     */
+    public List<String> getCurrentReplicas() {
+      return currentReplicas;
+    }
+
+    public List<String> getProposedReplicas() {
+      return proposedReplicas;
+    }
+  }
+
+  public static class ReplicaMove {
+    private final String topic;
+    private final int partition;
+    private final int replicaId;
+    private final String from;
+    private final String to;
+    private final long mb;
+
+    ReplicaMove(String topic, int partition, int replicaId, String from, String to, long mb) {
+      this.topic = topic;
+      this.partition = partition;
+      this.replicaId = replicaId;
+      this.from = from;
+      this.to = to;
+      this.mb = mb;
+    }
+
+    public String getTopic() {
+      return topic;
+    }
+
+    public int getPartition() {
+      return partition;
+    }
+
+    public int getReplicaId() {
+      return replicaId;
+    }
+
+    public String getFrom() {
+      return from;
+    }
+
+    public String getTo() {
+      return to;
+    }
+
+    public long getMB() {
+      return mb;
+    }
+  }
+}
@@ -0,0 +1,451 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha;
+
+import com.typesafe.config.ConfigRenderOptions;
+import com.typesafe.config.ConfigValueFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process wide counters and phase timers for the planners' hot paths: broker admission, storage volume feasibility
+ * checks, storage model predictions, replica sorts and bin count probes.
+ * <p>
+ * Collection is enabled with the <code>thulitha.metrics</code> system property. The flag is read once into a static
+ * final field, so when it is off the JIT removes the recording calls and the hot paths run as before. Phase times of
+ * concurrent probes add up, so they may exceed wall clock time. Exposed through JMX with {@link #register()} and as
+ * JSON with {@link #dump()}.
+ */
+public final class PlannerMetrics implements PlannerMetricsMXBean {
+  public static final boolean ENABLED = Boolean.getBoolean("thulitha.metrics");
+  public static final String OBJECT_NAME = "org.pathirage.thulitha:type=PlannerMetrics";
+
+  static final int REJECTED_PARTITION = 5;
+  static final int REJECTED_VOLUME = 6;
+  private static final String[] REJECTIONS = {"ram", "storage", "storageIOPS", "networkIn", "networkOut", "partition", "volume"};
+  private static final int RECENT_SOLVES = 64;
+
+  public enum Phase {
+    SIZING,
+    SORTING,
+    PACKING,
+    CLEANUP
+  }
+
+  private static final PlannerMetrics INSTANCE = new PlannerMetrics();
+
+  private final LongAdder addAttempts = new LongAdder();
+  private final LongAdder[] addRejections = adders(REJECTIONS.length);
+  private final LongAdder volumeChecks = new LongAdder();
+  private final LongAdder modelLookups = new LongAdder();
+  private final LongAdder modelInvocations = new LongAdder();
+  private final LongAdder modelNanos = new LongAdder();
+  private final LongAdder sorts = new LongAdder();
+  private final LongAdder rekeys = new LongAdder();
+  private final LongAdder probes = new LongAdder();
+  private final LongAdder failedProbes = new LongAdder();
+  private final LongAdder solves = new LongAdder();
+  private final PhaseTimes phaseTimes = new PhaseTimes();
+  private final Deque<SolveSummary> recentSolves = new ArrayDeque<>();
+  private boolean registered = false;
+
+  private PlannerMetrics() {
+  }
+
+  public static PlannerMetrics get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Register the metrics with the platform MBean server. Registering more than once has no effect.
+   */
+  public static synchronized void register() {
+    if (INSTANCE.registered) {
+      return;
+    }
+
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+    } catch (InstanceAlreadyExistsException e) {
+      // Registered by another class loader, its counters are the ones reported
+    } catch (JMException e) {
+      throw new RuntimeException("Could not register planner metrics.", e);
+    }
+
+    INSTANCE.registered = true;
+  }
+
+  /**
+   * @return start of a timed section, 0 when metrics are disabled
+   */
+  static long start() {
+    return ENABLED ? System.nanoTime() : 0;
+  }
+
+  /**
+   * Add the time since <code>start</code> to the phase, globally and for the given solve.
+   */
+  static void stop(Phase phase, long start, PhaseTimes solve) {
+    if (ENABLED) {
+      long nanos = System.nanoTime() - start;
+      INSTANCE.phaseTimes.add(phase, nanos);
+      solve.add(phase, nanos);
+    }
+  }
+
+  static void added() {
+    if (ENABLED) {
+      INSTANCE.addAttempts.increment();
+    }
+  }
+
+  /**
+   * @param rejection capacity dimension, {@link #REJECTED_PARTITION} or {@link #REJECTED_VOLUME}
+   */
+  static void rejected(int rejection) {
+    if (ENABLED) {
+      INSTANCE.addAttempts.increment();
+      INSTANCE.addRejections[rejection].increment();
+    }
+  }
+
+  static void volumeChecked() {
+    if (ENABLED) {
+      INSTANCE.volumeChecks.increment();
+    }
+  }
+
+  static void modelLookedUp() {
+    if (ENABLED) {
+      INSTANCE.modelLookups.increment();
+    }
+  }
+
+  static void modelInvoked(long start) {
+    if (ENABLED) {
+      INSTANCE.modelInvocations.increment();
+      INSTANCE.modelNanos.add(System.nanoTime() - start);
+    }
+  }
+
+  static void sorted() {
+    if (ENABLED) {
+      INSTANCE.sorts.increment();
+    }
+  }
+
+  static void rekeyed() {
+    if (ENABLED) {
+      INSTANCE.rekeys.increment();
+      INSTANCE.sorts.increment();
+    }
+  }
+
+  static void solved(SolveSummary summary) {
+    if (!ENABLED) {
+      return;
+    }
+
+    INSTANCE.solves.increment();
+    INSTANCE.probes.add(summary.probes);
+    INSTANCE.failedProbes.add(summary.failedProbes);
+    synchronized (INSTANCE.recentSolves) {
+      if (INSTANCE.recentSolves.size() == RECENT_SOLVES) {
+        INSTANCE.recentSolves.removeFirst();
+      }
+      INSTANCE.recentSolves.addLast(summary);
+    }
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return ENABLED;
+  }
+
+  @Override
+  public long getAddAttempts() {
+    return addAttempts.sum();
+  }
+
+  @Override
+  public long getAddFailures() {
+    long failures = 0;
+    for (LongAdder a : addRejections) {
+      failures += a.sum();
+    }
+
+    return failures;
+  }
+
+  @Override
+  public Map<String, Long> getAddRejections() {
+    Map<String, Long> rejections = new LinkedHashMap<>();
+    for (int i = 0; i < REJECTIONS.length; i++) {
+      rejections.put(REJECTIONS[i], addRejections[i].sum());
+    }
+
+    return rejections;
+  }
+
+  @Override
+  public long getVolumeFeasibilityChecks() {
+    return volumeChecks.sum();
+  }
+
+  @Override
+  public long getModelLookups() {
+    return modelLookups.sum();
+  }
+
+  @Override
+  public long getModelInvocations() {
+    return modelInvocations.sum();
+  }
+
+  @Override
+  public long getModelMillis() {
+    return modelNanos.sum() / 1000000;
+  }
+
+  @Override
+  public long getSorts() {
+    return sorts.sum();
+  }
+
+  @Override
+  public long getRekeys() {
+    return rekeys.sum();
+  }
+
+  @Override
+  public long getBinCountProbes() {
+    return probes.sum();
+  }
+
+  @Override
+  public long getFailedBinCountProbes() {
+    return failedProbes.sum();
+  }
+
+  @Override
+  public long getSolves() {
+    return solves.sum();
+  }
+
+  @Override
+  public Map<String, Long> getPhaseMillis() {
+    Map<String, Long> millis = new LinkedHashMap<>();
+    for (Phase p : Phase.values()) {
+      millis.put(p.name().toLowerCase(), phaseTimes.micros(p) / 1000);
+    }
+
+    return millis;
+  }
+
+  public List<SolveSummary> getRecentSolves() {
+    synchronized (recentSolves) {
+      return new ArrayList<>(recentSolves);
+    }
+  }
+
+  public Map<String, Object> toMap() {
+    Map<String, Object> adds = new LinkedHashMap<>();
+    adds.put("attempts", getAddAttempts());
+    adds.put("failures", getAddFailures());
+    adds.put("rejections", getAddRejections());
+
+    Map<String, Object> model = new LinkedHashMap<>();
+    model.put("lookups", getModelLookups());
+    model.put("invocations", getModelInvocations());
+    model.put("millis", getModelMillis());
+    model.put("cacheHits", StorageVolumeType.getPredictionCache().getHits());
+    model.put("cacheMisses", StorageVolumeType.getPredictionCache().getMisses());
+
+    Map<String, Object> probes = new LinkedHashMap<>();
+    probes.put("total", getBinCountProbes());
+    probes.put("failed", getFailedBinCountProbes());
+
+    List<Object> solves = new ArrayList<>();
+    for (SolveSummary s : getRecentSolves()) {
+      solves.add(s.toMap());
+    }
+
+    Map<String, Object> metrics = new LinkedHashMap<>();
+    metrics.put("enabled", ENABLED);
+    metrics.put("solves", getSolves());
+    metrics.put("phaseMillis", getPhaseMillis());
+    metrics.put("brokerAdds", adds);
+    metrics.put("volumeFeasibilityChecks", getVolumeFeasibilityChecks());
+    metrics.put("storageModel", model);
+    metrics.put("sorts", getSorts());
+    metrics.put("rekeys", getRekeys());
+    metrics.put("binCountProbes", probes);
+    metrics.put("recentSolves", solves);
+    return metrics;
+  }
+
+  @Override
+  public String dump() {
+    return ConfigValueFactory.fromMap(toMap()).render(ConfigRenderOptions.concise());
+  }
+
+  @Override
+  public void reset() {
+    addAttempts.reset();
+    for (LongAdder a : addRejections) {
+      a.reset();
+    }
+    volumeChecks.reset();
+    modelLookups.reset();
+    modelInvocations.reset();
+    modelNanos.reset();
+    sorts.reset();
+    rekeys.reset();
+    probes.reset();
+    failedProbes.reset();
+    solves.reset();
+    phaseTimes.reset();
+    synchronized (recentSolves) {
+      recentSolves.clear();
+    }
+  }
+
+  private static LongAdder[] adders(int n) {
+    LongAdder[] adders = new LongAdder[n];
+    for (int i = 0; i < n; i++) {
+      adders[i] = new LongAdder();
+    }
+
+    return adders;
+  }
+
+  /**
+   * Time spent in each phase, shared by the threads working on a solve.
+   */
+  static class PhaseTimes {
+    private final LongAdder[] nanos = adders(Phase.values().length);
+
+    void add(Phase phase, long n) {
+      nanos[phase.ordinal()].add(n);
+    }
+
+    long micros(Phase phase) {
+      return nanos[phase.ordinal()].sum() / 1000;
+    }
+
+    void reset() {
+      for (LongAdder a : nanos) {
+        a.reset();
+      }
+    }
+  }
+
+  public static class SolveSummary {
+    private final String planner;
+    private final CCInstanceType instanceType;
+    private final StorageVolumeType storageVolumeType;
+    private final int replicas;
+    private final int brokers;
+    private final int probes;
+    private final int failedProbes;
+    private final long elapsedMicros;
+    private final long[] phaseMicros;
+
+    SolveSummary(String planner, CCInstanceType instanceType, StorageVolumeType storageVolumeType, int replicas, int brokers, int probes, int failedProbes,
+                 long elapsedMicros, PhaseTimes phaseTimes) {
+      this.planner = planner;
+      this.instanceType = instanceType;
+      this.storageVolumeType = storageVolumeType;
+      this.replicas = replicas;
+      this.brokers = brokers;
+      this.probes = probes;
+      this.failedProbes = failedProbes;
+      this.elapsedMicros = elapsedMicros;
+      this.phaseMicros = new long[Phase.values().length];
+      for (Phase p : Phase.values()) {
+        phaseMicros[p.ordinal()] = phaseTimes.micros(p);
+      }
+    }
+
+    public String getPlanner() {
+      return planner;
+    }
+
+    public CCInstanceType getInstanceType() {
+      return instanceType;
+    }
+
+    public StorageVolumeType getStorageVolumeType() {
+      return storageVolumeType;
+    }
+
+    public int getReplicas() {
+      return replicas;
+    }
+
+    public int getBrokers() {
+      return brokers;
+    }
+
+    public int getProbes() {
+      return probes;
+    }
+
+    public int getFailedProbes() {
+      return failedProbes;
+    }
+
+    public long getElapsedMicros() {
+      return elapsedMicros;
+    }
+
+    public long getPhaseMicros(Phase phase) {
+      return phaseMicros[phase.ordinal()];
+    }
+
+    Map<String, Object> toMap() {
+      Map<String, Object> summary = new LinkedHashMap<>();
+      summary.put("planner", planner);
+      summary.put("instanceType", instanceType.name());
+      summary.put("storageVolumeType", storageVolumeType.name());
+      summary.put("replicas", replicas);
+      summary.put("brokers", brokers);
+      summary.put("probes", probes);
+      summary.put("failedProbes", failedProbes);
+      summary.put("elapsedMicros", elapsedMicros);
+      for (Phase p : Phase.values()) {
+        summary.put(p.name().toLowerCase() + "Micros", phaseMicros[p.ordinal()]);
+      }
+
+      return summary;
+    }
+
+    @Override
+    public String toString() {
+      return "SolveSummary" + toMap();
+    }
+  }
+}
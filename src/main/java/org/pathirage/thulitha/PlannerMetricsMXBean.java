@@ -0,0 +1,65 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link PlannerMetrics}, registered as <code>org.pathirage.thulitha:type=PlannerMetrics</code>.
+ */
+public interface PlannerMetricsMXBean {
+  boolean isEnabled();
+
+  long getAddAttempts();
+
+  long getAddFailures();
+
+  /**
+   * Failed {@link Broker#add(Replica)} calls by the first dimension (or constraint) that rejected the replica
+   */
+  Map<String, Long> getAddRejections();
+
+  /**
+   * Storage volume selections, one per replica that passed the broker's capacity checks, however many volumes the
+   * broker looked at or opened for it
+   */
+  long getVolumeFeasibilityChecks();
+
+  long getModelLookups();
+
+  long getModelInvocations();
+
+  long getModelMillis();
+
+  long getSorts();
+
+  long getRekeys();
+
+  long getBinCountProbes();
+
+  long getFailedBinCountProbes();
+
+  long getSolves();
+
+  Map<String, Long> getPhaseMillis();
+
+  /**
+   * @return all metrics and the most recent solve summaries as JSON
+   */
+  String dump();
+
+  void reset();
+}
@@ -0,0 +1,563 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigException;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigRenderOptions;
+import com.typesafe.config.ConfigValue;
+import com.typesafe.config.ConfigValueFactory;
+import org.pathirage.thulitha.CapacityPlanner.CapacityPlanningException;
+import org.pathirage.thulitha.utils.Topic;
+import org.pathirage.thulitha.utils.TopicInterner;
+import org.pathirage.thulitha.workloads.WorkloadGenerator;
+import org.pathirage.thulitha.workloads.WorkloadGeneratorConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long running planner that keeps storage performance models, prediction caches and JIT compiled planners resident
+ * between requests. Requests and responses are JSON over HTTP, served by the JDK's built-in server on the loopback
+ * interface by default.
+ * <p>
+ * Endpoints (POST unless noted):
+ * <ul>
+ * <li><code>/plan</code> plans a workload with {@link BFDCapacityPlanner}</li>
+ * <li><code>/rebalance</code> rebalances a given or freshly planned assignment with {@link Rebalancer}</li>
+ * <li><code>/whatif</code> reports the marginal brokers and cost of adding or removing topics from a planned workload
+ * with {@link IncrementalCapacityPlanner}</li>
+ * <li><code>/metrics</code> (GET) request latencies, prediction cache statistics and {@link PlannerMetrics} when they
+ * are enabled</li>
+ * <li><code>/health</code> (GET)</li>
+ * </ul>
+ * Every request names an <code>instanceType</code>, optionally a <code>volumeType</code>, and a workload given either
+ * as a <code>topics</code> list or as a generated <code>workload</code> of <code>replicas</code> with an optional
+ * <code>seed</code>. At most <code>maxConcurrentRequests</code> planning requests run at once and as many more wait up
+ * to <code>acquireTimeoutMillis</code> for a slot. Waiting requests that time out and requests beyond that are turned
+ * away with 503. Planning runs on its own threads, so <code>/metrics</code> and <code>/health</code> answer while
+ * planning is saturated.
+ */
+public class PlannerServer {
+  private static final Logger log = LoggerFactory.getLogger(PlannerServer.class);
+
+  private static final String[] ENDPOINTS = {"/plan", "/rebalance", "/whatif", "/metrics", "/health"};
+
+  @Parameter(names = {"-p", "--port"}, description = "Port to listen on, 0 picks a free port")
+  int port = 7878;
+
+  @Parameter(names = {"-b", "--bind-address"}, description = "Address to listen on")
+  String bindAddress = "127.0.0.1";
+
+  @Parameter(names = {"-c", "--max-concurrent-requests"}, description = "Planning requests served at once")
+  int maxConcurrentRequests = Runtime.getRuntime().availableProcessors();
+
+  @Parameter(names = {"-at", "--acquire-timeout-millis"}, description = "How long a request waits for a free slot before getting 503")
+  long acquireTimeoutMillis = 1000;
+
+  @Parameter(names = {"-wc", "--warm-up-cache"}, description = "Pre-compute storage model predictions for volumes with up to this many logs")
+  int warmUpCacheLogs = 0;
+
+  @Parameter(names = {"-wr", "--warm-up-replicas"}, description = "Plan a generated workload of this many replicas at startup to warm up the JIT, 0 skips it")
+  int warmUpReplicas = 2000;
+
+  @Parameter(names = {"-mt", "--max-interned-topics"}, description = "Forget interned topic names between requests once more than this many are known")
+  int maxInternedTopics = 100000;
+
+  private final Map<String, LatencyRecorder> latencies = new HashMap<>();
+  private Semaphore permits;
+  private HttpServer server;
+  private ExecutorService executor;
+  private ExecutorService planningExecutor;
+  private final AtomicInteger waiting = new AtomicInteger();
+  private long startMillis;
+
+  public static void main(String[] args) {
+    PlannerServer plannerServer = new PlannerServer();
+    JCommander.newBuilder()
+        .addObject(plannerServer)
+        .build()
+        .parse(args);
+
+    plannerServer.warmUp();
+    plannerServer.start();
+    Runtime.getRuntime().addShutdownHook(new Thread(plannerServer::stop));
+  }
+
+  /**
+   * Load models and run a throwaway plan so that the first request does not pay for it.
+   */
+  public void warmUp() {
+    long start = System.nanoTime();
+    StorageVolumeType.preloadModels(true);
+    if (warmUpCacheLogs > 0) {
+      for (CCInstanceType t : CCInstanceType.values()) {
+        StorageVolumeType volumeType = BrokerType.defaultVolumeType(t);
+        if (volumeType == StorageVolumeType.ST1 || volumeType == StorageVolumeType.D2HDD) {
+          StorageVolumeType.getPredictionCache().warmUp(t, volumeType, CapacityPlanner.IO_OP_SIZE_128KB, warmUpCacheLogs);
+        }
+      }
+    }
+
+    if (warmUpReplicas > 0) {
+      List<Replica> replicas = new WorkloadGenerator(new WorkloadGeneratorConfig(null)).run(warmUpReplicas, 0);
+      new BFDCapacityPlanner(replicas, CCInstanceType.M4_4X, StorageVolumeType.ST1, true, true,
+          BFDCapacityPlanner.BinCountSearch.GALLOPING, 1).solve();
+    }
+
+    log.info(String.format("Warmed up in %s ms", (System.nanoTime() - start) / 1000000));
+  }
+
+  /**
+   * @return port the server listens on
+   */
+  public int start() {
+    if (maxConcurrentRequests < 1) {
+      throw new IllegalArgumentException("Concurrent request limit should be at least 1, but was " + maxConcurrentRequests);
+    }
+
+    permits = new Semaphore(maxConcurrentRequests, true);
+    for (String endpoint : ENDPOINTS) {
+      latencies.put(endpoint, new LatencyRecorder());
+    }
+
+    try {
+      server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+    } catch (IOException e) {
+      throw new RuntimeException("Could not listen on " + bindAddress + ":" + port, e);
+    }
+
+    server.createContext("/plan", exchange -> dispatch(exchange, "/plan", this::plan));
+    server.createContext("/rebalance", exchange -> dispatch(exchange, "/rebalance", this::rebalance));
+    server.createContext("/whatif", exchange -> dispatch(exchange, "/whatif", this::whatIf));
+    server.createContext("/metrics", exchange -> serve(exchange, "/metrics", false, request -> metrics()));
+    server.createContext("/health", exchange -> serve(exchange, "/health", false,
+        request -> Collections.<String, Object>singletonMap("status", "ok")));
+
+    // Server threads only serve GET endpoints and hand planning requests off, one planning thread per slot and one
+    // per request waiting for a slot
+    executor = Executors.newFixedThreadPool(2);
+    planningExecutor = new ThreadPoolExecutor(2 * maxConcurrentRequests, 2 * maxConcurrentRequests, 60,
+        TimeUnit.SECONDS, new SynchronousQueue<>());
+    server.setExecutor(executor);
+    server.start();
+    startMillis = System.currentTimeMillis();
+    if (PlannerMetrics.ENABLED) {
+      PlannerMetrics.register();
+    }
+
+    int boundPort = server.getAddress().getPort();
+    log.info(String.format("Planner server listening on %s:%s", bindAddress, boundPort));
+    return boundPort;
+  }
+
+  public void stop() {
+    if (server != null) {
+      server.stop(0);
+      executor.shutdownNow();
+      planningExecutor.shutdownNow();
+      server = null;
+    }
+  }
+
+  private void dispatch(HttpExchange exchange, String endpoint, Endpoint handler) throws IOException {
+    try {
+      planningExecutor.execute(() -> {
+        try {
+          serve(exchange, endpoint, true, handler);
+        } catch (IOException e) {
+          log.warn("Could not respond to " + endpoint + " request.", e);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      latencies.get(endpoint).reject();
+      try {
+        respond(exchange, 503, error("Too many concurrent requests."));
+      } finally {
+        exchange.close();
+      }
+    }
+  }
+
+  private void serve(HttpExchange exchange, String endpoint, boolean planning, Endpoint handler) throws IOException {
+    LatencyRecorder latency = latencies.get(endpoint);
+    long start = System.nanoTime();
+    boolean acquired = false;
+    try {
+      if (planning != "POST".equals(exchange.getRequestMethod())) {
+        latency.error();
+        respond(exchange, 405, error("Use " + (planning ? "POST" : "GET") + " for " + endpoint));
+        return;
+      }
+
+      if (planning) {
+        waiting.incrementAndGet();
+        try {
+          acquired = permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        } finally {
+          waiting.decrementAndGet();
+        }
+        if (!acquired) {
+          latency.reject();
+          respond(exchange, 503, error("Too many concurrent requests."));
+          return;
+        }
+        TopicInterner.enterScope();
+      }
+
+      Config request = planning ? ConfigFactory.parseString(readBody(exchange)) : ConfigFactory.empty();
+      Map<String, Object> response = handler.handle(request);
+      respond(exchange, 200, response);
+      latency.record(System.nanoTime() - start);
+    } catch (ConfigException | IllegalArgumentException e) {
+      latency.error();
+      respond(exchange, 400, error(e.getMessage()));
+    } catch (CapacityPlanningException e) {
+      latency.error();
+      respond(exchange, 422, error(e.getMessage()));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      latency.error();
+      respond(exchange, 503, error("Interrupted."));
+    } catch (RuntimeException e) {
+      log.error("Failed to serve " + endpoint, e);
+      latency.error();
+      respond(exchange, 500, error(String.valueOf(e.getMessage())));
+    } finally {
+      if (acquired) {
+        TopicInterner.exitScope();
+        permits.release();
+      }
+      exchange.close();
+      if (acquired) {
+        TopicInterner.resetIfLargerThan(maxInternedTopics);
+      }
+    }
+  }
+
+  private Map<String, Object> plan(Config request) {
+    CCInstanceType instanceType = instanceType(request);
+    List<Replica> replicas = replicas(request);
+    long start = System.nanoTime();
+    BFDCapacityPlanner planner = planner(request, replicas, instanceType);
+    List<Broker> brokers = planner.solve();
+
+    Map<String, Object> response = new LinkedHashMap<>();
+    response.put("replicas", replicas.size());
+    response.put("brokers", brokers.size());
+    response.put("lowerBound", planner.lowestPossibleBrokersRequired());
+    response.put("hourlyCost", hourlyCost(brokers));
+    response.put("planMillis", (System.nanoTime() - start) / 1000000);
+    if (request.hasPath("includeAssignment") && request.getBoolean("includeAssignment")) {
+      response.put("assignment", assignment(brokers));
+    }
+
+    return response;
+  }
+
+  private Map<String, Object> rebalance(Config request) {
+    CCInstanceType instanceType = instanceType(request);
+    List<Replica> replicas = replicas(request);
+    List<Broker> brokers;
+    if (request.hasPath("assignment")) {
+      brokers = brokers(request, replicas, instanceType);
+    } else {
+      brokers = planner(request, replicas, instanceType).solve();
+    }
+
+    int addBrokers = request.hasPath("addBrokers") ? request.getInt("addBrokers") : 0;
+    for (int i = 0; i < addBrokers; i++) {
+      brokers.add(new Broker("added-" + i, instanceType, volumeType(request, instanceType),
+          CapacityPlanner.IO_OP_SIZE_128KB, false));
+    }
+
+    Rebalancer rebalancer = new Rebalancer(brokers);
+    if (request.hasPath("targetSpread")) {
+      rebalancer.setTargetSpread(request.getDouble("targetSpread"));
+    }
+    if (request.hasPath("timeBudgetMillis")) {
+      rebalancer.setTimeBudgetMillis(request.getLong("timeBudgetMillis"));
+    }
+    Rebalancer.Result result = rebalancer.rebalance();
+
+    List<Object> moves = new ArrayList<>();
+    for (Rebalancer.Move move : result.getMoves()) {
+      Map<String, Object> m = new LinkedHashMap<>();
+      m.put("replica", key(move.getReplica()));
+      m.put("from", move.getFrom().getId());
+      m.put("to", move.getTo().getId());
+      moves.add(m);
+    }
+
+    Map<String, Object> response = new LinkedHashMap<>();
+    response.put("brokers", brokers.size());
+    response.put("moves", moves);
+    response.put("movedMB", result.getMovedMB());
+    response.put("initialSpread", result.getInitialSpread());
+    response.put("finalSpread", result.getFinalSpread());
+    response.put("elapsedMillis", result.getElapsedMillis());
+    return response;
+  }
+
+  private Map<String, Object> whatIf(Config request) {
+    CCInstanceType instanceType = instanceType(request);
+    List<Replica> replicas = replicas(request);
+    List<Broker> brokers = planner(request, replicas, instanceType).solve();
+    IncrementalCapacityPlanner planner = new IncrementalCapacityPlanner(brokers, instanceType, volumeType(request, instanceType));
+
+    Map<String, Object> response = new LinkedHashMap<>();
+    response.put("baseBrokers", brokers.size());
+    response.put("baseHourlyCost", planner.getHourlyCost());
+
+    List<IncrementalCapacityPlanner.Change> changes = new ArrayList<>();
+    List<String> actions = new ArrayList<>();
+    if (request.hasPath("removeTopics")) {
+      for (String name : request.getStringList("removeTopics")) {
+        changes.add(planner.removeTopic(name));
+        actions.add("remove");
+      }
+    }
+    if (request.hasPath("addTopics")) {
+      for (Config topic : request.getConfigList("addTopics")) {
+        changes.add(planner.addTopic(topic(topic)));
+        actions.add("add");
+      }
+    }
+
+    List<Object> reported = new ArrayList<>();
+    for (int i = 0; i < changes.size(); i++) {
+      IncrementalCapacityPlanner.Change change = changes.get(i);
+      Map<String, Object> c = new LinkedHashMap<>();
+      c.put("topic", change.getTopic());
+      c.put("action", actions.get(i));
+      c.put("replicas", change.getReplicaCount());
+      c.put("marginalBrokers", change.getMarginalBrokers());
+      c.put("marginalHourlyCost", change.getMarginalHourlyCost());
+      c.put("elapsedMicros", change.getElapsedMicros());
+      reported.add(c);
+    }
+
+    response.put("changes", reported);
+    response.put("brokers", planner.getBrokers().size());
+    response.put("hourlyCost", planner.getHourlyCost());
+    return response;
+  }
+
+  private Map<String, Object> metrics() {
+    Map<String, Object> endpoints = new LinkedHashMap<>();
+    for (String endpoint : ENDPOINTS) {
+      endpoints.put(endpoint, latencies.get(endpoint).toMap());
+    }
+
+    StoragePerfModelCache cache = StorageVolumeType.getPredictionCache();
+    Map<String, Object> predictions = new LinkedHashMap<>();
+    predictions.put("size", cache.size());
+    predictions.put("hits", cache.getHits());
+    predictions.put("misses", cache.getMisses());
+    predictions.put("hitRatio", cache.getHitRatio());
+
+    Map<String, Object> response = new LinkedHashMap<>();
+    response.put("uptimeMillis", System.currentTimeMillis() - startMillis);
+    response.put("maxConcurrentRequests", maxConcurrentRequests);
+    response.put("inFlight", maxConcurrentRequests - permits.availablePermits());
+    response.put("waiting", waiting.get());
+    response.put("endpoints", endpoints);
+    response.put("predictionCache", predictions);
+    if (PlannerMetrics.ENABLED) {
+      response.put("planner", PlannerMetrics.get().toMap());
+    }
+    return response;
+  }
+
+  private BFDCapacityPlanner planner(Config request, List<Replica> replicas, CCInstanceType instanceType) {
+    BFDCapacityPlanner.BinCountSearch search = request.hasPath("binCountSearch") ?
+        BFDCapacityPlanner.BinCountSearch.valueOf(request.getString("binCountSearch")) :
+        BFDCapacityPlanner.BinCountSearch.GALLOPING;
+
+    // Requests are the unit of concurrency, so bin counts get probed one at a time
+    return new BFDCapacityPlanner(replicas, instanceType, volumeType(request, instanceType), true, true, search, 1);
+  }
+
+  /**
+   * Brokers holding the replicas as given by the request's assignment, an object mapping broker ids to replica keys.
+   */
+  private List<Broker> brokers(Config request, List<Replica> replicas, CCInstanceType instanceType) {
+    Map<String, Replica> byKey = new HashMap<>();
+    for (Replica r : replicas) {
+      byKey.put(key(r), r);
+    }
+
+    List<Broker> brokers = new ArrayList<>();
+    StorageVolumeType volumeType = volumeType(request, instanceType);
+    for (Map.Entry<String, ConfigValue> e : request.getObject("assignment").entrySet()) {
+      Broker broker = new Broker(e.getKey(), instanceType, volumeType, CapacityPlanner.IO_OP_SIZE_128KB, false);
+      Object keys = e.getValue().unwrapped();
+      if (!(keys instanceof List)) {
+        throw new IllegalArgumentException("Replicas of broker " + e.getKey() + " should be a list.");
+      }
+
+      for (Object k : (List<?>) keys) {
+        Replica r = byKey.remove(String.valueOf(k));
+        if (r == null) {
+          throw new IllegalArgumentException("Unknown or repeated replica " + k + " on broker " + e.getKey());
+        }
+        if (!broker.add(r)) {
+          throw new CapacityPlanningException("Broker " + e.getKey() + " can not host replica " + k);
+        }
+      }
+      brokers.add(broker);
+    }
+
+    if (!byKey.isEmpty()) {
+      throw new IllegalArgumentException(byKey.size() + " replicas are not assigned, for example " + byKey.keySet().iterator().next());
+    }
+
+    return brokers;
+  }
+
+  private static List<Replica> replicas(Config request) {
+    if (request.hasPath("topics")) {
+      List<Replica> replicas = new ArrayList<>();
+      for (Config topic : request.getConfigList("topics")) {
+        replicas.addAll(topic(topic).getReplicas());
+      }
+      return replicas;
+    }
+
+    if (request.hasPath("workload")) {
+      Config workload = request.getConfig("workload");
+      WorkloadGeneratorConfig config = new WorkloadGeneratorConfig(null);
+      long seed = workload.hasPath("seed") ? workload.getLong("seed") : config.nextSeed();
+      return new WorkloadGenerator(config).run(workload.getInt("replicas"), seed);
+    }
+
+    throw new IllegalArgumentException("Request should have either topics or a workload.");
+  }
+
+  private static Topic topic(Config topic) {
+    int[] replayRates = new int[0];
+    if (topic.hasPath("replayRates")) {
+      List<Integer> rates = topic.getIntList("replayRates");
+      replayRates = new int[rates.size()];
+      for (int i = 0; i < replayRates.length; i++) {
+        replayRates[i] = rates.get(i);
+      }
+    }
+
+    return new Topic(topic.getString("name"), topic.getInt("produceRate"), topic.getInt("avgMessageSize"),
+        topic.getInt("partitions"), topic.getInt("replicationFactor"),
+        topic.hasPath("consumers") ? topic.getInt("consumers") : 1, replayRates.length, replayRates,
+        topic.hasPath("maxConsumerLagSeconds") ? topic.getInt("maxConsumerLagSeconds") : 20,
+        topic.getInt("retentionHours"),
+        topic.hasPath("readCapacityForFollowers") && topic.getBoolean("readCapacityForFollowers"));
+  }
+
+  private static CCInstanceType instanceType(Config request) {
+    return CCInstanceType.valueOf(request.getString("instanceType"));
+  }
+
+  private static StorageVolumeType volumeType(Config request, CCInstanceType instanceType) {
+    if (request.hasPath("volumeType")) {
+      return StorageVolumeType.valueOf(request.getString("volumeType"));
+    }
+
+    return BrokerType.defaultVolumeType(instanceType);
+  }
+
+  private static Map<String, Object> assignment(List<Broker> brokers) {
+    Map<String, Object> assignment = new LinkedHashMap<>();
+    for (Broker b : brokers) {
+      List<Object> keys = new ArrayList<>();
+      for (Replica r : b.getReplicas()) {
+        keys.add(key(r));
+      }
+      assignment.put(b.getId(), keys);
+    }
+
+    return assignment;
+  }
+
+  private static double hourlyCost(List<Broker> brokers) {
+    double cost = 0;
+    for (Broker b : brokers) {
+      cost += b.getHourlyCost();
+    }
+
+    return cost;
+  }
+
+  /**
+   * Replica key used in requests and responses: topic:partition:replica id
+   */
+  static String key(Replica replica) {
+    return replica.getTopicPartition() + ":" + replica.getId();
+  }
+
+  private static Map<String, Object> error(String message) {
+    return Collections.<String, Object>singletonMap("error", message);
+  }
+
+  private static String readBody(HttpExchange exchange) throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    try (InputStream in = exchange.getRequestBody()) {
+      int read;
+      while ((read = in.read(buffer)) > 0) {
+        body.write(buffer, 0, read);
+      }
+    }
+
+    return new String(body.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private static void respond(HttpExchange exchange, int status, Map<String, Object> body) throws IOException {
+    byte[] json = ConfigValueFactory.fromMap(body).render(ConfigRenderOptions.concise()).getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, json.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(json);
+    }
+  }
+
+  private interface Endpoint {
+    Map<String, Object> handle(Config request) throws InterruptedException;
+  }
+}
@@ -0,0 +1,312 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Moves replicas between brokers of an existing assignment until broker loads are within a target spread.
+ * <p>
+ * A broker's load is the sum over dimensions of its share of the cluster wide total, the measure
+ * {@link org.pathirage.thulitha.utils.SizeUtility#updateBrokerSizeBasedOnTotalSizeOfItems(List, List)} uses. Spread is
+ * the coefficient of variation of the loads. Moving a replica with load w from broker a to broker b changes the sum
+ * of squared loads by 2w(L(b) - L(a) + w) while the mean stays the same, so every candidate move is scored in constant
+ * time. Each step takes the move from the most loaded broker with the largest variance reduction per MB of storage
+ * moved, which keeps the bytes copied between brokers low.
+ * <p>
+ * A replica may be moved more than once. The result reports net moves from the broker that hosted a replica before
+ * rebalancing to the one hosting it afterwards, so it can be applied as a reassignment and the bytes moved count each
+ * replica at most once.
+ */
+public class Rebalancer {
+  private static final Logger log = LoggerFactory.getLogger(Rebalancer.class);
+
+  public static final double DEFAULT_TARGET_SPREAD = 0.05;
+  public static final long DEFAULT_TIME_BUDGET_MILLIS = 10000;
+
+  private final List<Broker> brokers;
+  private double targetSpread = DEFAULT_TARGET_SPREAD;
+  private long timeBudgetMillis = DEFAULT_TIME_BUDGET_MILLIS;
+
+  public Rebalancer(List<Broker> brokers) {
+    if (brokers.isEmpty()) {
+      throw new IllegalArgumentException("Nothing to rebalance without brokers.");
+    }
+
+    this.brokers = brokers;
+  }
+
+  public void setTargetSpread(double targetSpread) {
+    this.targetSpread = targetSpread;
+  }
+
+  public void setTimeBudgetMillis(long timeBudgetMillis) {
+    this.timeBudgetMillis = timeBudgetMillis;
+  }
+
+  /**
+   * Apply moves to the brokers until the target spread is met, no move reduces the spread or the time budget runs
+   * out.
+   */
+  public Result rebalance() {
+    long start = System.nanoTime();
+    long deadline = start + timeBudgetMillis * 1000000;
+    int b = brokers.size();
+
+    long[] totals = new long[5];
+    for (Broker broker : brokers) {
+      for (int d = 0; d < totals.length; d++) {
+        totals[d] += broker.getTotalSizeOfItems(d);
+      }
+    }
+    double[] factors = new double[totals.length];
+    for (int d = 0; d < totals.length; d++) {
+      factors[d] = totals[d] == 0 ? 0 : 1.0 / totals[d];
+    }
+
+    Map<Replica, Double> weights = new IdentityHashMap<>();
+    double[] loads = new double[b];
+    double sum = 0;
+    double sumOfSquares = 0;
+    for (int i = 0; i < b; i++) {
+      for (Replica r : brokers.get(i).getReplicas()) {
+        double w = 0;
+        for (int d = 0; d < factors.length; d++) {
+          w += factors[d] * r.getDimension(d);
+        }
+        weights.put(r, w);
+        loads[i] += w;
+      }
+      sum += loads[i];
+      sumOfSquares += loads[i] * loads[i];
+    }
+
+    double initialSpread = spread(sum, sumOfSquares, b);
+    Map<Replica, Integer> origins = new IdentityHashMap<>();
+    Map<Replica, Integer> hosts = new IdentityHashMap<>();
+    List<Replica> moved = new ArrayList<>();
+    int steps = 0;
+    Integer[] order = new Integer[b];
+    for (int i = 0; i < b; i++) {
+      order[i] = i;
+    }
+
+    while (spread(sum, sumOfSquares, b) > targetSpread && System.nanoTime() < deadline) {
+      Arrays.sort(order, (x, y) -> Double.compare(loads[x], loads[y]));
+
+      Move move = null;
+      for (int s = b - 1; s > 0 && move == null && System.nanoTime() < deadline; s--) {
+        move = bestMove(order, s, loads, weights);
+      }
+
+      if (move == null) {
+        break;
+      }
+
+      int from = move.fromIndex;
+      int to = move.toIndex;
+      double w = weights.get(move.replica);
+      sumOfSquares += 2 * w * (loads[to] - loads[from] + w);
+      loads[from] -= w;
+      loads[to] += w;
+      if (origins.putIfAbsent(move.replica, from) == null) {
+        moved.add(move.replica);
+      }
+      hosts.put(move.replica, to);
+      steps++;
+    }
+
+    List<Move> moves = new ArrayList<>();
+    long movedMB = 0;
+    for (Replica r : moved) {
+      int origin = origins.get(r);
+      int host = hosts.get(r);
+      if (origin != host) {
+        moves.add(new Move(r, brokers.get(origin), brokers.get(host), origin, host));
+        movedMB += r.getDimension(1);
+      }
+    }
+
+    // The incremental sum of squares accumulates rounding errors, report the spread of the final loads
+    sumOfSquares = 0;
+    for (double load : loads) {
+      sumOfSquares += load * load;
+    }
+
+    Result result = new Result(moves, movedMB, steps, initialSpread, spread(sum, sumOfSquares, b),
+        (System.nanoTime() - start) / 1000000);
+    log.info(result.toString());
+    return result;
+  }
+
+  /**
+   * Best improving move off the broker at <code>order[source]</code>. The move is applied to the brokers.
+   */
+  private Move bestMove(Integer[] order, int source, double[] loads, Map<Replica, Double> weights) {
+    int from = order[source];
+    Broker fromBroker = brokers.get(from);
+    List<Replica> candidates = new ArrayList<>(fromBroker.getReplicas());
+    double lightest = loads[order[0]];
+
+    // Score each replica against the lightest broker, the best destination a replica could get
+    double[] scores = new double[candidates.size()];
+    Integer[] ranking = new Integer[candidates.size()];
+    for (int i = 0; i < candidates.size(); i++) {
+      Replica r = candidates.get(i);
+      double w = weights.get(r);
+      scores[i] = -2 * w * (lightest - loads[from] + w) / (r.getDimension(1) + 1);
+      ranking[i] = i;
+    }
+    Arrays.sort(ranking, (x, y) -> Double.compare(scores[y], scores[x]));
+
+    for (int i : ranking) {
+      if (scores[i] <= 0) {
+        break;
+      }
+
+      Replica r = candidates.get(i);
+      double w = weights.get(r);
+      for (int d = 0; d < source; d++) {
+        int to = order[d];
+        if (loads[to] - loads[from] + w >= 0) {
+          break; // destinations only get heavier from here
+        }
+
+        Broker toBroker = brokers.get(to);
+        if (toBroker.add(r)) {
+          fromBroker.remove(r);
+          return new Move(r, fromBroker, toBroker, from, to);
+        }
+      }
+    }
+
+    return null;
+  }
+
+  static double spread(double sum, double sumOfSquares, int n) {
+    double mean = sum / n;
+    if (mean == 0) {
+      return 0;
+    }
+
+    double variance = Math.max(0, sumOfSquares / n - mean * mean);
+    return Math.sqrt(variance) / mean;
+  }
+
+  public static class Move {
+    private final Replica replica;
+    private final Broker from;
+    private final Broker to;
+    private final int fromIndex;
+    private final int toIndex;
+
+    Move(Replica replica, Broker from, Broker to, int fromIndex, int toIndex) {
+      this.replica = replica;
+      this.from = from;
+      this.to = to;
+      this.fromIndex = fromIndex;
+      this.toIndex = toIndex;
+    }
+
+    public Replica getReplica() {
+      return replica;
+    }
+
+    public Broker getFrom() {
+      return from;
+    }
+
+    public Broker getTo() {
+      return to;
+    }
+
+    @Override
+    public String toString() {
+      return replica.getTopicPartition() + "-" + replica.getId() + ": " + from.getId() + " -> " + to.getId();
+    }
+  }
+
+  public static class Result {
+    private final List<Move> moves;
+    private final long movedMB;
+    private final int steps;
+    private final double initialSpread;
+    private final double finalSpread;
+    private final long elapsedMillis;
+
+    Result(List<Move> moves, long movedMB, int steps, double initialSpread, double finalSpread, long elapsedMillis) {
+      this.moves = Collections.unmodifiableList(moves);
+      this.movedMB = movedMB;
+      this.steps = steps;
+      this.initialSpread = initialSpread;
+      this.finalSpread = finalSpread;
+      this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * @return net moves, at most one per replica, from its broker before rebalancing to its broker afterwards
+     */
+    public List<Move> getMoves() {
+      return moves;
+    }
+
+    /**
+     * @return storage of the replicas in {@link #getMoves()}
+     */
+    public long getMovedMB() {
+      return movedMB;
+    }
+
+    /**
+     * @return single replica moves taken while rebalancing, a replica moved more than once counts every time
+     */
+    public int getSteps() {
+      return steps;
+    }
+
+    public double getInitialSpread() {
+      return initialSpread;
+    }
+
+    public double getFinalSpread() {
+      return finalSpread;
+    }
+
+    public long getElapsedMillis() {
+      return elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+      return "Rebalance{" +
+          "moves=" + moves.size() +
+          ", movedMB=" + movedMB +
+          ", steps=" + steps +
+          ", initialSpread=" + initialSpread +
+          ", finalSpread=" + finalSpread +
+          ", elapsedMillis=" + elapsedMillis +
+          '}';
+    }
+  }
+}
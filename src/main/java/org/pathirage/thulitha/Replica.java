@@ -15,6 +15,8 @@
  */
 package org.pathirage.thulitha;
 
+import org.pathirage.thulitha.utils.TopicInterner;
+
 import java.util.Arrays;
 
 /**
@@ -28,6 +30,7 @@ import java.util.Arrays;
 public class Replica implements Comparable<Replica> {
   private final String topic;
   private final int partition;
+  private final long topicPartitionKey;
   private final int id;
   private final long[] requirements;
   private final int readPercentage;
@@ -41,6 +44,7 @@ public class Replica implements Comparable<Replica> {
                  int readPercentage, int avgMessageSize, int produceRate, int[] replayRates) {
     this.topic = topic;
     this.partition = partition;
+    this.topicPartitionKey = TopicInterner.topicPartitionKey(TopicInterner.intern(topic), partition);
     this.id = id;
     this.requirements = new long[]{ramRequirement, storageRequirement, storageBandwidthRequirement, networkInRequirement, networkOutRequirement};
     this.readPercentage = readPercentage;
@@ -82,6 +86,13 @@ public class Replica implements Comparable<Replica> {
     return String.format("%s:%s", topic, partition);
   }
 
+  /**
+   * Numeric equivalent of {@link #getTopicPartition()}. Replicas of the same topic partition share the key.
+   */
+  public long getTopicPartitionKey() {
+    return topicPartitionKey;
+  }
+
   /**
    * Get the replica identifier
    * @return replica identifier
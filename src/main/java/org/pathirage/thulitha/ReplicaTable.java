@@ -0,0 +1,281 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column oriented replica store. Every requirement dimension and replica attribute lives in its own primitive array
+ * and replicas are addressed by row. Topic names are interned into a dictionary and rows keep the topic id. Replay
+ * rates of all rows share a single array with per row offsets.
+ * <p>
+ * Uses far less memory than a list of {@link Replica} objects for large workloads and keeps requirement scans
+ * sequential. {@link #getReplica(int)} materializes a row when an object is needed, for example when a replica gets
+ * assigned to a {@link Broker}.
+ */
+public class ReplicaTable {
+  private static final int DIMENSIONS = 5;
+
+  private final long[][] requirements = new long[DIMENSIONS][];
+  private int[] topicIds;
+  private int[] partitions;
+  private int[] replicaIds;
+  private int[] readPercentages;
+  private int[] avgMessageSizes;
+  private int[] produceRates;
+  private int[] replayOffsets; // replay rates of row r are replays[replayOffsets[r], replayOffsets[r + 1])
+  private int[] replays;
+  private int rows = 0;
+
+  private final List<String> topics = new ArrayList<>();
+  private final Map<String, Integer> topicIdsByName = new HashMap<>();
+
+  public ReplicaTable() {
+    this(1024);
+  }
+
+  public ReplicaTable(int initialCapacity) {
+    int capacity = Math.max(1, initialCapacity);
+    for (int d = 0; d < DIMENSIONS; d++) {
+      requirements[d] = new long[capacity];
+    }
+
+    topicIds = new int[capacity];
+    partitions = new int[capacity];
+    replicaIds = new int[capacity];
+    readPercentages = new int[capacity];
+    avgMessageSizes = new int[capacity];
+    produceRates = new int[capacity];
+    replayOffsets = new int[capacity + 1];
+    replays = new int[capacity];
+  }
+
+  public static ReplicaTable fromReplicas(List<Replica> replicas) {
+    ReplicaTable table = new ReplicaTable(replicas.size());
+    for (Replica r : replicas) {
+      table.add(r);
+    }
+
+    return table;
+  }
+
+  /**
+   * @return row of the replica
+   */
+  public int add(Replica replica) {
+    return add(replica.getTopic(), replica.getPartition(), replica.getId(), replica.getRequirements(),
+        replica.getReadPercentage(), replica.getAvgMessageSize(), replica.getProduceRate(), replica.getReplayRates());
+  }
+
+  /**
+   * @param requirements {ram, storage, storage bw, network in, network out} as in {@link Replica}
+   * @return row of the replica
+   */
+  public int add(String topic, int partition, int id, long[] requirements, int readPercentage, int avgMessageSize,
+                 int produceRate, int[] replayRates) {
+    if (requirements.length != DIMENSIONS) {
+      throw new IllegalArgumentException("Expected " + DIMENSIONS + " requirement dimensions, got " + requirements.length);
+    }
+
+    if (rows == topicIds.length) {
+      grow(rows * 2);
+    }
+
+    int row = rows;
+    for (int d = 0; d < DIMENSIONS; d++) {
+      this.requirements[d][row] = requirements[d];
+    }
+
+    topicIds[row] = internTopic(topic);
+    partitions[row] = partition;
+    replicaIds[row] = id;
+    readPercentages[row] = readPercentage;
+    avgMessageSizes[row] = avgMessageSize;
+    produceRates[row] = produceRate;
+
+    int replayCount = replayRates == null ? 0 : replayRates.length;
+    int offset = replayOffsets[row];
+    if (offset + replayCount > replays.length) {
+      replays = Arrays.copyOf(replays, Math.max(replays.length * 2, offset + replayCount));
+    }
+    for (int i = 0; i < replayCount; i++) {
+      replays[offset + i] = replayRates[i];
+    }
+    replayOffsets[row + 1] = offset + replayCount;
+
+    rows++;
+    return row;
+  }
+
+  public int size() {
+    return rows;
+  }
+
+  public boolean isEmpty() {
+    return rows == 0;
+  }
+
+  public int getDimensionCount() {
+    return DIMENSIONS;
+  }
+
+  public long getDimension(int row, int dimension) {
+    return requirements[dimension][row];
+  }
+
+  /**
+   * Backing column of a requirement dimension. Only the first {@link #size()} entries are valid and callers must not
+   * modify it.
+   */
+  public long[] getColumn(int dimension) {
+    return requirements[dimension];
+  }
+
+  public int getTopicId(int row) {
+    return topicIds[row];
+  }
+
+  public String getTopic(int row) {
+    return topics.get(topicIds[row]);
+  }
+
+  public int getPartition(int row) {
+    return partitions[row];
+  }
+
+  public int getReplicaId(int row) {
+    return replicaIds[row];
+  }
+
+  /**
+   * Replica with id 0 is always the leader.
+   */
+  public boolean isLeader(int row) {
+    return replicaIds[row] == 0;
+  }
+
+  public int getReadPercentage(int row) {
+    return readPercentages[row];
+  }
+
+  public int getAvgMessageSize(int row) {
+    return avgMessageSizes[row];
+  }
+
+  public int getProduceRate(int row) {
+    return produceRates[row];
+  }
+
+  public int getReplayCount(int row) {
+    return replayOffsets[row + 1] - replayOffsets[row];
+  }
+
+  public int getReplayRate(int row, int replay) {
+    return replays[replayOffsets[row] + replay];
+  }
+
+  public int getTopicCount() {
+    return topics.size();
+  }
+
+  /**
+   * Create a {@link Replica} holding the values of a row. Each call returns a new object.
+   */
+  public Replica getReplica(int row) {
+    if (row < 0 || row >= rows) {
+      throw new IndexOutOfBoundsException("Row " + row + " of " + rows);
+    }
+
+    return new Replica(getTopic(row), partitions[row], replicaIds[row], requirements[0][row], requirements[1][row],
+        requirements[2][row], requirements[3][row], requirements[4][row], readPercentages[row],
+        avgMessageSizes[row], produceRates[row], Arrays.copyOfRange(replays, replayOffsets[row], replayOffsets[row + 1]));
+  }
+
+  public List<Replica> toReplicas() {
+    List<Replica> replicas = new ArrayList<>(rows);
+    for (int row = 0; row < rows; row++) {
+      replicas.add(getReplica(row));
+    }
+
+    return replicas;
+  }
+
+  public long[] computeTotalSizeOfItems() {
+    long[] totals = new long[DIMENSIONS];
+    for (int d = 0; d < DIMENSIONS; d++) {
+      long[] column = requirements[d];
+      long total = 0;
+      for (int row = 0; row < rows; row++) {
+        total += column[row];
+      }
+      totals[d] = total;
+    }
+
+    return totals;
+  }
+
+  public long[] getMaxRequirements() {
+    long[] max = new long[DIMENSIONS];
+    for (int d = 0; d < DIMENSIONS; d++) {
+      long[] column = requirements[d];
+      for (int row = 0; row < rows; row++) {
+        if (max[d] < column[row]) {
+          max[d] = column[row];
+        }
+      }
+    }
+
+    return max;
+  }
+
+  /**
+   * Release unused capacity once all rows are added.
+   */
+  public void trimToSize() {
+    grow(rows);
+    replays = Arrays.copyOf(replays, replayOffsets[rows]);
+  }
+
+  private int internTopic(String topic) {
+    Integer id = topicIdsByName.get(topic);
+    if (id == null) {
+      id = topics.size();
+      topics.add(topic);
+      topicIdsByName.put(topic, id);
+    }
+
+    return id;
+  }
+
+  private void grow(int capacity) {
+    capacity = Math.max(1, capacity);
+    for (int d = 0; d < DIMENSIONS; d++) {
+      requirements[d] = Arrays.copyOf(requirements[d], capacity);
+    }
+
+    topicIds = Arrays.copyOf(topicIds, capacity);
+    partitions = Arrays.copyOf(partitions, capacity);
+    replicaIds = Arrays.copyOf(replicaIds, capacity);
+    readPercentages = Arrays.copyOf(readPercentages, capacity);
+    avgMessageSizes = Arrays.copyOf(avgMessageSizes, capacity);
+    produceRates = Arrays.copyOf(produceRates, capacity);
+    replayOffsets = Arrays.copyOf(replayOffsets, capacity + 1);
+  }
+}
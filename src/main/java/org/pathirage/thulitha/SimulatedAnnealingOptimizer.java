@@ -0,0 +1,483 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Improves a replica to broker assignment, usually one found by {@link BFDCapacityPlanner}, with simulated annealing.
+ * Fewer brokers come first and better balance second.
+ * <p>
+ * Proposals either move a replica to another non-empty broker or swap two replicas hosted on different brokers.
+ * Brokers decide feasibility, including the one replica per partition rule, so an infeasible proposal counts as
+ * rejected. Brokers open storage volumes depending on the order replicas arrive in, so a proposal replays the
+ * replicas of the brokers it changes onto new brokers instead of taking replicas off in place. Every broker of a
+ * chain, and of the result, is then one a new broker reaches by adding its replicas in order.
+ * <p>
+ * Broker load is the measure {@link Rebalancer} uses, which makes the change in the sum of squared loads of a proposal
+ * a constant time computation that happens before any broker gets touched.
+ * <p>
+ * The search runs in two phases. The consolidation phase rewards uneven loads, draining lightly loaded brokers until
+ * they empty out. The balancing phase minimizes the sum of squared loads. Both weigh a broker more than any possible
+ * change in squared loads, so emptying a broker is always accepted, and neither moves replicas onto empty brokers.
+ * <p>
+ * Several chains run in parallel at different temperatures (parallel tempering). Chains anneal independently for an
+ * epoch and then adjacent temperatures exchange chains with the Metropolis criterion. Each chain works on its own
+ * copies of the brokers, the result is the final state of the chain with the lowest energy or the input when no chain
+ * improved on it.
+ */
+public class SimulatedAnnealingOptimizer {
+  private static final Logger log = LoggerFactory.getLogger(SimulatedAnnealingOptimizer.class);
+
+  public static final int DEFAULT_EPOCHS = 200;
+  public static final int DEFAULT_STEPS_PER_EPOCH = 5000;
+  public static final long DEFAULT_TIME_BUDGET_MILLIS = 10000;
+
+  private static final int CALIBRATION_SAMPLES = 1000;
+  private static final double LADDER_RATIO = 1000; // hottest over coldest temperature
+  private static final double FINAL_COOLING = 0.01; // ladder scale at the end of a phase
+
+  private final List<Broker> brokers;
+  private int chains = Runtime.getRuntime().availableProcessors();
+  private int epochs = DEFAULT_EPOCHS;
+  private int stepsPerEpoch = DEFAULT_STEPS_PER_EPOCH;
+  private long timeBudgetMillis = DEFAULT_TIME_BUDGET_MILLIS;
+  private long seed = System.currentTimeMillis();
+
+  public SimulatedAnnealingOptimizer(List<Broker> brokers) {
+    if (brokers.isEmpty()) {
+      throw new IllegalArgumentException("Nothing to optimize without brokers.");
+    }
+
+    this.brokers = brokers;
+  }
+
+  public void setChains(int chains) {
+    if (chains < 1) {
+      throw new IllegalArgumentException("Chain count should be at least 1, but was " + chains);
+    }
+
+    this.chains = chains;
+  }
+
+  public void setEpochs(int epochs) {
+    this.epochs = epochs;
+  }
+
+  public void setStepsPerEpoch(int stepsPerEpoch) {
+    this.stepsPerEpoch = stepsPerEpoch;
+  }
+
+  public void setTimeBudgetMillis(long timeBudgetMillis) {
+    this.timeBudgetMillis = timeBudgetMillis;
+  }
+
+  public void setSeed(long seed) {
+    this.seed = seed;
+  }
+
+  /**
+   * Search for a better assignment. The input brokers are not modified.
+   */
+  public Result optimize() {
+    long start = System.nanoTime();
+    long deadline = start + timeBudgetMillis * 1000000;
+
+    Map<Replica, Integer> index = new IdentityHashMap<>();
+    List<Replica> all = new ArrayList<>();
+    List<Integer> hosts = new ArrayList<>();
+    long[] totals = new long[5];
+    for (int b = 0; b < brokers.size(); b++) {
+      for (Replica r : brokers.get(b).getReplicas()) {
+        if (index.put(r, all.size()) != null) {
+          throw new IllegalArgumentException("Replica " + r.getTopicPartition() + "-" + r.getId() + " is assigned to more than one broker.");
+        }
+        all.add(r);
+        hosts.add(b);
+      }
+      for (int d = 0; d < totals.length; d++) {
+        totals[d] += brokers.get(b).getTotalSizeOfItems(d);
+      }
+    }
+
+    Replica[] replicas = all.toArray(new Replica[all.size()]);
+    int[] location = new int[replicas.length];
+    double[] weights = new double[replicas.length];
+    double totalLoad = 0;
+    for (int i = 0; i < replicas.length; i++) {
+      location[i] = hosts.get(i);
+      for (int d = 0; d < totals.length; d++) {
+        weights[i] += totals[d] == 0 ? 0 : (double) replicas[i].getDimension(d) / totals[d];
+      }
+      totalLoad += weights[i];
+    }
+
+    // Sum of squared loads never exceeds the squared total load
+    double brokerWeight = 1 + totalLoad * totalLoad;
+    Chain initial = new Chain(brokers.toArray(new Broker[brokers.size()]), replicas, weights, location.clone(),
+        brokerWeight, null);
+    if (brokers.size() < 2 || replicas.length < 2) {
+      return initial.toResult(brokers, initial, 0, 0, start);
+    }
+
+    SplittableRandom master = new SplittableRandom(seed);
+    Chain[] chainAt = new Chain[chains]; // chain at each ladder position, hottest first
+    for (int k = 0; k < chains; k++) {
+      chainAt[k] = new Chain(copy(brokers), replicas, weights, location.clone(), brokerWeight, master.split());
+    }
+
+    double scale = initial.meanSquaredLoadChange(master);
+    double[] ladder = new double[chains];
+    for (int k = 0; k < chains; k++) {
+      ladder[k] = chains == 1 ? scale : scale * Math.pow(LADDER_RATIO, -(double) k / (chains - 1));
+    }
+
+    int consolidationEpochs = epochs / 2;
+    long consolidationDeadline = start + timeBudgetMillis * 500000;
+    boolean consolidate = true;
+    int phaseStart = 0;
+    int exchanges = 0;
+    ForkJoinPool pool = new ForkJoinPool(Math.min(chains, Runtime.getRuntime().availableProcessors()));
+    try {
+      for (int epoch = 0; epoch < epochs && System.nanoTime() < deadline; epoch++) {
+        if (consolidate && (epoch >= consolidationEpochs || System.nanoTime() >= consolidationDeadline)) {
+          consolidate = false;
+          phaseStart = epoch;
+        }
+
+        int phaseEpochs = consolidate ? consolidationEpochs : epochs - phaseStart;
+        double cooling = Math.pow(FINAL_COOLING, phaseEpochs < 2 ? 1 : (double) (epoch - phaseStart) / (phaseEpochs - 1));
+
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(chains);
+        for (int k = 0; k < chains; k++) {
+          Chain chain = chainAt[k];
+          double temperature = ladder[k] * cooling;
+          boolean phase = consolidate;
+          tasks.add(pool.submit(() -> chain.run(stepsPerEpoch, temperature, phase)));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+          task.join();
+        }
+
+        for (int k = epoch % 2; k + 1 < chains; k += 2) {
+          double hot = chainAt[k].energy(consolidate);
+          double cold = chainAt[k + 1].energy(consolidate);
+          double betaHot = 1 / (ladder[k] * cooling);
+          double betaCold = 1 / (ladder[k + 1] * cooling);
+          if (master.nextDouble() < Math.exp((hot - cold) * (betaHot - betaCold))) {
+            Chain c = chainAt[k];
+            chainAt[k] = chainAt[k + 1];
+            chainAt[k + 1] = c;
+            exchanges++;
+          }
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+
+    Chain best = chainAt[0];
+    long proposals = 0;
+    long accepted = 0;
+    for (Chain chain : chainAt) {
+      proposals += chain.proposals;
+      accepted += chain.accepted;
+      if (chain.isBetterThan(best)) {
+        best = chain;
+      }
+    }
+    log.debug("Chain exchanges: " + exchanges);
+
+    Result result;
+    if (best.isBetterThan(initial)) {
+      List<Broker> optimized = new ArrayList<>();
+      for (Broker broker : best.brokers) {
+        if (!broker.isEmpty()) {
+          optimized.add(broker);
+        }
+      }
+      result = best.toResult(optimized, initial, proposals, accepted, start);
+    } else {
+      result = initial.toResult(brokers, initial, proposals, accepted, start);
+    }
+
+    log.info(result.toString());
+    return result;
+  }
+
+  private static Broker[] copy(List<Broker> brokers) {
+    Broker[] copies = new Broker[brokers.size()];
+    for (int b = 0; b < copies.length; b++) {
+      copies[b] = brokers.get(b).copy(brokers.get(b).getId());
+    }
+
+    return copies;
+  }
+
+  private static class Chain {
+    private final Broker[] brokers;
+    private final Replica[] replicas;
+    private final double[] weights;
+    private final int[] location;
+    private final double[] loads;
+    private final double brokerWeight;
+    private final SplittableRandom random;
+    private double sumOfSquares;
+    private int used;
+    private long proposals;
+    private long accepted;
+
+    Chain(Broker[] brokers, Replica[] replicas, double[] weights, int[] location, double brokerWeight,
+          SplittableRandom random) {
+      this.brokers = brokers;
+      this.replicas = replicas;
+      this.weights = weights;
+      this.location = location;
+      this.loads = new double[brokers.length];
+      this.brokerWeight = brokerWeight;
+      this.random = random;
+
+      for (int i = 0; i < replicas.length; i++) {
+        loads[location[i]] += weights[i];
+      }
+      for (Broker broker : brokers) {
+        if (!broker.isEmpty()) {
+          used++;
+        }
+      }
+      resum();
+    }
+
+    void run(int steps, double temperature, boolean consolidate) {
+      double sign = consolidate ? -1 : 1;
+      for (int i = 0; i < steps; i++) {
+        proposals++;
+        if (random.nextBoolean() ? move(temperature, sign) : swap(temperature, sign)) {
+          accepted++;
+        }
+      }
+
+      // Incremental updates accumulate rounding errors
+      resum();
+    }
+
+    private boolean move(double temperature, double sign) {
+      int r = random.nextInt(replicas.length);
+      int from = location[r];
+      int to = random.nextInt(brokers.length);
+      if (to == from || brokers[to].isEmpty()) {
+        return false;
+      }
+
+      double w = weights[r];
+      double delta = 2 * w * (loads[to] - loads[from] + w);
+      boolean empties = brokers[from].getReplicaCount() == 1;
+      if (!accept(sign * delta - (empties ? brokerWeight : 0), temperature)) {
+        return false;
+      }
+
+      if (!brokers[to].fits(replicas[r])) {
+        return false;
+      }
+
+      Broker source = brokers[from].replay(replicas[r], null);
+      if (source == null) {
+        return false;
+      }
+
+      // Adding last is what a replay of the destination does, only a failed add may leave opened volumes behind
+      if (!brokers[to].add(replicas[r])) {
+        brokers[to] = brokers[to].replay(null, null);
+        return false;
+      }
+
+      brokers[from] = source;
+      location[r] = to;
+      loads[from] -= w;
+      loads[to] += w;
+      sumOfSquares += delta;
+      if (empties) {
+        used--;
+      }
+
+      return true;
+    }
+
+    private boolean swap(double temperature, double sign) {
+      int r = random.nextInt(replicas.length);
+      int s = random.nextInt(replicas.length);
+      int a = location[r];
+      int b = location[s];
+      if (a == b || replicas[r].getTopicPartitionKey() == replicas[s].getTopicPartitionKey()) {
+        return false;
+      }
+
+      double shift = weights[r] - weights[s];
+      double delta = 2 * shift * (loads[b] - loads[a]) + 2 * shift * shift;
+      if (!accept(sign * delta, temperature)) {
+        return false;
+      }
+
+      if (brokers[b].hostsPartitionOf(replicas[r]) || brokers[a].hostsPartitionOf(replicas[s])) {
+        return false;
+      }
+
+      Broker brokerA = brokers[a].replay(replicas[r], replicas[s]);
+      Broker brokerB = brokerA == null ? null : brokers[b].replay(replicas[s], replicas[r]);
+      if (brokerB == null) {
+        return false;
+      }
+
+      brokers[a] = brokerA;
+      brokers[b] = brokerB;
+      location[r] = b;
+      location[s] = a;
+      loads[a] -= shift;
+      loads[b] += shift;
+      sumOfSquares += delta;
+      return true;
+    }
+
+    private boolean accept(double energyChange, double temperature) {
+      return energyChange <= 0 || random.nextDouble() < Math.exp(-energyChange / temperature);
+    }
+
+    double energy(boolean consolidate) {
+      return brokerWeight * used + (consolidate ? -sumOfSquares : sumOfSquares);
+    }
+
+    /**
+     * Mean absolute change in the sum of squared loads of random moves, sets the temperature scale.
+     */
+    double meanSquaredLoadChange(SplittableRandom random) {
+      double sum = 0;
+      for (int i = 0; i < CALIBRATION_SAMPLES; i++) {
+        int r = random.nextInt(replicas.length);
+        int to = random.nextInt(brokers.length);
+        double w = weights[r];
+        sum += Math.abs(2 * w * (loads[to] - loads[location[r]] + w));
+      }
+
+      double mean = sum / CALIBRATION_SAMPLES;
+      return mean > 0 ? mean : Double.MIN_NORMAL;
+    }
+
+    boolean isBetterThan(Chain other) {
+      return used < other.used || used == other.used && sumOfSquares < other.sumOfSquares;
+    }
+
+    private void resum() {
+      sumOfSquares = 0;
+      for (double load : loads) {
+        sumOfSquares += load * load;
+      }
+    }
+
+    private double spread() {
+      double sum = 0;
+      for (double load : loads) {
+        sum += load;
+      }
+
+      return Rebalancer.spread(sum, sumOfSquares, used);
+    }
+
+    Result toResult(List<Broker> brokers, Chain initial, long proposals, long accepted, long start) {
+      return new Result(brokers, initial.used, used, initial.spread(), spread(), proposals, accepted,
+          (System.nanoTime() - start) / 1000000);
+    }
+  }
+
+  public static class Result {
+    private final List<Broker> brokers;
+    private final int initialBrokerCount;
+    private final int brokerCount;
+    private final double initialSpread;
+    private final double finalSpread;
+    private final long proposals;
+    private final long acceptedProposals;
+    private final long elapsedMillis;
+
+    Result(List<Broker> brokers, int initialBrokerCount, int brokerCount, double initialSpread, double finalSpread,
+           long proposals, long acceptedProposals, long elapsedMillis) {
+      this.brokers = brokers;
+      this.initialBrokerCount = initialBrokerCount;
+      this.brokerCount = brokerCount;
+      this.initialSpread = initialSpread;
+      this.finalSpread = finalSpread;
+      this.proposals = proposals;
+      this.acceptedProposals = acceptedProposals;
+      this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * @return brokers of the optimized assignment, the input brokers if nothing better was found
+     */
+    public List<Broker> getBrokers() {
+      return brokers;
+    }
+
+    public int getInitialBrokerCount() {
+      return initialBrokerCount;
+    }
+
+    public int getBrokerCount() {
+      return brokerCount;
+    }
+
+    public double getInitialSpread() {
+      return initialSpread;
+    }
+
+    public double getFinalSpread() {
+      return finalSpread;
+    }
+
+    public long getProposals() {
+      return proposals;
+    }
+
+    public long getAcceptedProposals() {
+      return acceptedProposals;
+    }
+
+    public long getElapsedMillis() {
+      return elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+      return "Anneal{" +
+          "initialBrokers=" + initialBrokerCount +
+          ", brokers=" + brokerCount +
+          ", initialSpread=" + initialSpread +
+          ", finalSpread=" + finalSpread +
+          ", proposals=" + proposals +
+          ", accepted=" + acceptedProposals +
+          ", elapsedMillis=" + elapsedMillis +
+          '}';
+    }
+  }
+}
@@ -15,10 +15,58 @@
  */
 package org.pathirage.thulitha;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import weka.classifiers.Classifier;
 import weka.core.SerializationHelper;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
 class StoragePerfModel {
+  private static final Logger log = LoggerFactory.getLogger(StoragePerfModel.class);
+
+  /**
+   * Holders load and compile a model the first time it is used. Class initialization makes this thread-safe, and
+   * runs that never touch a modelled volume type never load Weka.
+   */
+  private static class HddModelHolder {
+    static final CompiledRegressionTree MODEL = load("HDD", StoragePerfModel::compiledHddPerfModel);
+  }
+
+  private static class St1ModelHolder {
+    static final CompiledRegressionTree MODEL = load("ST1", StoragePerfModel::compiledSt1PerfModel);
+  }
+
+  static CompiledRegressionTree hddModel() {
+    return HddModelHolder.MODEL;
+  }
+
+  static CompiledRegressionTree st1Model() {
+    return St1ModelHolder.MODEL;
+  }
+
+  /**
+   * Load all models, in parallel if requested, so that the first plan does not pay for it.
+   */
+  static void preload(boolean parallel) {
+    if (parallel) {
+      CompletableFuture.allOf(
+          CompletableFuture.runAsync(StoragePerfModel::hddModel),
+          CompletableFuture.runAsync(StoragePerfModel::st1Model)).join();
+    } else {
+      hddModel();
+      st1Model();
+    }
+  }
+
+  private static CompiledRegressionTree load(String name, Supplier<CompiledRegressionTree> loader) {
+    long start = System.nanoTime();
+    CompiledRegressionTree model = loader.get();
+    log.info(String.format("Loaded %s performance model (%s nodes) in %s ms", name, model.getNodeCount(), (System.nanoTime() - start) / 1000000));
+    return model;
+  }
+
   static Classifier hddPerfModel() {
     return loadModelFromClassPath("models/hdd.model");
   }
@@ -27,6 +75,14 @@ class StoragePerfModel {
     return loadModelFromClassPath("models/st1.model");
   }
 
+  static CompiledRegressionTree compiledHddPerfModel() {
+    return StoragePerfModelCompiler.compile(hddPerfModel());
+  }
+
+  static CompiledRegressionTree compiledSt1PerfModel() {
+    return StoragePerfModelCompiler.compile(st1PerfModel());
+  }
+
   private static Classifier loadModelFromClassPath(String modelName) {
     ClassLoader classLoader = StoragePerfModel.class.getClassLoader();
     try {
@@ -0,0 +1,173 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha;
+
+import org.pathirage.thulitha.utils.ConcurrentLongIntMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe memo of storage performance model predictions keyed on
+ * (volume type, iopSizeKB, storageBWMB, writePct, leaders, followers).
+ * <p>
+ * Keys are packed into a long and predictions are kept in a primitive map, so a hit does not allocate. Requests with
+ * arguments that do not fit the packed layout go straight to the model.
+ * The cache stops admitting new entries once it holds <code>maxEntries</code> predictions; inputs come from a small
+ * integer grid, so the bound only guards against unexpected inputs.
+ */
+public class StoragePerfModelCache {
+  private static final Logger log = LoggerFactory.getLogger(StoragePerfModelCache.class);
+
+  public static final int DEFAULT_MAX_ENTRIES = 1 << 18;
+
+  private static final int IOP_SIZE_BITS = 10;
+  private static final int STORAGE_BW_BITS = 12;
+  private static final int WRITE_PCT_BITS = 14; // write percentage reaches 10000 when leaders have no reads
+  private static final int LOG_COUNT_BITS = 12;
+
+  private static final int MISSING = Integer.MIN_VALUE; // not a prediction, a cached MIN_VALUE would only be recomputed
+
+  private final ConcurrentLongIntMap predictions = new ConcurrentLongIntMap();
+  private final int maxEntries;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  public StoragePerfModelCache(int maxEntries) {
+    this.maxEntries = maxEntries;
+  }
+
+  int effectiveIOPS(StorageVolumeType type, int iopSizeKB, int storageBWMB, int writePct, int leaders, int followers) {
+    PlannerMetrics.modelLookedUp();
+    long key = key(type, iopSizeKB, storageBWMB, writePct, leaders, followers);
+    if (key < 0) {
+      misses.increment();
+      return type.predictIOPS(iopSizeKB, storageBWMB, writePct, leaders, followers);
+    }
+
+    int iops = predictions.get(key, MISSING);
+    if (iops != MISSING) {
+      hits.increment();
+      return iops;
+    }
+
+    misses.increment();
+    int predicted = type.predictIOPS(iopSizeKB, storageBWMB, writePct, leaders, followers);
+    if (predictions.size() < maxEntries) {
+      predictions.putIfAbsent(key, predicted);
+    }
+
+    return predicted;
+  }
+
+  /**
+   * Pre-fill the cache with predictions for every leader/follower split of up to <code>maxLogs</code> logs on a
+   * volume and every write percentage a {@link StorageVolume} can produce.
+   *
+   * @return number of predictions computed
+   */
+  public int warmUp(StorageVolumeType type, int iopSizeKB, int storageBWMB, int maxLogs) {
+    long start = System.nanoTime();
+    int computed = 0;
+    for (int leaders = 0; leaders <= maxLogs; leaders++) {
+      for (int followers = 0; leaders + followers <= maxLogs; followers++) {
+        for (int writePct = 0; writePct <= 100; writePct++) {
+          computed += warm(type, iopSizeKB, storageBWMB, writePct, leaders, followers);
+        }
+        computed += warm(type, iopSizeKB, storageBWMB, 10000, leaders, followers);
+      }
+    }
+
+    log.info(String.format("Warmed up %s predictions for %s in %s ms", computed, type, (System.nanoTime() - start) / 1000000));
+    return computed;
+  }
+
+  /**
+   * Warm up predictions for volumes attached to the given instance type.
+   */
+  public int warmUp(CCInstanceType instanceType, StorageVolumeType type, int iopSizeKB, int maxLogs) {
+    return warmUp(type, iopSizeKB, instanceType.getStorageBWMB(), maxLogs);
+  }
+
+  private int warm(StorageVolumeType type, int iopSizeKB, int storageBWMB, int writePct, int leaders, int followers) {
+    long key = key(type, iopSizeKB, storageBWMB, writePct, leaders, followers);
+    if (key < 0 || predictions.containsKey(key) || predictions.size() >= maxEntries) {
+      return 0;
+    }
+
+    predictions.putIfAbsent(key, type.predictIOPS(iopSizeKB, storageBWMB, writePct, leaders, followers));
+    return 1;
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public double getHitRatio() {
+    long h = getHits();
+    long total = h + getMisses();
+    return total == 0 ? 0 : (double) h / total;
+  }
+
+  public int size() {
+    return predictions.size();
+  }
+
+  public int getMaxEntries() {
+    return maxEntries;
+  }
+
+  public void clear() {
+    predictions.clear();
+    hits.reset();
+    misses.reset();
+  }
+
+  @Override
+  public String toString() {
+    return "StoragePerfModelCache{" +
+        "size=" + size() +
+        ", maxEntries=" + maxEntries +
+        ", hits=" + getHits() +
+        ", misses=" + getMisses() +
+        '}';
+  }
+
+  static long key(StorageVolumeType type, int iopSizeKB, int storageBWMB, int writePct, int leaders, int followers) {
+    if (!fits(iopSizeKB, IOP_SIZE_BITS) || !fits(storageBWMB, STORAGE_BW_BITS) || !fits(writePct, WRITE_PCT_BITS) ||
+        !fits(leaders, LOG_COUNT_BITS) || !fits(followers, LOG_COUNT_BITS)) {
+      return -1;
+    }
+
+    long key = type.ordinal();
+    key = (key << IOP_SIZE_BITS) | iopSizeKB;
+    key = (key << STORAGE_BW_BITS) | storageBWMB;
+    key = (key << WRITE_PCT_BITS) | writePct;
+    key = (key << LOG_COUNT_BITS) | leaders;
+    key = (key << LOG_COUNT_BITS) | followers;
+
+    return key;
+  }
+
+  private static boolean fits(int value, int bits) {
+    return value >= 0 && value < (1 << bits);
+  }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.trees.REPTree;
+import weka.core.Attribute;
+import weka.core.Instances;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns a Weka {@link REPTree} storage performance model into a {@link CompiledRegressionTree}.
+ * <p>
+ * Weka does not expose the tree structure, so nodes are read reflectively. Evaluation follows
+ * <code>REPTree.Tree.distributionForInstance</code> for numeric attributes without missing values: a node without a
+ * class distribution falls back to the distribution of its closest ancestor that has one.
+ */
+class StoragePerfModelCompiler {
+  private static final int INPUT_ATTRIBUTES = 3; // write percentage, leaders, followers
+
+  static CompiledRegressionTree compile(Classifier classifier) {
+    if (!(classifier instanceof REPTree)) {
+      throw new IllegalArgumentException("Only REPTree models can be compiled, got " + classifier.getClass().getName());
+    }
+
+    try {
+      if (field(REPTree.class, "m_zeroR").get(classifier) != null) {
+        throw new IllegalArgumentException("Model was built without attributes (ZeroR fallback).");
+      }
+
+      Object root = field(REPTree.class, "m_Tree").get(classifier);
+      if (root == null) {
+        throw new IllegalArgumentException("Model is not built.");
+      }
+
+      Builder builder = new Builder(root.getClass());
+      builder.add(root, Double.NaN);
+      return builder.build();
+    } catch (ReflectiveOperationException e) {
+      throw new RuntimeException("Could not read REPTree structure.", e);
+    }
+  }
+
+  private static Field field(Class<?> clazz, String name) throws NoSuchFieldException {
+    Field field = clazz.getDeclaredField(name);
+    field.setAccessible(true);
+    return field;
+  }
+
+  private static class Builder {
+    private final Field info;
+    private final Field successors;
+    private final Field attribute;
+    private final Field splitPoint;
+    private final Field classProbs;
+
+    private final List<Integer> attributes = new ArrayList<>();
+    private final List<Double> splitPoints = new ArrayList<>();
+    private final List<Integer> left = new ArrayList<>();
+    private final List<Integer> right = new ArrayList<>();
+    private final List<Double> values = new ArrayList<>();
+
+    Builder(Class<?> treeClass) throws NoSuchFieldException {
+      this.info = field(treeClass, "m_Info");
+      this.successors = field(treeClass, "m_Successors");
+      this.attribute = field(treeClass, "m_Attribute");
+      this.splitPoint = field(treeClass, "m_SplitPoint");
+      this.classProbs = field(treeClass, "m_ClassProbs");
+    }
+
+    /**
+     * Add the subtree rooted at the given node.
+     *
+     * @param inherited prediction of the closest ancestor that has a class distribution
+     * @return index of the node
+     */
+    int add(Object node, double inherited) throws IllegalAccessException {
+      double[] probs = (double[]) classProbs.get(node);
+      double prediction = probs != null ? probs[0] : inherited;
+      int a = attribute.getInt(node);
+
+      int index = attributes.size();
+      attributes.add(CompiledRegressionTree.LEAF);
+      splitPoints.add(Double.NaN);
+      left.add(-1);
+      right.add(-1);
+      values.add(prediction);
+
+      if (a > -1) {
+        checkAttribute((Instances) info.get(node), a);
+        Object[] children = (Object[]) successors.get(node);
+        if (children.length != 2) {
+          throw new IllegalArgumentException("Numeric split with " + children.length + " successors.");
+        }
+
+        attributes.set(index, a);
+        splitPoints.set(index, splitPoint.getDouble(node));
+        left.set(index, add(children[0], prediction));
+        right.set(index, add(children[1], prediction));
+      }
+
+      return index;
+    }
+
+    CompiledRegressionTree build() {
+      int n = attributes.size();
+      int[] a = new int[n];
+      double[] s = new double[n];
+      int[] l = new int[n];
+      int[] r = new int[n];
+      double[] v = new double[n];
+      for (int i = 0; i < n; i++) {
+        a[i] = attributes.get(i);
+        s[i] = splitPoints.get(i);
+        l[i] = left.get(i);
+        r[i] = right.get(i);
+        v[i] = values.get(i);
+      }
+
+      return new CompiledRegressionTree(a, s, l, r, v);
+    }
+
+    private static void checkAttribute(Instances header, int index) {
+      // Attribute names differ between the models (e.g. follower vs followers), so only position and type are checked.
+      if (index >= INPUT_ATTRIBUTES) {
+        throw new IllegalArgumentException("Unexpected split attribute index " + index);
+      }
+
+      Attribute a = header.attribute(index);
+      if (!a.isNumeric()) {
+        throw new IllegalArgumentException(String.format("Expected numeric attribute at %s but found %s", index, a));
+      }
+    }
+  }
+}
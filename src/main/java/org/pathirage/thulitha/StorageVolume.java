@@ -60,31 +60,88 @@ public class StorageVolume implements Comparable<StorageVolume> {
     // We consider sum of storage bandwidth in and out since cloud has no concept of in IOPS vs out IOPS when
     // allocating EBS like volumes
     if (isFeasible(replica)) {
-      numberOfLogs += 1;
-      if (leader) {
-        numberOfLeaders += 1;
-      }
+      insert(replica, leader);
+      return true;
+    }
 
-      if (replica.getReadPercentage() > 0) {
-        totalLeaderIO += replica.getDimension(2);
-        leaderReadIO += replica.getDimension(2) * (replica.getReadPercentage() / 100);
-      }
+    return false;
+  }
+
+  private void insert(Replica replica, boolean leader) {
+    numberOfLogs += 1;
+    if (leader) {
+      numberOfLeaders += 1;
+    }
+
+    if (replica.getReadPercentage() > 0) {
+      totalLeaderIO += replica.getDimension(2);
+      leaderReadIO += replica.getDimension(2) * (replica.getReadPercentage() / 100);
+    }
 
-      totalItemSize[0] += replica.getDimension(1);
-      totalItemSize[1] += Math.ceil((replica.getDimension(2) * 1024.0) / iopSizeKB); // TODO: figure out a  way to get rid of BW to IOPS conversion
+    totalItemSize[0] += replica.getDimension(1);
+    totalItemSize[1] += Math.ceil((replica.getDimension(2) * 1024.0) / iopSizeKB); // TODO: figure out a  way to get rid of BW to IOPS conversion
 
-      int effectiveIOPS = computeEffectiveIOPS();
-      remaining[0] = type.getSizeMB() - totalItemSize[0];
-      remaining[1] = effectiveIOPS - totalItemSize[1]; // Since we are converting to IOPS 4 lines above this is correct
+    int effectiveIOPS = computeEffectiveIOPS();
+    remaining[0] = type.getSizeMB() - totalItemSize[0];
+    remaining[1] = effectiveIOPS - totalItemSize[1]; // Since we are converting to IOPS 4 lines above this is correct
 
-      capacity[1] = effectiveIOPS;
+    capacity[1] = effectiveIOPS;
 
-      replicas.add(replica);
+    replicas.add(replica);
+  }
 
+  /**
+   * Undo {@link #addReplica(Replica, boolean)}. An emptied volume gets back the capacity of a new volume.
+   *
+   * @return false if the replica is not on this volume
+   */
+  public boolean removeReplica(Replica replica, boolean leader) {
+    int index = indexOf(replica);
+    if (index < 0) {
+      return false;
+    }
+
+    replicas.remove(index);
+    numberOfLogs -= 1;
+    if (leader) {
+      numberOfLeaders -= 1;
+    }
+
+    if (replica.getReadPercentage() > 0) {
+      totalLeaderIO -= replica.getDimension(2);
+      leaderReadIO -= replica.getDimension(2) * (replica.getReadPercentage() / 100);
+    }
+
+    totalItemSize[0] -= replica.getDimension(1);
+    totalItemSize[1] -= Math.ceil((replica.getDimension(2) * 1024.0) / iopSizeKB);
+
+    if (numberOfLogs == 0) {
+      capacity[0] = type.getSizeMB();
+      capacity[1] = type.getIOPS(iopSizeKB, instanceType.getStorageBWMB());
+      remaining = capacity.clone();
       return true;
     }
 
-    return false;
+    int effectiveIOPS = computeEffectiveIOPS();
+    remaining[0] = type.getSizeMB() - totalItemSize[0];
+    remaining[1] = effectiveIOPS - totalItemSize[1];
+    capacity[1] = effectiveIOPS;
+
+    return true;
+  }
+
+  boolean contains(Replica replica) {
+    return indexOf(replica) >= 0;
+  }
+
+  private int indexOf(Replica replica) {
+    for (int i = 0; i < replicas.size(); i++) {
+      if (replicas.get(i) == replica) {
+        return i;
+      }
+    }
+
+    return -1;
   }
 
   public List<Replica> getReplicas() {
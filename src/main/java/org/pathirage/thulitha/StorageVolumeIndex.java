@@ -0,0 +1,147 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Segment tree over a broker's storage volumes in allocation order. Each node keeps the maximum remaining size and
+ * IOPS of its subtree, so the first volume that can hold a replica is found in logarithmic time.
+ * <p>
+ * Matches {@link StorageVolume#isFeasible(Replica)}, which requires the demand to be strictly less than the remaining
+ * capacity. Callers must invoke {@link #update(int)} after a volume's remaining capacity changes.
+ */
+class StorageVolumeIndex {
+  private static final int DIMENSIONS = 2;
+
+  private final List<StorageVolume> volumes = new ArrayList<>();
+  private int leaves;
+  private long[][] max; // {dimension}{tree node}, node 1 is the root
+
+  StorageVolumeIndex() {
+    rebuild(1);
+  }
+
+  int size() {
+    return volumes.size();
+  }
+
+  StorageVolume get(int position) {
+    return volumes.get(position);
+  }
+
+  /**
+   * @return position of the volume
+   */
+  int add(StorageVolume volume) {
+    volumes.add(volume);
+    if (volumes.size() > leaves) {
+      rebuild(volumes.size());
+    } else {
+      update(volumes.size() - 1);
+    }
+
+    return volumes.size() - 1;
+  }
+
+  void update(int position) {
+    long[] remaining = volumes.get(position).getRemaining();
+    int node = leaves + position;
+    for (int d = 0; d < DIMENSIONS; d++) {
+      max[d][node] = remaining[d];
+    }
+
+    node >>= 1;
+    while (node >= 1) {
+      for (int d = 0; d < DIMENSIONS; d++) {
+        max[d][node] = Math.max(max[d][2 * node], max[d][2 * node + 1]);
+      }
+      node >>= 1;
+    }
+  }
+
+  /**
+   * Largest remaining capacity along a dimension across all volumes. The values may come from different volumes.
+   */
+  long maxRemaining(int dimension) {
+    return max[dimension][1];
+  }
+
+  /**
+   * @param demand {size, IOPS} required by the replica
+   * @return position of the first volume with enough remaining capacity or -1 if there is no such volume
+   */
+  int findFirstFeasible(long[] demand) {
+    return findFirstFeasible(1, 0, leaves - 1, demand);
+  }
+
+  private int findFirstFeasible(int node, int lo, int hi, long[] demand) {
+    if (!covers(node, demand)) {
+      return -1;
+    }
+
+    if (lo == hi) {
+      return lo < volumes.size() ? lo : -1;
+    }
+
+    int mid = (lo + hi) >>> 1;
+    int position = findFirstFeasible(2 * node, lo, mid, demand);
+    if (position >= 0) {
+      return position;
+    }
+
+    return findFirstFeasible(2 * node + 1, mid + 1, hi, demand);
+  }
+
+  private boolean covers(int node, long[] demand) {
+    for (int d = 0; d < DIMENSIONS; d++) {
+      if (demand[d] >= max[d][node]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private void rebuild(int minLeaves) {
+    int l = 1;
+    while (l < minLeaves) {
+      l <<= 1;
+    }
+
+    leaves = l;
+    max = new long[DIMENSIONS][2 * leaves];
+    for (int d = 0; d < DIMENSIONS; d++) {
+      for (int node = 1; node < 2 * leaves; node++) {
+        max[d][node] = Long.MIN_VALUE;
+      }
+    }
+
+    for (int i = 0; i < volumes.size(); i++) {
+      long[] remaining = volumes.get(i).getRemaining();
+      for (int d = 0; d < DIMENSIONS; d++) {
+        max[d][leaves + i] = remaining[d];
+      }
+    }
+
+    for (int node = leaves - 1; node >= 1; node--) {
+      for (int d = 0; d < DIMENSIONS; d++) {
+        max[d][node] = Math.max(max[d][2 * node], max[d][2 * node + 1]);
+      }
+    }
+  }
+}
@@ -15,14 +15,6 @@
  */
 package org.pathirage.thulitha;
 
-import weka.classifiers.Classifier;
-import weka.core.Attribute;
-import weka.core.DenseInstance;
-import weka.core.Instance;
-import weka.core.Instances;
-
-import java.util.ArrayList;
-
 public enum StorageVolumeType {
   IO1,
   GP2,
@@ -36,21 +28,7 @@ public enum StorageVolumeType {
       16 * 1024.0f * 1024.0f, 2 * 1024.0f * 1024.0f};
   private static final float HOURLY_COST_FACTOR = 1.0f / (24 * 30);
 
-  private static final Classifier hddModel = StoragePerfModel.hddPerfModel();
-  private static final Classifier st1Model = StoragePerfModel.st1PerfModel();
-  private static ArrayList<Attribute> attributes = new ArrayList<>();
-
-  static {
-    Attribute writePct = new Attribute("writepct");
-    Attribute leaders = new Attribute("leaders");
-    Attribute followers = new Attribute("followers");
-    Attribute iops = new Attribute("iops");
-
-    attributes.add(writePct);
-    attributes.add(leaders);
-    attributes.add(followers);
-    attributes.add(iops);
-  }
+  private static final StoragePerfModelCache predictionCache = new StoragePerfModelCache(StoragePerfModelCache.DEFAULT_MAX_ENTRIES);
 
   public String getVolumeTypeIdentifier() {
     return MODEL_IDENTIFIERS[ordinal()];
@@ -60,45 +38,69 @@ public enum StorageVolumeType {
     return new Float(SIZES[ordinal()]).intValue();
   }
 
+  /**
+   * Shared memo of model predictions used by {@link #getIOPS(int, int)} and {@link #effectiveIOPS(int, int, int, int, int)}
+   */
+  public static StoragePerfModelCache getPredictionCache() {
+    return predictionCache;
+  }
+
+  /**
+   * Performance models are loaded on first use. Long running processes can call this up front instead.
+   */
+  public static void preloadModels(boolean parallel) {
+    StoragePerfModel.preload(parallel);
+  }
+
   public int getIOPS(int iopSizeKB, int storageBWMB) {
-    if (this == ST1) {
-      try {
-        return new Double(Math.min(st1Model.classifyInstance(createRegressionRequest(50, 1, 0)), (storageBWMB * 1024.0) / iopSizeKB)).intValue();
-      } catch (Exception e) {
-        throw new RuntimeException("ST1 prediction failed.", e);
-      }
+    if (this == ST1 || this == D2HDD) {
+      return predictionCache.effectiveIOPS(this, iopSizeKB, storageBWMB, 50, 1, 0);
     } else if (this == ST1STATIC) {
       return 2000;
     } else  if (this == D2HDDSTATIC) {
       return 1424;
-    } else if (this == D2HDD ) {
-      try {
-        return new Double(Math.min(hddModel.classifyInstance(createRegressionRequest(50, 1, 0)), (storageBWMB * 1024.0) / iopSizeKB)).intValue();
-      } catch (Exception e) {
-        throw new RuntimeException("HDD prediction failed.", e);
-      }
     } else {
       throw new UnsupportedOperationException("Storage volume type " + this + " not supported yet.");
     }
   }
 
   public int effectiveIOPS(int iopSizeKB, int storageBWMB, int writePct, int leaders, int followers) {
+    if (this == ST1 || this == D2HDD) {
+      return predictionCache.effectiveIOPS(this, iopSizeKB, storageBWMB, writePct, leaders, followers);
+    } else if (this == ST1STATIC || this == D2HDDSTATIC) {
+      return getIOPS(iopSizeKB, storageBWMB);
+    } else {
+      throw new UnsupportedOperationException("Storage volume type " + this + " not supported yet.");
+    }
+  }
+
+  /**
+   * Model prediction without going through the cache.
+   */
+  int predictIOPS(int iopSizeKB, int storageBWMB, int writePct, int leaders, int followers) {
+    long start = PlannerMetrics.start();
+    try {
+      return predict(iopSizeKB, storageBWMB, writePct, leaders, followers);
+    } finally {
+      PlannerMetrics.modelInvoked(start);
+    }
+  }
+
+  private int predict(int iopSizeKB, int storageBWMB, int writePct, int leaders, int followers) {
     if (this == ST1) {
-      try {
-        return new Double(Math.min(st1Model.classifyInstance(createRegressionRequest(writePct, leaders, followers)), (storageBWMB * 1024.0) / iopSizeKB)).intValue();
-      } catch (Exception e) {
-        throw new RuntimeException("ST1 prediction failed.", e);
+      double iops = StoragePerfModel.st1Model().predict(writePct, leaders, followers);
+      if (Double.isNaN(iops)) {
+        throw new RuntimeException("ST1 prediction failed.");
       }
+      return new Double(Math.min(iops, (storageBWMB * 1024.0) / iopSizeKB)).intValue();
     } else if (this == D2HDD) {
-      try {
-        return new Double(Math.min(hddModel.classifyInstance(createRegressionRequest(writePct, leaders, followers)), (storageBWMB * 1024.0) / iopSizeKB)).intValue();
-      } catch (Exception e) {
-        throw new RuntimeException("HDD prediction failed.", e);
+      double iops = StoragePerfModel.hddModel().predict(writePct, leaders, followers);
+      if (Double.isNaN(iops)) {
+        throw new RuntimeException("HDD prediction failed.");
       }
-    } else if (this == ST1STATIC || this == D2HDDSTATIC) {
-      return getIOPS(iopSizeKB, storageBWMB);
+      return new Double(Math.min(iops, (storageBWMB * 1024.0) / iopSizeKB)).intValue();
     } else {
-      throw new UnsupportedOperationException("Storage volume type " + this + " not supported yet.");
+      throw new UnsupportedOperationException("Storage volume type " + this + " does not have a performance model.");
     }
   }
 
@@ -158,19 +160,4 @@ public enum StorageVolumeType {
       throw new UnsupportedOperationException("Unsupported volume type " + this);
     }
   }
-
-  private Instance createRegressionRequest(int writePct, int leaders, int followers) {
-    Instances dataset = new Instances("test", attributes, 0);
-    dataset.setClassIndex(attributes.size() - 1);
-
-    double[] values = new double[4];
-    values[0] = writePct;
-    values[1] = leaders;
-    values[2] = followers;
-    values[3] = Double.NaN;
-
-    dataset.add(new DenseInstance(1.0, values));
-
-    return dataset.firstInstance();
-  }
 }
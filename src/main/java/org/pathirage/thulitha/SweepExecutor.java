@@ -0,0 +1,69 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
+
+/**
+ * Runs independent evaluation cells on up to <code>parallelism</code> threads. Results are returned in cell order, so
+ * aggregates computed from them do not depend on scheduling.
+ */
+class SweepExecutor {
+  private final int parallelism;
+
+  SweepExecutor(int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism should be at least 1, got " + parallelism);
+    }
+
+    this.parallelism = parallelism;
+  }
+
+  <T> List<T> run(List<Supplier<T>> cells) {
+    List<T> results = new ArrayList<>(cells.size());
+    if (parallelism == 1 || cells.size() < 2) {
+      for (Supplier<T> cell : cells) {
+        results.add(cell.get());
+      }
+
+      return results;
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, cells.size()));
+    try {
+      List<ForkJoinTask<T>> tasks = new ArrayList<>(cells.size());
+      for (Supplier<T> cell : cells) {
+        tasks.add(pool.submit(cell::get));
+      }
+
+      for (ForkJoinTask<T> task : tasks) {
+        results.add(task.join());
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+
+    return results;
+  }
+
+  int getParallelism() {
+    return parallelism;
+  }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pathirage.thulitha.experiments;
+
+import org.pathirage.thulitha.Broker;
+import org.pathirage.thulitha.CCInstanceType;
+import org.pathirage.thulitha.Replica;
+import org.pathirage.thulitha.StorageVolumeType;
+import org.pathirage.thulitha.utils.ReplicaQueue;
+import org.pathirage.thulitha.utils.SizeUtility;
+import org.pathirage.thulitha.workloads.WorkloadGenerator;
+import org.pathirage.thulitha.workloads.WorkloadGeneratorConfig;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compares the presorted replica queue used by BFD against repeated Collections.max and List.remove. The old
+ * approach is quadratic, so it is only measured up to {@link #MAX_LEGACY_REPLICAS} replicas.
+ */
+public class ReplicaOrderingBenchmark {
+  private static final int MAX_LEGACY_REPLICAS = 20000;
+  private static final int ROUNDS = 5;
+
+  public static void main(String[] args) {
+    int[] replicaCounts = {10000, 100000, 1000000};
+    if (args.length > 0) {
+      replicaCounts = new int[args.length];
+      for (int i = 0; i < args.length; i++) {
+        replicaCounts[i] = Integer.parseInt(args[i]);
+      }
+    }
+
+    for (int count : replicaCounts) {
+      List<Replica> replicas = new WorkloadGenerator(new WorkloadGeneratorConfig(null)).run(count);
+      List<Broker> brokers = Collections.singletonList(new Broker(CCInstanceType.M4_4X, StorageVolumeType.ST1STATIC, 128));
+      SizeUtility.updateReplicaSize(replicas, brokers);
+
+      double queueMillis = Double.MAX_VALUE;
+      for (int i = 0; i < ROUNDS; i++) {
+        queueMillis = Math.min(queueMillis, timeQueue(replicas));
+      }
+
+      String legacy = "skipped (quadratic)";
+      if (replicas.size() <= MAX_LEGACY_REPLICAS) {
+        legacy = timeLegacy(new ArrayList<>(replicas)) + " ms";
+      }
+
+      System.out.println(String.format("Replicas: %s\tqueue: %.2f ms\tmax/remove: %s", replicas.size(), queueMillis, legacy));
+    }
+  }
+
+  private static double timeQueue(List<Replica> replicas) {
+    long start = System.nanoTime();
+    ReplicaQueue queue = new ReplicaQueue(replicas);
+    double checksum = 0;
+    while (!queue.isEmpty()) {
+      checksum += queue.poll().getSize();
+    }
+    double elapsed = (System.nanoTime() - start) / 1000000.0;
+
+    if (checksum < 0) {
+      throw new IllegalStateException("Negative replica sizes.");
+    }
+
+    return elapsed;
+  }
+
+  private static long timeLegacy(List<Replica> replicas) {
+    long start = System.nanoTime();
+    while (!replicas.isEmpty()) {
+      Replica largest = Collections.max(replicas);
+      replicas.remove(largest);
+    }
+
+    return (System.nanoTime() - start) / 1000000;
+  }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pathirage.thulitha.experiments;
+
+import org.pathirage.thulitha.BFDCapacityPlanner;
+import org.pathirage.thulitha.Broker;
+import org.pathirage.thulitha.CCInstanceType;
+import org.pathirage.thulitha.Replica;
+import org.pathirage.thulitha.ReplicaTable;
+import org.pathirage.thulitha.StorageVolumeType;
+import org.pathirage.thulitha.utils.SizeUtility;
+import org.pathirage.thulitha.workloads.WorkloadGenerator;
+import org.pathirage.thulitha.workloads.WorkloadGeneratorConfig;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compares heap usage and scan throughput of a list of {@link Replica} objects against a {@link ReplicaTable}
+ * holding the same workload, and plans a smaller workload through both paths.
+ * <p>
+ * Arguments: replica count for the memory and scan comparison (default 1M) and replica count for planning
+ * (default 100k). Heap numbers come from used heap after explicit GCs, so run with a fixed heap (-Xms = -Xmx).
+ */
+public class ReplicaTableBenchmark {
+  private static final int ROUNDS = 5;
+
+  public static void main(String[] args) {
+    int replicaCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    int planReplicaCount = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+
+    long base = usedHeap();
+    List<Replica> replicas = new WorkloadGenerator(new WorkloadGeneratorConfig(null)).run(replicaCount);
+    long listBytes = usedHeap() - base;
+
+    ReplicaTable table = ReplicaTable.fromReplicas(replicas);
+    table.trimToSize();
+    long tableBytes = usedHeap() - base - listBytes;
+
+    System.out.println(String.format("Replicas: %s\tlist: %.1f MB (%s bytes/replica)\ttable: %.1f MB (%s bytes/replica)",
+        replicas.size(), listBytes / 1048576.0, listBytes / replicas.size(), tableBytes / 1048576.0, tableBytes / table.size()));
+
+    List<Broker> brokers = Collections.singletonList(new Broker(CCInstanceType.M4_4X, StorageVolumeType.ST1STATIC, 128));
+    double listMillis = Double.MAX_VALUE;
+    double tableMillis = Double.MAX_VALUE;
+    for (int i = 0; i < ROUNDS; i++) {
+      long start = System.nanoTime();
+      long[] listTotals = SizeUtility.computeTotalSizeOfItems(replicas);
+      double[] listSizes = SizeUtility.computeReplicaSizes(replicas, brokers);
+      listMillis = Math.min(listMillis, (System.nanoTime() - start) / 1000000.0);
+
+      start = System.nanoTime();
+      long[] tableTotals = table.computeTotalSizeOfItems();
+      double[] tableSizes = SizeUtility.computeReplicaSizes(table, brokers);
+      tableMillis = Math.min(tableMillis, (System.nanoTime() - start) / 1000000.0);
+
+      if (!Arrays.equals(listTotals, tableTotals) || !Arrays.equals(listSizes, tableSizes)) {
+        throw new IllegalStateException("List and table paths disagree.");
+      }
+    }
+
+    System.out.println(String.format("Totals and sizes\tlist: %.2f ms\ttable: %.2f ms", listMillis, tableMillis));
+
+    replicas = null;
+    table = null;
+
+    List<Replica> planReplicas = new WorkloadGenerator(new WorkloadGeneratorConfig(null)).run(planReplicaCount);
+    ReplicaTable planTable = ReplicaTable.fromReplicas(planReplicas);
+
+    long start = System.nanoTime();
+    int listBrokers = new BFDCapacityPlanner(planReplicas, CCInstanceType.M4_4X, StorageVolumeType.ST1, true, true,
+        BFDCapacityPlanner.BinCountSearch.GALLOPING).solve().size();
+    double listPlanMillis = (System.nanoTime() - start) / 1000000.0;
+
+    start = System.nanoTime();
+    int tableBrokers = new BFDCapacityPlanner(planTable, CCInstanceType.M4_4X, StorageVolumeType.ST1, true, true,
+        BFDCapacityPlanner.BinCountSearch.GALLOPING, 1).solve().size();
+    double tablePlanMillis = (System.nanoTime() - start) / 1000000.0;
+
+    System.out.println(String.format("Plan %s replicas\tlist: %s brokers in %.0f ms\ttable: %s brokers in %.0f ms",
+        planTable.size(), listBrokers, listPlanMillis, tableBrokers, tablePlanMillis));
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
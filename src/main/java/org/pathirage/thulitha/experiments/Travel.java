@@ -50,7 +50,7 @@ public class Travel {
   public void swapCities() {
     int a = generateRandomIndex();
     int b = generateRandomIndex();
-    previousTravel = travel;
+    previousTravel = new ArrayList<>(travel); // travel gets mutated in place below
     City x = travel.get(a);
     City y = travel.get(b);
 
@@ -0,0 +1,140 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha.utils;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Map from non-negative longs to ints using open addressing with linear probing. Lookups neither lock nor allocate
+ * and may run concurrently with inserts, which are serialized. An insert writes the value before the key, so a lookup
+ * that finds a key always sees its value. Entries are only dropped all at once with {@link #clear()}.
+ */
+public class ConcurrentLongIntMap {
+  private static final long FREE = 0; // slots hold key + 1, so zero marks free slots
+  private static final float LOAD_FACTOR = 0.5f;
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private volatile Table table = new Table(INITIAL_CAPACITY);
+  private volatile int size = 0;
+
+  /**
+   * @return value of the key or <code>missing</code> if the key is not in the map
+   */
+  public int get(long key, int missing) {
+    return table.get(key + 1, missing);
+  }
+
+  public boolean containsKey(long key) {
+    return table.find(key + 1) >= 0;
+  }
+
+  /**
+   * @return true if the key was not in the map and got the value
+   */
+  public synchronized boolean putIfAbsent(long key, int value) {
+    if (key < 0) {
+      throw new IllegalArgumentException("Keys should not be negative, but was " + key);
+    }
+
+    Table current = table;
+    if (!current.put(key + 1, value)) {
+      return false;
+    }
+
+    size++;
+    if (size > current.capacity() * LOAD_FACTOR) {
+      table = current.grow(); // lookups still running on the old table find everything inserted so far
+    }
+
+    return true;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public synchronized void clear() {
+    table = new Table(INITIAL_CAPACITY);
+    size = 0;
+  }
+
+  private static final class Table {
+    private final AtomicLongArray keys;
+    private final AtomicIntegerArray values;
+    private final int mask;
+
+    Table(int capacity) {
+      keys = new AtomicLongArray(capacity);
+      values = new AtomicIntegerArray(capacity);
+      mask = capacity - 1;
+    }
+
+    int capacity() {
+      return mask + 1;
+    }
+
+    int get(long stored, int missing) {
+      int slot = find(stored);
+      return slot < 0 ? missing : values.get(slot);
+    }
+
+    int find(long stored) {
+      int slot = slot(stored);
+      long key;
+      while ((key = keys.get(slot)) != FREE) {
+        if (key == stored) {
+          return slot;
+        }
+        slot = (slot + 1) & mask;
+      }
+
+      return -1;
+    }
+
+    boolean put(long stored, int value) {
+      int slot = slot(stored);
+      long key;
+      while ((key = keys.get(slot)) != FREE) {
+        if (key == stored) {
+          return false;
+        }
+        slot = (slot + 1) & mask;
+      }
+
+      values.set(slot, value);
+      keys.set(slot, stored);
+      return true;
+    }
+
+    Table grow() {
+      Table grown = new Table(capacity() * 2);
+      for (int slot = 0; slot <= mask; slot++) {
+        long key = keys.get(slot);
+        if (key != FREE) {
+          grown.put(key, values.get(slot));
+        }
+      }
+
+      return grown;
+    }
+
+    private int slot(long key) {
+      long h = key * 0x9E3779B97F4A7C15L; // packed cache keys vary most in their low bits
+      return (int) (h ^ (h >>> 32)) & mask;
+    }
+  }
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha.utils;
+
+import java.util.Arrays;
+
+/**
+ * Set of primitive longs using open addressing with linear probing. Adding, looking up and removing keys does not
+ * allocate except when the table grows. Zero is used to mark free slots, so it is tracked separately.
+ */
+public class LongHashSet {
+  private static final long FREE = 0;
+  private static final float LOAD_FACTOR = 0.5f;
+
+  private long[] keys;
+  private int mask;
+  private int size = 0;
+  private boolean containsFree = false;
+
+  public LongHashSet() {
+    this(8);
+  }
+
+  public LongHashSet(int expectedSize) {
+    int capacity = 2;
+    while (capacity * LOAD_FACTOR < expectedSize) {
+      capacity <<= 1;
+    }
+
+    keys = new long[capacity];
+    mask = capacity - 1;
+  }
+
+  /**
+   * @return true if the key was not in the set
+   */
+  public boolean add(long key) {
+    if (key == FREE) {
+      boolean added = !containsFree;
+      containsFree = true;
+      if (added) {
+        size++;
+      }
+      return added;
+    }
+
+    int slot = slot(key);
+    while (keys[slot] != FREE) {
+      if (keys[slot] == key) {
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    keys[slot] = key;
+    size++;
+    if (size > keys.length * LOAD_FACTOR) {
+      rehash(keys.length * 2);
+    }
+
+    return true;
+  }
+
+  public boolean contains(long key) {
+    if (key == FREE) {
+      return containsFree;
+    }
+
+    int slot = slot(key);
+    while (keys[slot] != FREE) {
+      if (keys[slot] == key) {
+        return true;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    return false;
+  }
+
+  /**
+   * @return true if the key was in the set
+   */
+  public boolean remove(long key) {
+    if (key == FREE) {
+      boolean removed = containsFree;
+      containsFree = false;
+      if (removed) {
+        size--;
+      }
+      return removed;
+    }
+
+    int slot = slot(key);
+    while (keys[slot] != key) {
+      if (keys[slot] == FREE) {
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    // Shift following entries of the probe sequence back so lookups never stop at the freed slot.
+    int free = slot;
+    int next = (free + 1) & mask;
+    while (keys[next] != FREE) {
+      int home = slot(keys[next]);
+      if (((next - home) & mask) >= ((next - free) & mask)) {
+        keys[free] = keys[next];
+        free = next;
+      }
+      next = (next + 1) & mask;
+    }
+    keys[free] = FREE;
+    size--;
+
+    return true;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public void clear() {
+    Arrays.fill(keys, FREE);
+    containsFree = false;
+    size = 0;
+  }
+
+  private int slot(long key) {
+    long h = key * 0x9E3779B97F4A7C15L; // Fibonacci hashing spreads topic ids kept in the upper bits
+    return (int) (h ^ (h >>> 32)) & mask;
+  }
+
+  private void rehash(int capacity) {
+    long[] old = keys;
+    keys = new long[capacity];
+    mask = capacity - 1;
+    for (long key : old) {
+      if (key != FREE) {
+        int slot = slot(key);
+        while (keys[slot] != FREE) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+      }
+    }
+  }
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha.utils;
+
+import org.pathirage.thulitha.Replica;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Replicas in descending order of size. Sizes are sorted once into a primitive index array which is then walked in
+ * order. Sort is stable, so replicas with equal size come out in list order, which is the order repeated
+ * <code>Collections.max</code> and <code>List.remove</code> used to produce.
+ */
+public class ReplicaQueue {
+  private final List<Replica> replicas;
+  private final double[] sizes;
+  private final int[] order;
+  private final int[] buffer;
+  private int head = 0;
+
+  /**
+   * Create a queue ordered by {@link Replica#getSize()}.
+   */
+  public ReplicaQueue(List<Replica> replicas) {
+    this(replicas, currentSizes(replicas));
+  }
+
+  /**
+   * Create a queue of indexes ordered by the given sizes. Only the index based methods ({@link #peekIndex()},
+   * {@link #pollIndex()}) can be used on such a queue.
+   */
+  public ReplicaQueue(double[] sizes) {
+    this(null, sizes);
+  }
+
+  /**
+   * Create a queue ordered by the given sizes without touching replica state.
+   *
+   * @param replicas replicas to order
+   * @param sizes    size of each replica, indexed the same way as the replica list
+   */
+  public ReplicaQueue(List<Replica> replicas, double[] sizes) {
+    if (replicas != null && replicas.size() != sizes.length) {
+      throw new IllegalArgumentException(String.format("Replica count %s does not match size count %s", replicas.size(), sizes.length));
+    }
+
+    this.replicas = replicas;
+    this.sizes = sizes;
+    this.order = new int[sizes.length];
+    this.buffer = new int[sizes.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+
+    sort(head, order.length);
+  }
+
+  public boolean isEmpty() {
+    return head >= order.length;
+  }
+
+  /**
+   * Number of replicas left in the queue
+   */
+  public int size() {
+    return order.length - head;
+  }
+
+  /**
+   * Largest remaining replica without removing it.
+   */
+  public Replica peek() {
+    if (isEmpty()) {
+      throw new NoSuchElementException();
+    }
+
+    return replicas.get(order[head]);
+  }
+
+  /**
+   * Remove and return the largest remaining replica.
+   */
+  public Replica poll() {
+    if (isEmpty()) {
+      throw new NoSuchElementException();
+    }
+
+    return replicas.get(order[head++]);
+  }
+
+  /**
+   * Index (in the original replica list) of the largest remaining replica.
+   */
+  public int peekIndex() {
+    if (isEmpty()) {
+      throw new NoSuchElementException();
+    }
+
+    return order[head];
+  }
+
+  /**
+   * Remove the largest remaining replica and return its index.
+   */
+  public int pollIndex() {
+    if (isEmpty()) {
+      throw new NoSuchElementException();
+    }
+
+    return order[head++];
+  }
+
+  /**
+   * Re-sort remaining replicas after their sizes were recomputed. Sizes are read from the array passed at
+   * construction, so callers update that array in place before calling this.
+   */
+  public void rekey() {
+    sort(head, order.length);
+  }
+
+  /**
+   * Recompute the sizes of remaining replicas with the given function and re-sort them.
+   *
+   * @param size size of the replica at an index of the original list
+   */
+  public void rekey(IntToDoubleFunction size) {
+    for (int i = head; i < order.length; i++) {
+      sizes[order[i]] = size.applyAsDouble(order[i]);
+    }
+
+    sort(head, order.length);
+  }
+
+  private void sort(int from, int to) {
+    // Bottom up merge sort; stable and allocation free after construction.
+    int[] src = order;
+    int[] dst = buffer;
+    for (int width = 1; width < to - from; width *= 2) {
+      for (int lo = from; lo < to; lo += 2 * width) {
+        int mid = Math.min(lo + width, to);
+        int hi = Math.min(lo + 2 * width, to);
+        merge(src, dst, lo, mid, hi);
+      }
+
+      int[] tmp = src;
+      src = dst;
+      dst = tmp;
+    }
+
+    if (src != order) {
+      System.arraycopy(src, from, order, from, to - from);
+    }
+  }
+
+  private void merge(int[] src, int[] dst, int lo, int mid, int hi) {
+    int i = lo;
+    int j = mid;
+    for (int k = lo; k < hi; k++) {
+      if (i < mid && (j >= hi || Double.compare(sizes[src[i]], sizes[src[j]]) >= 0)) {
+        dst[k] = src[i++];
+      } else {
+        dst[k] = src[j++];
+      }
+    }
+  }
+
+  private static double[] currentSizes(List<Replica> replicas) {
+    double[] sizes = new double[replicas.size()];
+    for (int i = 0; i < sizes.length; i++) {
+      sizes[i] = replicas.get(i).getSize();
+    }
+
+    return sizes;
+  }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha.utils;
+
+import org.pathirage.thulitha.Replica;
+import org.pathirage.thulitha.ReplicaTable;
+
+/**
+ * Running version of the normalization in {@link SizeUtility}. Keeps the total remaining capacity of a set of brokers
+ * per dimension and updates it with the capacity each placement consumes, so normalization factors stay current at
+ * O(dimensions) cost per placement instead of a pass over all brokers.
+ * <p>
+ * Also tracks how far the factors moved since replica sizes were last computed, so callers can re-key replicas only
+ * when the ordering is likely to change.
+ */
+public class SizeEngine {
+  private final long[] totalRemaining;
+  private final float[] normalizationFactor;
+  private final float[] keyedNormalizationFactor;
+
+  /**
+   * @param totalRemaining initial total remaining capacity, e.g. {@link SizeUtility#computeTotalRemaining}; copied
+   */
+  public SizeEngine(long[] totalRemaining) {
+    this.totalRemaining = totalRemaining.clone();
+    this.normalizationFactor = new float[totalRemaining.length];
+    this.keyedNormalizationFactor = new float[totalRemaining.length];
+    for (int d = 0; d < totalRemaining.length; d++) {
+      normalizationFactor[d] = factor(totalRemaining[d]);
+    }
+    markKeyed();
+  }
+
+  /**
+   * Account for a broker whose remaining capacity changed from <code>before</code> to <code>after</code>.
+   */
+  public void update(long[] before, long[] after) {
+    for (int d = 0; d < totalRemaining.length; d++) {
+      if (before[d] != after[d]) {
+        totalRemaining[d] += after[d] - before[d];
+        normalizationFactor[d] = factor(totalRemaining[d]);
+      }
+    }
+  }
+
+  public double size(Replica replica) {
+    double size = 0;
+    for (int d = 0; d < normalizationFactor.length; d++) {
+      size += normalizationFactor[d] * replica.getDimension(d);
+    }
+
+    return size;
+  }
+
+  public double size(ReplicaTable table, int row) {
+    double size = 0;
+    for (int d = 0; d < normalizationFactor.length; d++) {
+      size += normalizationFactor[d] * table.getDimension(row, d);
+    }
+
+    return size;
+  }
+
+  /**
+   * Largest relative change of a normalization factor since the last {@link #markKeyed()}.
+   */
+  public double drift() {
+    double drift = 0;
+    for (int d = 0; d < normalizationFactor.length; d++) {
+      float keyed = keyedNormalizationFactor[d];
+      float current = normalizationFactor[d];
+      if (keyed == current) {
+        continue;
+      }
+
+      drift = Math.max(drift, keyed == 0 ? Double.POSITIVE_INFINITY : Math.abs(current - keyed) / keyed);
+    }
+
+    return drift;
+  }
+
+  /**
+   * Record that replica sizes were recomputed with the current factors.
+   */
+  public void markKeyed() {
+    System.arraycopy(normalizationFactor, 0, keyedNormalizationFactor, 0, normalizationFactor.length);
+  }
+
+  public long getTotalRemaining(int dimension) {
+    return totalRemaining[dimension];
+  }
+
+  private static float factor(long totalRemaining) {
+    return totalRemaining <= 0 ? 0.0f : 1f / totalRemaining;
+  }
+}
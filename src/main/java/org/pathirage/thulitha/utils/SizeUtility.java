@@ -2,6 +2,7 @@ package org.pathirage.thulitha.utils;
 
 import org.pathirage.thulitha.Broker;
 import org.pathirage.thulitha.Replica;
+import org.pathirage.thulitha.ReplicaTable;
 
 import java.util.List;
 
@@ -74,7 +75,26 @@ public class SizeUtility {
   }
 
   public static void updateReplicaSize(List<Replica> replicas, List<Broker> brokers) {
-    long[] totalRemaining = computeTotalRemaining(brokers);
+    double[] sizes = computeReplicaSizes(replicas, brokers);
+
+    for (int i = 0; i < sizes.length; i++) {
+      replicas.get(i).setSize(sizes[i]);
+    }
+  }
+
+  /**
+   * Same sizes {@link #updateReplicaSize(List, List)} assigns, returned in replica list order without modifying the
+   * replicas. Safe to use when several plans share the same replica objects.
+   */
+  public static double[] computeReplicaSizes(List<Replica> replicas, List<Broker> brokers) {
+    return computeReplicaSizes(replicas, computeTotalRemaining(brokers));
+  }
+
+  /**
+   * Replica sizes relative to the given total remaining capacity of the brokers, see
+   * {@link #computeTotalRemaining(Broker, int)}.
+   */
+  public static double[] computeReplicaSizes(List<Replica> replicas, long[] totalRemaining) {
     float[] normalizationFactor = new float[totalRemaining.length];
 
     for (int i = 0; i < totalRemaining.length; i++) {
@@ -85,6 +105,8 @@ public class SizeUtility {
       normalizationFactor[i] = totalRemaining[i] == 0 ? 0.0f : 1f / totalRemaining[i];
     }
 
+    double[] sizes = new double[replicas.size()];
+    int j = 0;
     for (Replica r : replicas) {
       double size = 0;
 
@@ -92,8 +114,48 @@ public class SizeUtility {
         size += normalizationFactor[i] * r.getDimension(i);
       }
 
-      r.setSize(size);
+      sizes[j++] = size;
     }
+
+    return sizes;
+  }
+
+  /**
+   * Same as {@link #computeReplicaSizes(List, List)} for the rows of a {@link ReplicaTable}, in row order.
+   */
+  public static double[] computeReplicaSizes(ReplicaTable table, List<Broker> brokers) {
+    return computeReplicaSizes(table, computeTotalRemaining(brokers));
+  }
+
+  public static double[] computeReplicaSizes(ReplicaTable table, long[] totalRemaining) {
+    double[] sizes = new double[table.size()];
+
+    for (int d = 0; d < totalRemaining.length; d++) {
+      if (totalRemaining[d] < 0) {
+        throw new IllegalStateException(String.format("Total remaining capacity of dimension %s is negative [%s]", d, totalRemaining[d]));
+      }
+
+      float normalizationFactor = totalRemaining[d] == 0 ? 0.0f : 1f / totalRemaining[d];
+      long[] column = table.getColumn(d);
+      for (int row = 0; row < sizes.length; row++) {
+        sizes[row] += normalizationFactor * column[row];
+      }
+    }
+
+    return sizes;
+  }
+
+  /**
+   * Total remaining capacity of <code>count</code> empty brokers identical to the template. Same as summing over
+   * that many new brokers without creating them.
+   */
+  public static long[] computeTotalRemaining(Broker template, int count) {
+    long[] totalRemaining = new long[template.getDimensionCount()];
+    for (int d = 0; d < totalRemaining.length; d++) {
+      totalRemaining[d] = template.getRemainingCapacity(d) * count;
+    }
+
+    return totalRemaining;
   }
 
   private static long[] computeTotalRemaining(List<Broker> brokers) {
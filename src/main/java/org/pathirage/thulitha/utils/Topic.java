@@ -43,6 +43,10 @@ public class Topic {
     }
   }
 
+  public String getName() {
+    return name;
+  }
+
   public List<Replica> getReplicas() {
     List<Replica> replicas = new ArrayList<>();
 
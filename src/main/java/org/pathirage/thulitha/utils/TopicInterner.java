@@ -0,0 +1,109 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Process wide mapping from topic names to dense int ids. Ids are not reused unless the interner is reset, so keys
+ * built from them stay valid for the lifetime of the JVM in one-shot runs.
+ * <p>
+ * Long running processes plan many independent workloads and bound the mapping with
+ * {@link #resetIfLargerThan(int)}. Replicas only have to get distinct keys within a plan, so a plan built between
+ * {@link #enterScope()} and {@link #exitScope()} is never split by a reset.
+ */
+public final class TopicInterner {
+  private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+  private static final AtomicInteger nextId = new AtomicInteger();
+  private static final ReentrantReadWriteLock scopes = new ReentrantReadWriteLock(true);
+
+  private TopicInterner() {
+  }
+
+  public static int intern(String topic) {
+    Integer id = ids.get(topic);
+    if (id != null) {
+      return id;
+    }
+
+    return ids.computeIfAbsent(topic, t -> {
+      int next = nextId.getAndIncrement();
+      if (next < 0) {
+        throw new IllegalStateException("Ran out of topic ids, reset the interner between plans.");
+      }
+      return next;
+    });
+  }
+
+  /**
+   * Keep the interner from being reset until the calling thread calls {@link #exitScope()}.
+   */
+  public static void enterScope() {
+    scopes.readLock().lock();
+  }
+
+  public static void exitScope() {
+    scopes.readLock().unlock();
+  }
+
+  /**
+   * Forget every topic once more than <code>maxTopics</code> are interned. Replicas created before a reset keep their
+   * keys, which may collide with keys of replicas created afterwards, so they must not be planned together.
+   * <p>
+   * Skips the reset while a scope is open, unless the interner grew past twice the limit. Then it waits for open
+   * scopes to close, while new scopes wait for the reset. Must not be called from inside a scope.
+   *
+   * @return true if the interner was reset
+   */
+  public static boolean resetIfLargerThan(int maxTopics) {
+    if (ids.size() <= maxTopics) {
+      return false;
+    }
+
+    ReentrantReadWriteLock.WriteLock lock = scopes.writeLock();
+    if (!lock.tryLock()) {
+      if (ids.size() <= 2L * maxTopics) {
+        return false;
+      }
+      lock.lock();
+    }
+
+    try {
+      if (ids.size() <= maxTopics) {
+        return false;
+      }
+
+      ids.clear();
+      nextId.set(0);
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Key identifying a topic partition, unique as long as topic ids come from {@link #intern(String)}.
+   */
+  public static long topicPartitionKey(int topicId, int partition) {
+    return ((long) topicId << 32) | (partition & 0xffffffffL);
+  }
+
+  public static int size() {
+    return ids.size();
+  }
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha.workloads;
+
+/**
+ * Binary replica file layout shared by {@link WorkloadFileWriter} and {@link WorkloadFileReader}. All values are big
+ * endian.
+ * <pre>
+ * header      magic, version, replicas, topics, replay rates, record size (int each), reserved (long)
+ * records     one fixed width record per replica:
+ *             ram, storage, storage bw, network in, network out (long each),
+ *             topic id, partition, replica id, read percentage, message size, produce rate,
+ *             first replay rate, replay rate count (int each)
+ * replays     replay rates of all replicas (int each)
+ * dictionary  topic names indexed by topic id (int length followed by UTF-8 bytes)
+ * </pre>
+ */
+final class WorkloadFile {
+  static final int MAGIC = 0x5448574c; // THWL
+  static final int VERSION = 1;
+  static final int DIMENSIONS = 5;
+
+  static final int HEADER_BYTES = 32;
+  static final int RECORD_BYTES = DIMENSIONS * Long.BYTES + 8 * Integer.BYTES;
+
+  static final int TOPIC_ID = DIMENSIONS * Long.BYTES;
+  static final int PARTITION = TOPIC_ID + Integer.BYTES;
+  static final int REPLICA_ID = PARTITION + Integer.BYTES;
+  static final int READ_PERCENTAGE = REPLICA_ID + Integer.BYTES;
+  static final int MESSAGE_SIZE = READ_PERCENTAGE + Integer.BYTES;
+  static final int PRODUCE_RATE = MESSAGE_SIZE + Integer.BYTES;
+  static final int REPLAY_OFFSET = PRODUCE_RATE + Integer.BYTES;
+  static final int REPLAY_COUNT = REPLAY_OFFSET + Integer.BYTES;
+
+  private WorkloadFile() {
+  }
+
+  static long replaysOffset(int replicas) {
+    return HEADER_BYTES + (long) replicas * RECORD_BYTES;
+  }
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha.workloads;
+
+import org.pathirage.thulitha.Replica;
+import org.pathirage.thulitha.ReplicaTable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.pathirage.thulitha.workloads.WorkloadFile.*;
+
+/**
+ * Read-only view of a {@link WorkloadFile}. Records are memory mapped and accessed in place, so opening a file only
+ * reads the header and the topic dictionary. Files larger than a single mapping are split into segments on record
+ * boundaries.
+ */
+public class WorkloadFileReader implements Closeable {
+  private static final int MAX_SEGMENT_BYTES = Integer.MAX_VALUE;
+
+  private final FileChannel channel;
+  private final int replicas;
+  private final int replayCount;
+  private final int recordsPerSegment;
+  private final MappedByteBuffer[] segments;
+  private final MappedByteBuffer replays;
+  private final String[] topics;
+
+  public WorkloadFileReader(Path path) throws IOException {
+    this(path, MAX_SEGMENT_BYTES);
+  }
+
+  WorkloadFileReader(Path path, int maxSegmentBytes) throws IOException {
+    this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      while (header.hasRemaining()) {
+        if (channel.read(header, header.position()) < 0) {
+          throw new IOException("Truncated workload file header: " + path);
+        }
+      }
+      header.flip();
+
+      if (header.getInt() != MAGIC) {
+        throw new IOException("Not a workload file: " + path);
+      }
+      int version = header.getInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported workload file version " + version + ": " + path);
+      }
+      this.replicas = header.getInt();
+      int topicCount = header.getInt();
+      this.replayCount = header.getInt();
+      int recordBytes = header.getInt();
+      if (recordBytes != RECORD_BYTES) {
+        throw new IOException("Unexpected record size " + recordBytes + ": " + path);
+      }
+
+      this.recordsPerSegment = Math.max(1, maxSegmentBytes / RECORD_BYTES);
+      int segmentCount = (replicas + recordsPerSegment - 1) / recordsPerSegment;
+      this.segments = new MappedByteBuffer[segmentCount];
+      for (int s = 0; s < segmentCount; s++) {
+        int records = Math.min(recordsPerSegment, replicas - s * recordsPerSegment);
+        segments[s] = channel.map(FileChannel.MapMode.READ_ONLY,
+            HEADER_BYTES + (long) s * recordsPerSegment * RECORD_BYTES, (long) records * RECORD_BYTES);
+      }
+
+      long replaysOffset = replaysOffset(replicas);
+      long dictionaryOffset = replaysOffset + (long) replayCount * Integer.BYTES;
+      if (dictionaryOffset > channel.size()) {
+        throw new IOException("Truncated workload file: " + path);
+      }
+      this.replays = channel.map(FileChannel.MapMode.READ_ONLY, replaysOffset, (long) replayCount * Integer.BYTES);
+
+      MappedByteBuffer dictionary = channel.map(FileChannel.MapMode.READ_ONLY, dictionaryOffset,
+          channel.size() - dictionaryOffset);
+      this.topics = new String[topicCount];
+      for (int t = 0; t < topicCount; t++) {
+        byte[] name = new byte[dictionary.getInt()];
+        dictionary.get(name);
+        topics[t] = new String(name, StandardCharsets.UTF_8);
+      }
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  public int size() {
+    return replicas;
+  }
+
+  public int getTopicCount() {
+    return topics.length;
+  }
+
+  public int getReplayRateCount() {
+    return replayCount;
+  }
+
+  public long getDimension(int row, int dimension) {
+    if (dimension < 0 || dimension >= DIMENSIONS) {
+      throw new IndexOutOfBoundsException("Dimension " + dimension);
+    }
+
+    return segment(row).getLong(offset(row) + dimension * Long.BYTES);
+  }
+
+  public String getTopic(int row) {
+    return topics[getTopicId(row)];
+  }
+
+  public int getTopicId(int row) {
+    return getInt(row, TOPIC_ID);
+  }
+
+  public int getPartition(int row) {
+    return getInt(row, PARTITION);
+  }
+
+  public int getReplicaId(int row) {
+    return getInt(row, REPLICA_ID);
+  }
+
+  public int getReadPercentage(int row) {
+    return getInt(row, READ_PERCENTAGE);
+  }
+
+  public int getAvgMessageSize(int row) {
+    return getInt(row, MESSAGE_SIZE);
+  }
+
+  public int getProduceRate(int row) {
+    return getInt(row, PRODUCE_RATE);
+  }
+
+  public int getReplayCount(int row) {
+    return getInt(row, REPLAY_COUNT);
+  }
+
+  public int getReplayRate(int row, int replay) {
+    return replays.getInt((getInt(row, REPLAY_OFFSET) + replay) * Integer.BYTES);
+  }
+
+  public Replica getReplica(int row) {
+    ByteBuffer segment = segment(row);
+    int offset = offset(row);
+    int[] replayRates = new int[segment.getInt(offset + REPLAY_COUNT)];
+    int first = segment.getInt(offset + REPLAY_OFFSET);
+    for (int i = 0; i < replayRates.length; i++) {
+      replayRates[i] = replays.getInt((first + i) * Integer.BYTES);
+    }
+
+    return new Replica(topics[segment.getInt(offset + TOPIC_ID)], segment.getInt(offset + PARTITION),
+        segment.getInt(offset + REPLICA_ID), segment.getLong(offset), segment.getLong(offset + Long.BYTES),
+        segment.getLong(offset + 2 * Long.BYTES), segment.getLong(offset + 3 * Long.BYTES),
+        segment.getLong(offset + 4 * Long.BYTES), segment.getInt(offset + READ_PERCENTAGE),
+        segment.getInt(offset + MESSAGE_SIZE), segment.getInt(offset + PRODUCE_RATE), replayRates);
+  }
+
+  public List<Replica> toReplicas() {
+    List<Replica> result = new ArrayList<>(replicas);
+    for (int row = 0; row < replicas; row++) {
+      result.add(getReplica(row));
+    }
+
+    return result;
+  }
+
+  public ReplicaTable toReplicaTable() {
+    ReplicaTable table = new ReplicaTable(Math.max(1, replicas));
+    long[] requirements = new long[DIMENSIONS];
+    for (int row = 0; row < replicas; row++) {
+      ByteBuffer segment = segment(row);
+      int offset = offset(row);
+      for (int d = 0; d < DIMENSIONS; d++) {
+        requirements[d] = segment.getLong(offset + d * Long.BYTES);
+      }
+
+      int[] replayRates = new int[segment.getInt(offset + REPLAY_COUNT)];
+      int first = segment.getInt(offset + REPLAY_OFFSET);
+      for (int i = 0; i < replayRates.length; i++) {
+        replayRates[i] = replays.getInt((first + i) * Integer.BYTES);
+      }
+
+      table.add(topics[segment.getInt(offset + TOPIC_ID)], segment.getInt(offset + PARTITION),
+          segment.getInt(offset + REPLICA_ID), requirements, segment.getInt(offset + READ_PERCENTAGE),
+          segment.getInt(offset + MESSAGE_SIZE), segment.getInt(offset + PRODUCE_RATE), replayRates);
+    }
+
+    return table;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private int getInt(int row, int field) {
+    return segment(row).getInt(offset(row) + field);
+  }
+
+  private ByteBuffer segment(int row) {
+    if (row < 0 || row >= replicas) {
+      throw new IndexOutOfBoundsException("Row " + row + " of " + replicas);
+    }
+
+    return segments[row / recordsPerSegment];
+  }
+
+  private int offset(int row) {
+    return (row % recordsPerSegment) * RECORD_BYTES;
+  }
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright 2017 Milinda Pathirage
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pathirage.thulitha.workloads;
+
+import org.pathirage.thulitha.Replica;
+import org.pathirage.thulitha.ReplicaTable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.pathirage.thulitha.workloads.WorkloadFile.*;
+
+/**
+ * Writes replicas in the {@link WorkloadFile} format. Records are streamed to disk as they are added; only replay
+ * rates and the topic dictionary are kept in memory until {@link #close()}, which also writes the header.
+ * <p>
+ * A writer opened on a path fills that file in place. The static <code>write</code> methods write a temporary file
+ * next to the target and move it into place once it is complete, so the target is either missing or a whole workload
+ * file even when writing gets interrupted or another process writes the same workload.
+ */
+public class WorkloadFileWriter implements Closeable {
+  private static final int BUFFER_BYTES = 1 << 20;
+
+  private final FileChannel channel;
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+  private final List<String> topics = new ArrayList<>();
+  private final Map<String, Integer> topicIds = new HashMap<>();
+  private int[] replays = new int[1024];
+  private int replayCount = 0;
+  private int replicas = 0;
+  private boolean closed = false;
+
+  public WorkloadFileWriter(Path path) throws IOException {
+    this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+    this.channel.position(HEADER_BYTES);
+  }
+
+  public static void write(Path path, Iterable<Replica> replicas) throws IOException {
+    writeAtomically(path, writer -> {
+      for (Replica r : replicas) {
+        writer.add(r);
+      }
+    });
+  }
+
+  public static void write(Path path, ReplicaTable table) throws IOException {
+    writeAtomically(path, writer -> {
+      for (int row = 0; row < table.size(); row++) {
+        int[] replayRates = new int[table.getReplayCount(row)];
+        for (int i = 0; i < replayRates.length; i++) {
+          replayRates[i] = table.getReplayRate(row, i);
+        }
+
+        writer.add(table.getTopic(row), table.getPartition(row), table.getReplicaId(row), table.getDimension(row, 0),
+            table.getDimension(row, 1), table.getDimension(row, 2), table.getDimension(row, 3),
+            table.getDimension(row, 4), table.getReadPercentage(row), table.getAvgMessageSize(row),
+            table.getProduceRate(row), replayRates);
+      }
+    });
+  }
+
+  private static void writeAtomically(Path path, Records records) throws IOException {
+    Path target = path.toAbsolutePath();
+    Path temp = target.resolveSibling(target.getFileName() + "." + UUID.randomUUID() + ".tmp");
+    try {
+      try (WorkloadFileWriter writer = new WorkloadFileWriter(temp)) {
+        records.writeTo(writer);
+      }
+      Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  public void add(Replica replica) throws IOException {
+    long[] requirements = replica.getRequirements();
+    add(replica.getTopic(), replica.getPartition(), replica.getId(), requirements[0], requirements[1],
+        requirements[2], requirements[3], requirements[4], replica.getReadPercentage(), replica.getAvgMessageSize(),
+        replica.getProduceRate(), replica.getReplayRates());
+  }
+
+  private void add(String topic, int partition, int id, long ram, long storage, long storageBW, long networkIn,
+                   long networkOut, int readPercentage, int avgMessageSize, int produceRate, int[] replayRates)
+      throws IOException {
+    if (closed) {
+      throw new IllegalStateException("Writer is closed.");
+    }
+
+    if (buffer.remaining() < RECORD_BYTES) {
+      flush();
+    }
+
+    int count = replayRates == null ? 0 : replayRates.length;
+    buffer.putLong(ram)
+        .putLong(storage)
+        .putLong(storageBW)
+        .putLong(networkIn)
+        .putLong(networkOut)
+        .putInt(internTopic(topic))
+        .putInt(partition)
+        .putInt(id)
+        .putInt(readPercentage)
+        .putInt(avgMessageSize)
+        .putInt(produceRate)
+        .putInt(replayCount)
+        .putInt(count);
+
+    if (replayCount + count > replays.length) {
+      replays = Arrays.copyOf(replays, Math.max(replays.length * 2, replayCount + count));
+    }
+    for (int i = 0; i < count; i++) {
+      replays[replayCount++] = replayRates[i];
+    }
+    replicas++;
+  }
+
+  public int size() {
+    return replicas;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+
+    try {
+      for (int i = 0; i < replayCount; i++) {
+        if (buffer.remaining() < Integer.BYTES) {
+          flush();
+        }
+        buffer.putInt(replays[i]);
+      }
+
+      for (String topic : topics) {
+        byte[] name = topic.getBytes(StandardCharsets.UTF_8);
+        if (buffer.remaining() < Integer.BYTES + name.length) {
+          flush();
+        }
+        if (buffer.remaining() < Integer.BYTES + name.length) {
+          throw new IOException("Topic name is too long: " + topic.length());
+        }
+        buffer.putInt(name.length).put(name);
+      }
+      flush();
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      header.putInt(MAGIC)
+          .putInt(VERSION)
+          .putInt(replicas)
+          .putInt(topics.size())
+          .putInt(replayCount)
+          .putInt(RECORD_BYTES)
+          .putLong(0);
+      header.flip();
+      while (header.hasRemaining()) {
+        channel.write(header, HEADER_BYTES - header.remaining());
+      }
+    } finally {
+      channel.close();
+    }
+  }
+
+  private void flush() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  private int internTopic(String topic) {
+    Integer id = topicIds.get(topic);
+    if (id == null) {
+      id = topics.size();
+      topics.add(topic);
+      topicIds.put(topic, id);
+    }
+
+    return id;
+  }
+
+  private interface Records {
+    void writeTo(WorkloadFileWriter writer) throws IOException;
+  }
+}
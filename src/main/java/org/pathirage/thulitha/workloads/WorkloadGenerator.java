@@ -18,8 +18,13 @@ package org.pathirage.thulitha.workloads;
 import org.apache.commons.math3.util.Pair;
 import org.pathirage.thulitha.Replica;
 import org.pathirage.thulitha.utils.Topic;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Basic algorithm:
@@ -30,102 +35,181 @@ import java.util.*;
  * - We need to decide number of consumers
  * - We need to decide replay rates
  * - How to decide retention period
+ * <p>
+ * Every topic draws from its own {@link SplittableRandom} derived from a master seed and the topic index, so a
+ * workload is the same whether it is generated sequentially, in parallel or lazily through {@link #iterator}.
  */
 public class WorkloadGenerator {
+  private static final Logger log = LoggerFactory.getLogger(WorkloadGenerator.class);
+
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+  private static final int CLUSTER_STREAM = 0;
+
   private final WorkloadGeneratorConfig config;
 
   public WorkloadGenerator(WorkloadGeneratorConfig config) {
     this.config = config;
   }
 
-  private Pair<Integer, Integer[]> getReplays(int replayRate, int replayConsumers) {
-    Integer[] replays = new Integer[replayConsumers];
-    int perConsumerReplayRate = replayRate / replayConsumers;
-    for (int r = 0; r < replayConsumers; r++) {
-      replays[r] = perConsumerReplayRate;
-    }
+  public List<Replica> run(int replicaCount) {
+    return run(replicaCount, config.nextSeed());
+  }
 
-    return new Pair<Integer, Integer[]>(replayConsumers, replays);
+  public List<Replica> run(int replicaCount, long seed) {
+    Spliterator<Replica> replicas = spliterator(replicaCount, seed);
+    List<Replica> result = new ArrayList<>((int) replicas.estimateSize());
+    replicas.forEachRemaining(result::add);
+    return result;
   }
 
-  public List<Replica> run(int replicaCount) {
-    int generated = 0;
-    int t = 0;
-    Map<String, Integer> maxCounts = new HashMap<>();
-    maxCounts.put("PublishRate", 0);
-    maxCounts.put("MessageSize", 0);
-    maxCounts.put("replays", 0);
-    maxCounts.put("consumers", 0);
-    maxCounts.put("retention", 0);
-    maxCounts.put("partitions", 0);
-
-    List<Topic> topics = new ArrayList<>();
-    List<Replica> replicas = new ArrayList<>();
+  /**
+   * Lazily generated replicas. Topics are materialized one at a time.
+   */
+  public Iterator<Replica> iterator(int replicaCount, long seed) {
+    return Spliterators.iterator(spliterator(replicaCount, seed));
+  }
+
+  public Stream<Replica> stream(int replicaCount, long seed, boolean parallel) {
+    return StreamSupport.stream(spliterator(replicaCount, seed), parallel);
+  }
 
+  /**
+   * Replicas of the workload identified by <code>seed</code>. The spliterator splits on topic boundaries and reports
+   * the exact number of replicas.
+   */
+  public Spliterator<Replica> spliterator(int replicaCount, long seed) {
+    SplittableRandom cluster = new SplittableRandom(streamSeed(seed, CLUSTER_STREAM));
+    int retentionHours = config.getNextRetentionHours(cluster);
+
+    // Only replication factor and partition count are drawn here, everything else is drawn when the topic is
+    // materialized.
+    long[] firstReplica = new long[16];
+    int topics = 0;
+    long generated = 0;
     while (generated < replicaCount) {
-      Pair<Integer, Integer> replicationFactorAndPartitionCount = config.getNextReplicationFactorAndPartitionCount();
+      Pair<Integer, Integer> replicationFactorAndPartitionCount =
+          config.getNextReplicationFactorAndPartitionCount(topicRandom(seed, topics));
       generated += replicationFactorAndPartitionCount.getFirst() * replicationFactorAndPartitionCount.getSecond();
+      topics++;
+      if (topics == firstReplica.length) {
+        firstReplica = Arrays.copyOf(firstReplica, topics * 2);
+      }
+      firstReplica[topics] = generated;
+    }
 
-      int publishRateMb = config.getNextPerPartitionPublishRate();
-      int averageMessageSize = config.getNextAverageMessageSize();
-      int publishRate = (int) Math.ceil(((double) publishRateMb * 1024 * 1024) / averageMessageSize) * replicationFactorAndPartitionCount.getSecond();
+    log.debug(String.format("Workload %s: %s topics, %s replicas, retention %s hours", seed, topics, generated, retentionHours));
+    return new TopicSpliterator(seed, retentionHours, firstReplica, 0, topics);
+  }
 
-      Pair<Integer, Integer[]> replays = null;
-      if (config.getMaxReplays() <= 0 && config.getReadPercentage() > 0) {
-        double replayRate = publishRate * (config.getReadPercentage() / 100.0);
-        replays = new Pair<Integer, Integer[]>(1, new Integer[]{(int) replayRate});
-      } else {
-        replays = config.getNextReplayConfiguration();
-      }
-      int[] replayRates = new int[replays.getFirst()];
+  Topic createTopic(long seed, int t, int clusterRetentionHours) {
+    SplittableRandom random = topicRandom(seed, t);
+    Pair<Integer, Integer> replicationFactorAndPartitionCount = config.getNextReplicationFactorAndPartitionCount(random);
 
-      if (config.getReadPercentage() > 0 && config.getMaxReplays() <= 0) {
-        for (int j = 0; j < replays.getFirst(); j++) {
-          replayRates[j] = replays.getSecond()[j];
-        }
-      } else {
-        for (int j = 0; j < replays.getFirst(); j++) {
-          replayRates[j] = replays.getSecond()[j] * publishRate;
-        }
-      }
+    int publishRateMb = config.getNextPerPartitionPublishRate(random);
+    int averageMessageSize = config.getNextAverageMessageSize(random);
+    int publishRate = (int) Math.ceil(((double) publishRateMb * 1024 * 1024) / averageMessageSize) * replicationFactorAndPartitionCount.getSecond();
 
-      int consumerCount = config.getNextConsumerCount();
-      int retentionPeriod = config.getNextRetentionHours();
+    Pair<Integer, Integer[]> replays = null;
+    if (config.getMaxReplays() <= 0 && config.getReadPercentage() > 0) {
+      double replayRate = publishRate * (config.getReadPercentage() / 100.0);
+      replays = new Pair<Integer, Integer[]>(1, new Integer[]{(int) replayRate});
+    } else {
+      replays = config.getNextReplayConfiguration(random);
+    }
+    int[] replayRates = new int[replays.getFirst()];
 
-      if (maxCounts.get("partitions") < replicationFactorAndPartitionCount.getSecond()) {
-        maxCounts.put("partitions", replicationFactorAndPartitionCount.getSecond());
+    if (config.getReadPercentage() > 0 && config.getMaxReplays() <= 0) {
+      for (int j = 0; j < replays.getFirst(); j++) {
+        replayRates[j] = replays.getSecond()[j];
       }
-
-      if (maxCounts.get("PublishRate") < publishRateMb) {
-        maxCounts.put("PublishRate", publishRateMb);
+    } else {
+      for (int j = 0; j < replays.getFirst(); j++) {
+        replayRates[j] = replays.getSecond()[j] * publishRate;
       }
+    }
 
-      if (maxCounts.get("MessageSize") < averageMessageSize) {
-        maxCounts.put("MessageSize", averageMessageSize);
-      }
+    int consumerCount = config.getNextConsumerCount(random);
+    int retentionPeriod = config.isClusterWideRetentionConfiguration() ? clusterRetentionHours :
+        config.getNextRetentionHours(random);
 
-      if (maxCounts.get("replays") < replays.getFirst()) {
-        maxCounts.put("replays", replays.getFirst());
-      }
+    return new Topic(String.format("t%s", t), publishRate, averageMessageSize,
+        replicationFactorAndPartitionCount.getSecond(),
+        replicationFactorAndPartitionCount.getFirst(),
+        consumerCount, replays.getFirst(), replayRates, config.getNextConsumerLagSeconds(random),
+        retentionPeriod, config.isAllocateReadCapacityForFollowers());
+  }
+
+  private static SplittableRandom topicRandom(long seed, int t) {
+    return new SplittableRandom(streamSeed(seed, t + 1L));
+  }
+
+  /**
+   * Seed of an independent stream. Seeds are scrambled so that neighbouring streams do not share a sequence.
+   */
+  static long streamSeed(long seed, long stream) {
+    long z = seed + stream * GOLDEN_GAMMA;
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
 
-      if (maxCounts.get("consumers") < consumerCount) {
-        maxCounts.put("consumers", consumerCount);
+  private class TopicSpliterator implements Spliterator<Replica> {
+    private final long seed;
+    private final int retentionHours;
+    private final long[] firstReplica;
+    private final int end;
+    private int next;
+    private List<Replica> current = Collections.emptyList();
+    private int position;
+
+    TopicSpliterator(long seed, int retentionHours, long[] firstReplica, int from, int to) {
+      this.seed = seed;
+      this.retentionHours = retentionHours;
+      this.firstReplica = firstReplica;
+      this.next = from;
+      this.end = to;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Replica> action) {
+      while (position == current.size()) {
+        if (next == end) {
+          return false;
+        }
+
+        current = createTopic(seed, next++, retentionHours).getReplicas();
+        position = 0;
       }
 
-      topics.add(new Topic(String.format("t%s", t), publishRate, averageMessageSize,
-          replicationFactorAndPartitionCount.getSecond(),
-          replicationFactorAndPartitionCount.getFirst(),
-          consumerCount, replays.getFirst(), replayRates, config.getNextConsumerLagSeconds(),
-          retentionPeriod, config.isAllocateReadCapacityForFollowers()));
-      t++;
+      action.accept(current.get(position++));
+      return true;
     }
 
-    System.out.println(Arrays.toString(maxCounts.entrySet().toArray()));
+    @Override
+    public Spliterator<Replica> trySplit() {
+      int mid = (next + end) >>> 1;
+      if (mid == next) {
+        return null;
+      }
+
+      // The prefix takes over the topic being consumed to keep encounter order.
+      TopicSpliterator prefix = new TopicSpliterator(seed, retentionHours, firstReplica, next, mid);
+      prefix.current = current;
+      prefix.position = position;
+      current = Collections.emptyList();
+      position = 0;
+      next = mid;
+      return prefix;
+    }
 
-    for (Topic topic : topics) {
-      replicas.addAll(topic.getReplicas());
+    @Override
+    public long estimateSize() {
+      return firstReplica[end] - firstReplica[next] + current.size() - position;
     }
 
-    return replicas;
+    @Override
+    public int characteristics() {
+      return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+    }
   }
 }
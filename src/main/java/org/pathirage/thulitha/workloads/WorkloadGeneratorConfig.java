@@ -18,7 +18,7 @@ package org.pathirage.thulitha.workloads;
 import com.typesafe.config.Config;
 import org.apache.commons.math3.util.Pair;
 
-import java.util.Random;
+import java.util.SplittableRandom;
 
 public class WorkloadGeneratorConfig {
   private int maxReplicationFactor = 2;
@@ -45,7 +45,7 @@ public class WorkloadGeneratorConfig {
   private int readPercentage = 0;
 
   private final Config config;
-  private final Random random = new Random(System.currentTimeMillis());
+  private SplittableRandom random = new SplittableRandom(System.currentTimeMillis());
 
   public WorkloadGeneratorConfig(Config config) {
     this.config = config;
@@ -72,7 +72,65 @@ public class WorkloadGeneratorConfig {
     return allocateReadCapacityForFollowers;
   }
 
+  public boolean isClusterWideRetentionConfiguration() {
+    return clusterWideRetentionConfiguration;
+  }
+
+  /**
+   * Make draws from this configuration and seeds returned by {@link #nextSeed()} reproducible.
+   */
+  public void setSeed(long seed) {
+    this.random = new SplittableRandom(seed);
+    this.previousRetentionPeriod = -1;
+  }
+
+  /**
+   * @return master seed for a {@link WorkloadGenerator} run
+   */
+  public long nextSeed() {
+    return random.nextLong();
+  }
+
   public Pair<Integer, Integer> getNextReplicationFactorAndPartitionCount() {
+    return getNextReplicationFactorAndPartitionCount(random);
+  }
+
+  public int getNextPerPartitionPublishRate() {
+    return getNextPerPartitionPublishRate(random);
+  }
+
+  public int getNextAverageMessageSize() {
+    return getNextAverageMessageSize(random);
+  }
+
+  public int getNextConsumerCount() {
+    return getNextConsumerCount(random);
+  }
+
+  public int getNextConsumerLagSeconds() {
+    return getNextConsumerLagSeconds(random);
+  }
+
+  public Pair<Integer, Integer[]> getNextReplayConfiguration() {
+    return getNextReplayConfiguration(random);
+  }
+
+  public int getNextRetentionHours() {
+    if (clusterWideRetentionConfiguration) {
+      if (previousRetentionPeriod == -1) {
+        previousRetentionPeriod = getNextRetentionHours(random);
+      }
+
+      return previousRetentionPeriod;
+    }
+
+    return getNextRetentionHours(random);
+  }
+
+  // Draws from a caller supplied stream. These do not touch shared state, so they can be used concurrently with
+  // per-topic streams.
+
+  public Pair<Integer, Integer> getNextReplicationFactorAndPartitionCount(SplittableRandom random) {
     int replicationFactor = random.nextInt(maxReplicationFactor);
     if (maxReplicationFactor == 1 || replicationFactor == 0) {
       replicationFactor = 1;
@@ -82,23 +140,23 @@ public class WorkloadGeneratorConfig {
     return new Pair<Integer, Integer>(replicationFactor, partitionCount);
   }
 
-  public int getNextPerPartitionPublishRate() {
+  public int getNextPerPartitionPublishRate(SplittableRandom random) {
     return minPerPartitionPublishRate + random.nextInt(maxPerPartitionPublishRate - minPerPartitionPublishRate);
   }
 
-  public int getNextAverageMessageSize() {
+  public int getNextAverageMessageSize(SplittableRandom random) {
     return minMessageSize + random.nextInt(maxMessageSize - minMessageSize);
   }
 
-  public int getNextConsumerCount() {
+  public int getNextConsumerCount(SplittableRandom random) {
     return minConsumers + random.nextInt(maxConsumers - minConsumers);
   }
 
-  public int getNextConsumerLagSeconds() {
+  public int getNextConsumerLagSeconds(SplittableRandom random) {
     return minConsumerLag + random.nextInt(maxConsumerLag - minConsumerLag);
   }
 
-  public Pair<Integer, Integer[]> getNextReplayConfiguration() {
+  public Pair<Integer, Integer[]> getNextReplayConfiguration(SplittableRandom random) {
     if (maxReplays == 0) {
       return new Pair<Integer, Integer[]>(0, null);
     }
@@ -114,15 +172,7 @@ public class WorkloadGeneratorConfig {
     return new Pair<Integer, Integer[]>(replays, replayRates);
   }
 
-  public int getNextRetentionHours() {
-    if (clusterWideRetentionConfiguration) {
-      if (previousRetentionPeriod == -1) {
-        previousRetentionPeriod = minRetentionHours + random.nextInt(maxRetentionHours - minRetentionHours);
-      }
-
-      return previousRetentionPeriod;
-    }
-
+  public int getNextRetentionHours(SplittableRandom random) {
     return minRetentionHours + random.nextInt(maxRetentionHours - minRetentionHours);
   }
 
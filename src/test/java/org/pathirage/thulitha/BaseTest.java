@@ -1,9 +1,12 @@
 package org.pathirage.thulitha;
 
+import org.junit.Assert;
 import org.pathirage.thulitha.utils.Topic;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class BaseTest {
   List<Replica> getHighNetworkOutReplicas() {
@@ -32,6 +35,27 @@ public class BaseTest {
     return replicas;
   }
 
+  /**
+   * Broker ids are unique, no broker hosts two replicas of a partition, every replica is placed exactly once and no
+   * broker is over capacity.
+   */
+  static void assertValidPlan(List<Broker> brokers, int replicas) {
+    Set<String> placed = new HashSet<>();
+    Set<String> ids = new HashSet<>();
+    for (Broker b : brokers) {
+      Assert.assertTrue(ids.add(b.getId()));
+      Set<String> partitions = new HashSet<>();
+      for (Replica r : b.getReplicas()) {
+        Assert.assertTrue(partitions.add(r.getTopicPartition()));
+        Assert.assertTrue(placed.add(r.getTopicPartition() + "-" + r.getId()));
+      }
+      for (int d = 0; d < 5; d++) {
+        Assert.assertTrue(b.getRemainingCapacity(d) >= 0);
+      }
+    }
+    Assert.assertEquals(replicas, placed.size());
+  }
+
     List<Replica> getNoReplayAndSingleConsumer() {
         Topic t1 = new Topic("t1", 1000000, 234, 70, 1, 1, 0,
                 new int[]{3000000, 4000000}, 20, 2, false);
@@ -0,0 +1,71 @@
+package org.pathirage.thulitha;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class BrokerIndexTest extends BaseTest {
+
+  @Test
+  public void testFirstFeasibleMatchesLinearScan() {
+    List<Broker> brokers = new ArrayList<>();
+    for (int i = 0; i < 37; i++) {
+      brokers.add(new Broker(CCInstanceType.M4_4X, StorageVolumeType.ST1STATIC, 128));
+    }
+
+    BrokerIndex index = new BrokerIndex(brokers);
+    List<Replica> replicas = getHighNetworkOutReplicas();
+    Random random = new Random(42);
+    long[] demand = new long[5];
+
+    for (Replica r : replicas) {
+      for (int d = 0; d < demand.length; d++) {
+        demand[d] = brokers.get(0).demand(r, d);
+      }
+
+      int expected = -1;
+      for (int i = 0; i < brokers.size(); i++) {
+        if (fits(brokers.get(i), demand)) {
+          expected = i;
+          break;
+        }
+      }
+
+      Assert.assertEquals(expected, index.findFirstFeasible(demand, 0));
+
+      // Fill brokers in random order so that remaining capacities diverge
+      int position = random.nextInt(brokers.size());
+      if (brokers.get(position).add(r)) {
+        index.update(position);
+      }
+    }
+  }
+
+  @Test
+  public void testAppend() {
+    BrokerIndex index = new BrokerIndex();
+    long[] demand = new long[]{1, 1, 1, 1, 1};
+    Assert.assertEquals(-1, index.findFirstFeasible(demand, 0));
+
+    for (int i = 0; i < 5; i++) {
+      Assert.assertEquals(i, index.add(new Broker(CCInstanceType.M4_2X, StorageVolumeType.ST1STATIC, 128)));
+    }
+
+    Assert.assertEquals(5, index.size());
+    Assert.assertEquals(3, index.findFirstFeasible(demand, 3));
+    Assert.assertEquals(-1, index.findFirstFeasible(demand, 5));
+  }
+
+  private static boolean fits(Broker b, long[] demand) {
+    for (int d = 0; d < demand.length; d++) {
+      if (demand[d] > b.getRemainingCapacity(d)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+}
@@ -27,4 +27,27 @@ public class BrokerTest {
     Assert.assertEquals(0, b.getCapacity()[2] - b.getRemainingCapacity(2));
     Assert.assertEquals(0, b.getCapacity()[3] - b.getRemainingCapacity(3));
   }
+
+  @Test
+  public void testRemoveRestoresCapacity() {
+    Broker b = new Broker(CCInstanceType.M4_2X, StorageVolumeType.ST1, 128);
+    long[] empty = b.getRemainingCapacity().clone();
+    Replica first = new Replica("t", 0, 0, 256, 1000000, 30, 10, 40, 0, -1, -1, new int[]{-1});
+    Replica second = new Replica("t", 1, 1, 512, 2000000, 20, 5, 0, 0, -1, -1, new int[]{-1});
+    Assert.assertTrue(b.add(first));
+    long[] withFirst = b.getRemainingCapacity().clone();
+    Assert.assertTrue(b.add(second));
+
+    Assert.assertTrue(b.remove(second));
+    Assert.assertArrayEquals(withFirst, b.getRemainingCapacity());
+    Assert.assertFalse(b.remove(second));
+
+    Assert.assertTrue(b.remove(first));
+    Assert.assertArrayEquals(empty, b.getRemainingCapacity());
+    Assert.assertEquals(0, b.getReplicaCount());
+    Assert.assertEquals(0, b.getTotalSizeOfItems(1));
+
+    // The partition can be placed again once its replica is gone
+    Assert.assertTrue(b.add(new Replica("t", 0, 1, 256, 1000000, 30, 10, 40, 0, -1, -1, new int[]{-1})));
+  }
 }
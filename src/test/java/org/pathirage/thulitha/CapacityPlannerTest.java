@@ -43,4 +43,81 @@ public class CapacityPlannerTest extends BaseTest {
     }
 
   }
+
+  @Test
+  public void testGallopingBinCountSearch() {
+    BFDCapacityPlanner linear = new BFDCapacityPlanner(getHighNetworkOutReplicas(), CCInstanceType.M4_4X,
+        StorageVolumeType.ST1, true, true, BFDCapacityPlanner.BinCountSearch.LINEAR);
+    BFDCapacityPlanner galloping = new BFDCapacityPlanner(getHighNetworkOutReplicas(), CCInstanceType.M4_4X,
+        StorageVolumeType.ST1, true, true, BFDCapacityPlanner.BinCountSearch.GALLOPING);
+
+    int linearSolution = linear.solve().size();
+    int gallopingSolution = galloping.solve().size();
+    log.info("Linear probes: " + linear.getIterations() + ", galloping probes: " + galloping.getIterations());
+
+    Assert.assertEquals(linearSolution, gallopingSolution);
+    Assert.assertTrue(galloping.getIterations() <= linear.getIterations());
+
+    BFDCapacityPlanner.BinCountProbe last = linear.getProbes().get(linear.getIterations() - 1);
+    Assert.assertTrue(last.isFeasible());
+    for (BFDCapacityPlanner.BinCountProbe probe : galloping.getProbes()) {
+      Assert.assertTrue(probe.getElapsedNanos() > 0);
+      Assert.assertEquals(probe.getBinCount() >= last.getBinCount(), probe.isFeasible());
+    }
+  }
+
+  @Test
+  public void testParallelBinCountSearch() {
+    BFDCapacityPlanner galloping = new BFDCapacityPlanner(getHighNetworkOutReplicas(), CCInstanceType.M4_4X,
+        StorageVolumeType.ST1, true, true, BFDCapacityPlanner.BinCountSearch.GALLOPING);
+    BFDCapacityPlanner parallel = new BFDCapacityPlanner(getHighNetworkOutReplicas(), CCInstanceType.M4_4X,
+        StorageVolumeType.ST1, true, true, BFDCapacityPlanner.BinCountSearch.PARALLEL, 4);
+
+    Assert.assertEquals(galloping.solve().size(), parallel.solve().size());
+
+    int smallestFeasible = Integer.MAX_VALUE;
+    for (BFDCapacityPlanner.BinCountProbe probe : parallel.getProbes()) {
+      if (probe.isFeasible()) {
+        smallestFeasible = Math.min(smallestFeasible, probe.getBinCount());
+      }
+    }
+
+    for (BFDCapacityPlanner.BinCountProbe probe : parallel.getProbes()) {
+      if (!probe.isFeasible() && !probe.isCancelled()) {
+        Assert.assertTrue(probe.getBinCount() < smallestFeasible);
+      }
+    }
+  }
+
+  @Test
+  public void testBrokersOpenedOnDemand() {
+    List<Replica> replicas = getHighNetworkOutReplicas();
+    BFDCapacityPlanner planner = new BFDCapacityPlanner(replicas, CCInstanceType.M4_4X, StorageVolumeType.ST1, true, false);
+    List<Broker> solution = planner.solve(replicas.size(), replicas);
+
+    Assert.assertEquals(115, solution.size());
+    for (int i = 0; i < solution.size(); i++) {
+      Assert.assertFalse(solution.get(i).isEmpty());
+      Assert.assertEquals(String.valueOf(i), solution.get(i).getId());
+    }
+  }
+
+  @Test
+  public void testDynamicWeights() {
+    BFDCapacityPlanner fixed = new BFDCapacityPlanner(getHighNetworkOutReplicas(), CCInstanceType.M4_4X,
+        StorageVolumeType.ST1, true, true, BFDCapacityPlanner.BinCountSearch.GALLOPING);
+    BFDCapacityPlanner dynamic = new BFDCapacityPlanner(getHighNetworkOutReplicas(), CCInstanceType.M4_4X,
+        StorageVolumeType.ST1, true, true, BFDCapacityPlanner.BinCountSearch.GALLOPING);
+    dynamic.setRekeyThreshold(0.05);
+
+    List<Replica> replicas = getHighNetworkOutReplicas();
+    List<Broker> solution = dynamic.solve();
+    int placed = 0;
+    for (Broker b : solution) {
+      placed += b.getReplicaCount();
+    }
+
+    Assert.assertEquals(replicas.size(), placed);
+    Assert.assertTrue(solution.size() <= fixed.solve().size());
+  }
 }
@@ -0,0 +1,119 @@
+package org.pathirage.thulitha;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import weka.classifiers.Classifier;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+public class CompiledStorageModelTest {
+
+  @Test
+  public void testHDDModelParityOnTrainingGrid() throws Exception {
+    assertParity(StoragePerfModel.hddPerfModel(), "hdd.arff");
+  }
+
+  @Test
+  public void testST1ModelParityOnTrainingGrid() throws Exception {
+    assertParity(StoragePerfModel.st1PerfModel(), "st1.arff");
+  }
+
+  @Test
+  public void testParallelPreload() {
+    StorageVolumeType.preloadModels(true);
+    Assert.assertSame(StoragePerfModel.hddModel(), StoragePerfModel.hddModel());
+    Assert.assertEquals(StoragePerfModel.st1Model().predict(50, 1, 0), StoragePerfModel.compiledSt1PerfModel().predict(50, 1, 0), 0.0);
+  }
+
+  @Test
+  public void testParityOnPlannerInputs() throws Exception {
+    for (Classifier classifier : new Classifier[]{StoragePerfModel.hddPerfModel(), StoragePerfModel.st1PerfModel()}) {
+      CompiledRegressionTree compiled = StoragePerfModelCompiler.compile(classifier);
+      Instances header = header();
+      for (int leaders = 0; leaders <= 24; leaders++) {
+        for (int followers = 0; followers <= 24; followers++) {
+          for (int writePct : new int[]{0, 1, 25, 49, 50, 51, 75, 99, 100, 10000}) {
+            DenseInstance instance = new DenseInstance(1.0, new double[]{writePct, leaders, followers, Double.NaN});
+            instance.setDataset(header);
+            Assert.assertEquals(classifier.classifyInstance(instance), compiled.predict(writePct, leaders, followers), 0.0);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testVolumeTypeLookupsDoNotAllocate() {
+    Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+    long checksum = lookUpGrid(); // loads the models and fills the prediction cache
+    long thread = Thread.currentThread().getId();
+    long before = threads.getThreadAllocatedBytes(thread);
+    for (int i = 0; i < 10; i++) {
+      checksum += lookUpGrid();
+    }
+    long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+    Assert.assertTrue(checksum > 0);
+    // Allows for the allocation counter itself, a boxed key per lookup would take megabytes
+    Assert.assertTrue("Lookups allocated " + allocated + " bytes", allocated < 4096);
+  }
+
+  private long lookUpGrid() {
+    long sum = 0;
+    for (StorageVolumeType type : new StorageVolumeType[]{StorageVolumeType.ST1, StorageVolumeType.D2HDD}) {
+      sum += type.getIOPS(128, 550);
+      for (int leaders = 0; leaders <= 24; leaders++) {
+        for (int followers = 0; followers <= 24; followers++) {
+          for (int writePct = 0; writePct <= 100; writePct++) {
+            sum += type.effectiveIOPS(128, 550, writePct, leaders, followers);
+          }
+        }
+      }
+    }
+
+    return sum;
+  }
+
+  private void assertParity(Classifier classifier, String arff) throws Exception {
+    CompiledRegressionTree compiled = StoragePerfModelCompiler.compile(classifier);
+    Assert.assertTrue(compiled.getNodeCount() > 1);
+
+    Instances data = load(arff);
+    Assert.assertTrue(data.numInstances() > 1000);
+    for (int i = 0; i < data.numInstances(); i++) {
+      double expected = classifier.classifyInstance(data.instance(i));
+      double actual = compiled.predict(data.instance(i).value(0), data.instance(i).value(1), data.instance(i).value(2));
+      Assert.assertEquals("Prediction mismatch for " + data.instance(i), expected, actual, 0.0);
+    }
+  }
+
+  private Instances load(String resource) throws IOException {
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(getClass().getClassLoader().getResourceAsStream(resource)))) {
+      Instances data = new Instances(reader);
+      data.setClassIndex(data.numAttributes() - 1);
+      return data;
+    }
+  }
+
+  private Instances header() {
+    ArrayList<Attribute> attributes = new ArrayList<>();
+    attributes.add(new Attribute("writepct"));
+    attributes.add(new Attribute("leaders"));
+    attributes.add(new Attribute("followers"));
+    attributes.add(new Attribute("iops"));
+    Instances header = new Instances("test", attributes, 0);
+    header.setClassIndex(3);
+    return header;
+  }
+}
@@ -0,0 +1,76 @@
+package org.pathirage.thulitha;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.pathirage.thulitha.utils.ConcurrentLongIntMap;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class ConcurrentLongIntMapTest {
+
+  @Test
+  public void testMatchesHashMap() {
+    ConcurrentLongIntMap map = new ConcurrentLongIntMap();
+    Map<Long, Integer> expected = new HashMap<>();
+    Random random = new Random(5);
+
+    // Enough keys to grow the table a few times, including the zero key
+    for (int i = 0; i < 50000; i++) {
+      long key = random.nextInt(20000);
+      int value = random.nextInt();
+      Assert.assertEquals(expected.putIfAbsent(key, value) == null, map.putIfAbsent(key, value));
+      Assert.assertEquals(expected.size(), map.size());
+    }
+
+    for (long key = 0; key < 20000; key++) {
+      Assert.assertEquals(expected.containsKey(key), map.containsKey(key));
+      Assert.assertEquals(expected.getOrDefault(key, -1).intValue(), map.get(key, -1));
+    }
+
+    map.clear();
+    Assert.assertEquals(0, map.size());
+    Assert.assertFalse(map.containsKey(0));
+  }
+
+  @Test
+  public void testLookupsDuringInserts() throws Exception {
+    ConcurrentLongIntMap map = new ConcurrentLongIntMap();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      Future<?> writer = executor.submit(() -> {
+        for (int key = 0; key < 200000; key++) {
+          map.putIfAbsent(key, key * 7);
+        }
+      });
+      Future<?>[] readers = new Future<?>[3];
+      for (int r = 0; r < readers.length; r++) {
+        readers[r] = executor.submit(() -> {
+          Random random = new Random();
+          while (!writer.isDone()) {
+            long key = random.nextInt(200000);
+            int value = map.get(key, -1);
+            if (value != -1 && value != key * 7) {
+              throw new AssertionError("Key " + key + " mapped to " + value);
+            }
+          }
+        });
+      }
+
+      writer.get(30, TimeUnit.SECONDS);
+      for (Future<?> reader : readers) {
+        reader.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    Assert.assertEquals(200000, map.size());
+    Assert.assertEquals(7 * 199999, map.get(199999, -1));
+  }
+}
@@ -0,0 +1,75 @@
+package org.pathirage.thulitha;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class FeasibilityKernelTest extends BaseTest {
+
+  @Test
+  public void testMatchesPerBrokerChecks() {
+    List<Broker> brokers = new ArrayList<>();
+    for (int i = 0; i < 23; i++) {
+      brokers.add(new Broker(String.valueOf(i), CCInstanceType.M4_2X, StorageVolumeType.ST1STATIC, 128, false));
+    }
+
+    FeasibilityKernel kernel = new FeasibilityKernel(2);
+    for (Broker b : brokers) {
+      kernel.add(b.getRemainingCapacity());
+    }
+
+    double[] weights = new double[FeasibilityKernel.DIMENSIONS];
+    for (int d = 0; d < weights.length; d++) {
+      weights[d] = 1.0 / brokers.get(0).getCapacity()[d];
+    }
+
+    Random random = new Random(5);
+    long[] demand = new long[FeasibilityKernel.DIMENSIONS];
+    for (Replica r : getHighNetworkOutReplicas()) {
+      FeasibilityKernel.demand(brokers.get(0), r, demand);
+
+      int first = -1;
+      int best = -1;
+      double bestSlack = Double.POSITIVE_INFINITY;
+      for (int i = 0; i < brokers.size(); i++) {
+        if (!fits(brokers.get(i), demand)) {
+          continue;
+        }
+
+        if (first < 0) {
+          first = i;
+        }
+
+        double slack = 0;
+        for (int d = 0; d < demand.length; d++) {
+          slack += weights[d] * (brokers.get(i).getRemainingCapacity(d) - demand[d]);
+        }
+        if (slack < bestSlack) {
+          bestSlack = slack;
+          best = i;
+        }
+      }
+
+      Assert.assertEquals(first, kernel.firstFeasible(demand, 0));
+      Assert.assertEquals(best, kernel.bestFeasible(demand, weights));
+
+      int position = random.nextInt(brokers.size());
+      if (brokers.get(position).add(r)) {
+        kernel.update(position, brokers.get(position).getRemainingCapacity());
+      }
+    }
+  }
+
+  private static boolean fits(Broker b, long[] demand) {
+    for (int d = 0; d < demand.length; d++) {
+      if (demand[d] > b.getRemainingCapacity(d)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+}
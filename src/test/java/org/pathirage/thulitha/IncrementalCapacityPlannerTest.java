@@ -0,0 +1,61 @@
+package org.pathirage.thulitha;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.pathirage.thulitha.utils.Topic;
+
+import java.util.List;
+
+public class IncrementalCapacityPlannerTest extends BaseTest {
+
+  private List<Broker> plan() {
+    return new BFDCapacityPlanner(getHighNetworkOutReplicas(), CCInstanceType.M4_4X, StorageVolumeType.ST1, true, true,
+        BFDCapacityPlanner.BinCountSearch.GALLOPING).solve();
+  }
+
+  @Test
+  public void testAddAndRemoveTopic() {
+    List<Broker> brokers = plan();
+    int replicas = getHighNetworkOutReplicas().size();
+    IncrementalCapacityPlanner planner = new IncrementalCapacityPlanner(brokers, CCInstanceType.M4_4X, StorageVolumeType.ST1);
+    double cost = planner.getHourlyCost();
+
+    Topic topic = new Topic("t7", 2000000, 234, 60, 3, 2, 1, new int[]{4000000}, 20, 2, false);
+    IncrementalCapacityPlanner.Change added = planner.addTopic(topic);
+    Assert.assertEquals(180, added.getReplicaCount());
+    Assert.assertEquals(brokers.size() + added.getMarginalBrokers(), planner.getBrokers().size());
+    Assert.assertEquals(cost + added.getMarginalHourlyCost(), planner.getHourlyCost(), 1e-6);
+    assertValidPlan(planner.getBrokers(), replicas + 180);
+
+    IncrementalCapacityPlanner.Change removed = planner.removeTopic("t7");
+    Assert.assertEquals(180, removed.getReplicaCount());
+    Assert.assertEquals(-added.getMarginalBrokers(), removed.getMarginalBrokers());
+    Assert.assertEquals(cost, planner.getHourlyCost(), 1e-6);
+    assertValidPlan(planner.getBrokers(), replicas);
+    Assert.assertFalse(planner.getTopics().contains("t7"));
+  }
+
+  @Test
+  public void testOpensBrokersWhenPlanIsFull() {
+    List<Broker> brokers = plan();
+    IncrementalCapacityPlanner planner = new IncrementalCapacityPlanner(brokers, CCInstanceType.M4_4X, StorageVolumeType.ST1);
+
+    // Every replica of this topic needs most of a broker's network out bandwidth
+    Topic heavy = new Topic("heavy", 1000000, 1000, 20, 2, 2, 0, new int[0], 20, 1, true);
+    IncrementalCapacityPlanner.Change change = planner.addTopic(heavy);
+    Assert.assertTrue(change.getMarginalBrokers() > 0);
+    Assert.assertTrue(change.getMarginalHourlyCost() > 0);
+    for (Broker b : change.getOpenedBrokers()) {
+      Assert.assertTrue(planner.getBrokers().contains(b));
+    }
+
+    Assert.assertEquals(change.getMarginalBrokers(), planner.removeTopic("heavy").getReleasedBrokers().size());
+    Assert.assertEquals(brokers.size(), planner.getBrokers().size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsPlannedTopic() {
+    IncrementalCapacityPlanner planner = new IncrementalCapacityPlanner(plan(), CCInstanceType.M4_4X, StorageVolumeType.ST1);
+    planner.addTopic(new Topic("t1", 1000000, 234, 70, 2, 4, 0, new int[0], 20, 2, false));
+  }
+}
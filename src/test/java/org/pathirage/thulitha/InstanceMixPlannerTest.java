@@ -0,0 +1,67 @@
+package org.pathirage.thulitha;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.pathirage.thulitha.workloads.WorkloadGenerator;
+import org.pathirage.thulitha.workloads.WorkloadGeneratorConfig;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class InstanceMixPlannerTest extends BaseTest {
+
+  private static final List<BrokerType> TYPES = Arrays.asList(
+      new BrokerType(CCInstanceType.M4_2X, StorageVolumeType.ST1),
+      new BrokerType(CCInstanceType.M4_4X, StorageVolumeType.ST1),
+      new BrokerType(CCInstanceType.M4_10X, StorageVolumeType.ST1),
+      new BrokerType(CCInstanceType.D2_2X, StorageVolumeType.D2HDD));
+
+  @Test
+  public void testNeverCostlierThanHomogeneous() {
+    List<Replica> replicas = getHighNetworkOutReplicas();
+    InstanceMixPlanner.Result result = new InstanceMixPlanner(replicas, TYPES, 2).plan();
+
+    Assert.assertNotNull(result.getHomogeneousType());
+    Assert.assertTrue(result.getHourlyCost() <= result.getHomogeneousHourlyCost() + 1e-9);
+    assertValidPlan(result.getBrokers(), replicas.size());
+    assertConsistentCounts(result);
+  }
+
+  @Test
+  public void testMixBeatsHomogeneous() {
+    // A D2 plan with a couple of M4 brokers taking the replicas D2 brokers host worst
+    List<Replica> replicas = new WorkloadGenerator(new WorkloadGeneratorConfig(null)).run(3000, 3);
+    InstanceMixPlanner.Result result = new InstanceMixPlanner(replicas, TYPES, 2).plan();
+
+    Assert.assertTrue(result.getHourlyCost() < result.getHomogeneousHourlyCost() - 0.1);
+    Assert.assertTrue(result.getBrokerCounts().size() > 1);
+    assertValidPlan(result.getBrokers(), replicas.size());
+    assertConsistentCounts(result);
+
+    for (Broker b : result.getBrokers()) {
+      Assert.assertFalse(b.isEmpty());
+      Broker replayed = b.copy(b.getId());
+      Assert.assertArrayEquals(b.getRemainingCapacity(), replayed.getRemainingCapacity());
+      Assert.assertEquals(b.getHourlyCost(), replayed.getHourlyCost(), 1e-9);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testIncompatibleVolumeType() {
+    new BrokerType(CCInstanceType.M4_2X, StorageVolumeType.D2HDD);
+  }
+
+  private static void assertConsistentCounts(InstanceMixPlanner.Result result) {
+    double cost = 0;
+    int brokers = 0;
+    for (Broker b : result.getBrokers()) {
+      cost += b.getHourlyCost();
+    }
+    for (int count : result.getBrokerCounts().values()) {
+      brokers += count;
+    }
+
+    Assert.assertEquals(result.getBrokers().size(), brokers);
+    Assert.assertEquals(cost, result.getHourlyCost(), 1e-9);
+  }
+}
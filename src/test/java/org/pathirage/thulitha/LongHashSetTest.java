@@ -0,0 +1,44 @@
+package org.pathirage.thulitha;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.pathirage.thulitha.utils.LongHashSet;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+public class LongHashSetTest {
+
+  @Test
+  public void testMatchesHashSet() {
+    LongHashSet set = new LongHashSet();
+    Set<Long> expected = new HashSet<>();
+    Random random = new Random(3);
+
+    for (int i = 0; i < 100000; i++) {
+      // Small key range so that adds, removes and collisions overlap, including the zero key
+      long key = random.nextInt(2000) - 10;
+      if (random.nextInt(3) == 0) {
+        Assert.assertEquals(expected.remove(key), set.remove(key));
+      } else {
+        Assert.assertEquals(expected.add(key), set.add(key));
+      }
+      Assert.assertEquals(expected.size(), set.size());
+    }
+
+    for (long key = -10; key < 1990; key++) {
+      Assert.assertEquals(expected.contains(key), set.contains(key));
+    }
+  }
+
+  @Test
+  public void testTopicPartitionKey() {
+    Replica leader = new Replica("t1", 11, 0, 1, 1, 1, 1, 1, 0, 100, 1, new int[0]);
+    Replica follower = new Replica("t1", 11, 1, 1, 1, 1, 1, 1, 0, 100, 1, new int[0]);
+    Replica other = new Replica("t11", 1, 0, 1, 1, 1, 1, 1, 0, 100, 1, new int[0]);
+
+    Assert.assertEquals(leader.getTopicPartitionKey(), follower.getTopicPartitionKey());
+    Assert.assertNotEquals(leader.getTopicPartitionKey(), other.getTopicPartitionKey());
+  }
+}
@@ -0,0 +1,78 @@
+package org.pathirage.thulitha;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class LowerBoundsTest extends BaseTest {
+
+  @Test
+  public void testMartelloToth() {
+    // Total size fits two bins but no two of the large items share one
+    Assert.assertEquals(3, LowerBounds.martelloToth(new long[]{1, 6, 6, 6}, 10));
+    // Items of size 4 do not fit next to the large ones, so they need two more bins although the total is 33
+    Assert.assertEquals(5, LowerBounds.martelloToth(new long[]{4, 4, 4, 7, 7, 7}, 10));
+    Assert.assertEquals(2, LowerBounds.martelloToth(new long[]{2, 3, 5, 5}, 10));
+    Assert.assertEquals(0, LowerBounds.martelloToth(new long[0], 10));
+  }
+
+  @Test
+  public void testReplicationFactorBound() {
+    Assert.assertEquals(3, LowerBounds.maxReplicasPerPartition(new long[]{4, 1, 4, 2, 4, 1}));
+  }
+
+  @Test
+  public void testBoundsDoNotExceedSolution() {
+    List<Replica> replicas = getHighNetworkOutReplicas();
+    for (CCInstanceType t : new CCInstanceType[]{CCInstanceType.M4_4X, CCInstanceType.M4_10X, CCInstanceType.D2_8X}) {
+      StorageVolumeType volumeType = t == CCInstanceType.D2_8X ? StorageVolumeType.D2HDD : StorageVolumeType.ST1;
+      BFDCapacityPlanner planner = new BFDCapacityPlanner(replicas, t, volumeType, true, true,
+          BFDCapacityPlanner.BinCountSearch.LINEAR);
+      LowerBounds.Bounds bounds = new LowerBounds(t, volumeType, 128).compute(replicas);
+
+      Assert.assertEquals(bounds.getBrokerCount(), planner.lowestPossibleBrokersRequired());
+      Assert.assertEquals(bounds.getBrokerCount(),
+          new LowerBounds(t, volumeType, 128).compute(ReplicaTable.fromReplicas(replicas)).getBrokerCount());
+      Assert.assertTrue(bounds.getBrokerCount() <= planner.solve().size());
+    }
+  }
+
+  @Test
+  public void testStorageBoundWithGrowingBrokers() {
+    // Each replica takes most of an ST1 volume, brokers open more volumes than their initial limit to host them
+    List<Replica> replicas = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      replicas.add(new Replica("large", i, 0, 1, 9000000, 1, 1, 1, 0, 1024, 1, new int[0]));
+    }
+
+    // Next fit packing independent of the bound, BFD starts its search from the bound
+    List<Broker> brokers = new ArrayList<>();
+    for (Replica r : replicas) {
+      if (brokers.isEmpty() || !brokers.get(brokers.size() - 1).add(r)) {
+        Broker b = new Broker(String.valueOf(brokers.size()), CCInstanceType.M4_4X, StorageVolumeType.ST1, 128, false);
+        Assert.assertTrue(b.add(r));
+        brokers.add(b);
+      }
+    }
+
+    BFDCapacityPlanner planner = new BFDCapacityPlanner(replicas, CCInstanceType.M4_4X, StorageVolumeType.ST1, true,
+        true, BFDCapacityPlanner.BinCountSearch.LINEAR);
+    Assert.assertTrue(planner.lowestPossibleBrokersRequired() <= brokers.size());
+    Assert.assertTrue(planner.lowestPossibleBrokersRequired() <= planner.solve().size());
+  }
+
+  @Test
+  public void testVolumeLimits() {
+    Assert.assertEquals(0, LowerBounds.maxVolumesPerBroker(CCInstanceType.M4_4X, StorageVolumeType.ST1, 128));
+    Assert.assertEquals(CCInstanceType.D2_8X.getLocalDiskCount(),
+        LowerBounds.maxVolumesPerBroker(CCInstanceType.D2_8X, StorageVolumeType.D2HDD, 128));
+    int volumes = LowerBounds.maxVolumesPerBroker(CCInstanceType.M4_16X, StorageVolumeType.ST1STATIC, 128);
+    Broker broker = new Broker("0", CCInstanceType.M4_16X, StorageVolumeType.ST1STATIC, 128, false);
+    for (int i = 0; i < 4 * volumes; i++) {
+      broker.add(new Replica("large", i, 0, 1, 9000000, 1, 1, 1, 0, 1024, 1, new int[0]));
+    }
+    Assert.assertTrue(broker.getStorageVolumeCount() <= volumes);
+  }
+}
@@ -0,0 +1,156 @@
+package org.pathirage.thulitha;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.junit.Assert;
+import org.junit.Test;
+import org.pathirage.thulitha.utils.Topic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class PlanDiffTest extends BaseTest {
+
+  private List<Broker> plan() {
+    return new BFDCapacityPlanner(getHighNetworkOutReplicas(), CCInstanceType.M4_4X, StorageVolumeType.ST1, true, true,
+        BFDCapacityPlanner.BinCountSearch.GALLOPING).solve();
+  }
+
+  @Test
+  public void testRenamedBrokersAreMatched() {
+    List<Broker> current = plan();
+    List<Broker> proposed = new ArrayList<>();
+    for (int i = current.size() - 1; i >= 0; i--) {
+      Broker copy = new Broker("p" + i, CCInstanceType.M4_4X, StorageVolumeType.ST1, 128, false);
+      for (Replica r : current.get(i).getReplicas()) {
+        Assert.assertTrue(copy.add(r));
+      }
+      proposed.add(copy);
+    }
+
+    PlanDiff diff = PlanDiff.compute(current, proposed);
+    Assert.assertTrue(diff.getMoves().isEmpty());
+    Assert.assertTrue(diff.getReassignments().isEmpty());
+    Assert.assertTrue(diff.getAddedBrokers().isEmpty());
+    Assert.assertTrue(diff.getRemovedBrokers().isEmpty());
+    for (int i = 0; i < current.size(); i++) {
+      Assert.assertEquals(current.get(i).getId(), diff.getBrokerId(proposed.get(current.size() - 1 - i)));
+    }
+  }
+
+  @Test
+  public void testRebalancedPlan() {
+    List<Broker> current = plan();
+    List<Broker> proposed = plan();
+    for (int i = 0; i < 5; i++) {
+      proposed.add(new Broker("extra-" + i, CCInstanceType.M4_4X, StorageVolumeType.ST1, 128, false));
+    }
+    Rebalancer.Result result = new Rebalancer(proposed).rebalance();
+
+    PlanDiff diff = PlanDiff.compute(current, proposed);
+    Assert.assertEquals(result.getMoves().size(), diff.getMoves().size());
+    Assert.assertEquals(result.getMovedMB(), diff.getMovedMB());
+    Assert.assertEquals(5, diff.getAddedBrokers().size());
+    Assert.assertTrue(diff.getRemovedBrokers().isEmpty());
+    Assert.assertEquals(String.valueOf(current.size()), diff.getBrokerId(proposed.get(current.size())));
+
+    long in = 0;
+    long out = 0;
+    for (Broker b : proposed) {
+      in += diff.getInboundMB(diff.getBrokerId(b));
+      out += diff.getOutboundMB(diff.getBrokerId(b));
+    }
+    Assert.assertEquals(diff.getMovedMB(), in);
+    Assert.assertEquals(diff.getMovedMB(), out);
+
+    Config json = ConfigFactory.parseString(diff.toKafkaReassignmentJson());
+    Assert.assertEquals(1, json.getInt("version"));
+    Assert.assertEquals(diff.getReassignments().size(), json.getConfigList("partitions").size());
+    Config rollback = ConfigFactory.parseString(diff.toKafkaRollbackJson());
+    Assert.assertEquals(diff.getReassignments().size(), rollback.getConfigList("partitions").size());
+    Assert.assertEquals(diff.getMoves().size() + 1, diff.toCsv().split("\n").length);
+  }
+
+  @Test
+  public void testTopicChanges() {
+    List<Broker> current = brokers(3, new Topic("t", 100000, 234, 2, 1, 1, 0, new int[0], 20, 1, false),
+        new Topic("gone", 100000, 234, 1, 1, 1, 0, new int[0], 20, 1, false));
+    List<Broker> proposed = brokers(3, new Topic("t", 100000, 234, 2, 2, 1, 0, new int[0], 20, 1, false),
+        new Topic("new", 100000, 234, 1, 1, 1, 0, new int[0], 20, 1, false));
+
+    PlanDiff diff = PlanDiff.compute(current, proposed);
+    Assert.assertEquals(Arrays.asList("new:0"), diff.getCreatedPartitions());
+    Assert.assertEquals(Arrays.asList("gone:0"), diff.getDeletedPartitions());
+
+    // Both partitions of t gain a follower that copies from the leader
+    Assert.assertEquals(2, diff.getReassignments().size());
+    for (PlanDiff.PartitionReassignment r : diff.getReassignments()) {
+      Assert.assertEquals(1, r.getCurrentReplicas().size());
+      Assert.assertEquals(2, r.getProposedReplicas().size());
+      Assert.assertEquals(r.getCurrentReplicas().get(0), r.getProposedReplicas().get(0));
+    }
+    Assert.assertEquals(2, diff.getMoves().size());
+  }
+
+  @Test
+  public void testReorderedReplicasCopyNothing() {
+    // Broker i hosts replica ids[i] of t-0, besides a larger replica of its own that anchors the broker matching
+    int[] current = {1, 2, 0};
+    int[] proposed = {2, 1, 0};
+    PlanDiff diff = PlanDiff.compute(brokersHosting(current, "", 1000), brokersHosting(proposed, "p", 1000));
+
+    Assert.assertEquals(1, diff.getReassignments().size());
+    PlanDiff.PartitionReassignment r = diff.getReassignments().get(0);
+    Assert.assertEquals(Arrays.asList("3", "1", "2"), r.getCurrentReplicas());
+    Assert.assertEquals(Arrays.asList("3", "2", "1"), r.getProposedReplicas());
+    Assert.assertTrue(diff.getMoves().isEmpty());
+    Assert.assertEquals(0, diff.getMovedMB());
+
+    // Moving the follower on broker 2 to a new broker copies one replica, from broker 2
+    List<Broker> grown = brokersHosting(new int[]{1, -1, 0, 2}, "p", 1000);
+    diff = PlanDiff.compute(brokersHosting(current, "", 1000), grown);
+    Assert.assertEquals(1, diff.getMoves().size());
+    Assert.assertEquals("2", diff.getMoves().get(0).getFrom());
+    Assert.assertEquals("4", diff.getMoves().get(0).getTo());
+    Assert.assertEquals(1000, diff.getMovedMB());
+    Assert.assertEquals(1000, diff.getOutboundMB("2"));
+    Assert.assertEquals(1000, diff.getInboundMB("4"));
+  }
+
+  /**
+   * Brokers 1..n, broker i hosting replica <code>replicaIds[i - 1]</code> of t-0 (none if negative) and its own anchor
+   * replica.
+   */
+  private static List<Broker> brokersHosting(int[] replicaIds, String prefix, long mb) {
+    List<Broker> brokers = new ArrayList<>();
+    for (int i = 0; i < replicaIds.length; i++) {
+      Broker b = new Broker(prefix + (i + 1), CCInstanceType.M4_4X, StorageVolumeType.ST1, 128, false);
+      Assert.assertTrue(b.add(new Replica("anchor" + i, 0, 0, 1, 10 * mb, 1, 1, 1, 0, 1024, 1, new int[0])));
+      if (replicaIds[i] >= 0) {
+        Assert.assertTrue(b.add(new Replica("t", 0, replicaIds[i], 1, mb, 1, 1, 1, 0, 1024, 1, new int[0])));
+      }
+      brokers.add(b);
+    }
+
+    return brokers;
+  }
+
+  /**
+   * Replicas spread round robin over numbered brokers, replicas of a partition on consecutive brokers.
+   */
+  private static List<Broker> brokers(int count, Topic... topics) {
+    List<Broker> brokers = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      brokers.add(new Broker(String.valueOf(i), CCInstanceType.M4_4X, StorageVolumeType.ST1, 128, false));
+    }
+
+    for (Topic topic : topics) {
+      for (Replica r : topic.getReplicas()) {
+        Assert.assertTrue(brokers.get((r.getPartition() + r.getId()) % count).add(r));
+      }
+    }
+
+    return brokers;
+  }
+}
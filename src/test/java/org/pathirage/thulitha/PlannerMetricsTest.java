@@ -0,0 +1,70 @@
+package org.pathirage.thulitha;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+public class PlannerMetricsTest extends BaseTest {
+
+  @Before
+  public void setUp() {
+    Assume.assumeTrue(PlannerMetrics.ENABLED);
+    PlannerMetrics.get().reset();
+  }
+
+  @Test
+  public void testSolveCounters() {
+    List<Replica> replicas = getHighNetworkOutReplicas();
+    BFDCapacityPlanner planner = new BFDCapacityPlanner(replicas, CCInstanceType.M4_4X, StorageVolumeType.ST1, true, true,
+        BFDCapacityPlanner.BinCountSearch.GALLOPING, 1);
+    List<Broker> solution = planner.solve();
+
+    PlannerMetrics metrics = PlannerMetrics.get();
+    Assert.assertEquals(1, metrics.getSolves());
+    Assert.assertEquals(planner.getIterations(), metrics.getBinCountProbes());
+    Assert.assertEquals(planner.getIterations(), metrics.getSorts());
+    Assert.assertTrue(metrics.getAddAttempts() - metrics.getAddFailures() >= replicas.size());
+    Assert.assertTrue(metrics.getModelLookups() > 0);
+
+    long rejections = 0;
+    for (long r : metrics.getAddRejections().values()) {
+      rejections += r;
+    }
+    Assert.assertEquals(metrics.getAddFailures(), rejections);
+    // Replicas that reached volume selection either got a volume or were turned down for the lack of one
+    long volumeRejections = metrics.getAddRejections().get("volume");
+    Assert.assertEquals(metrics.getAddAttempts() - metrics.getAddFailures() + volumeRejections,
+        metrics.getVolumeFeasibilityChecks());
+
+    PlannerMetrics.SolveSummary summary = metrics.getRecentSolves().get(0);
+    Assert.assertEquals(replicas.size(), summary.getReplicas());
+    Assert.assertEquals(solution.size(), summary.getBrokers());
+    Assert.assertEquals(planner.getIterations(), summary.getProbes());
+    Assert.assertTrue(summary.getPhaseMicros(PlannerMetrics.Phase.PACKING) > 0);
+    Assert.assertTrue(summary.getPhaseMicros(PlannerMetrics.Phase.PACKING) <= summary.getElapsedMicros());
+  }
+
+  @Test
+  public void testDumpAndJMX() throws Exception {
+    new BFDCapacityPlanner(getNoReplayAndSingleConsumer(), CCInstanceType.M4_4X, StorageVolumeType.ST1, true, true,
+        BFDCapacityPlanner.BinCountSearch.GALLOPING, 1).solve();
+
+    Config dump = ConfigFactory.parseString(PlannerMetrics.get().dump());
+    Assert.assertEquals(1, dump.getLong("solves"));
+    Assert.assertEquals(PlannerMetrics.get().getAddAttempts(), dump.getLong("brokerAdds.attempts"));
+    Assert.assertEquals(1, dump.getConfigList("recentSolves").size());
+    Assert.assertEquals("M4_4X", dump.getConfigList("recentSolves").get(0).getString("instanceType"));
+
+    PlannerMetrics.register();
+    PlannerMetrics.register();
+    Object solves = ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName(PlannerMetrics.OBJECT_NAME), "Solves");
+    Assert.assertEquals(1L, solves);
+  }
+}
@@ -0,0 +1,173 @@
+package org.pathirage.thulitha;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.pathirage.thulitha.utils.Topic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class PlannerServerTest {
+  private static final String TOPICS = "topics: [" +
+      "{name: t1, produceRate: 1000000, avgMessageSize: 234, partitions: 70, replicationFactor: 2, consumers: 4, replayRates: [3000000, 4000000], retentionHours: 2}," +
+      "{name: t2, produceRate: 2000000, avgMessageSize: 234, partitions: 80, replicationFactor: 2, consumers: 3, replayRates: [4000000], retentionHours: 2}]";
+
+  private PlannerServer server;
+  private int port;
+
+  @Before
+  public void start() {
+    server = new PlannerServer();
+    server.port = 0;
+    server.maxConcurrentRequests = 2;
+    port = server.start();
+  }
+
+  @After
+  public void stop() {
+    server.stop();
+  }
+
+  @Test
+  public void testPlan() throws IOException {
+    Response response = post("/plan", "{instanceType: M4_4X, includeAssignment: true, " + TOPICS + "}");
+    Assert.assertEquals(200, response.status);
+
+    List<Replica> replicas = new ArrayList<>();
+    replicas.addAll(new Topic("t1", 1000000, 234, 70, 2, 4, 2, new int[]{3000000, 4000000}, 20, 2, false).getReplicas());
+    replicas.addAll(new Topic("t2", 2000000, 234, 80, 2, 3, 1, new int[]{4000000}, 20, 2, false).getReplicas());
+    List<Broker> expected = new BFDCapacityPlanner(replicas, CCInstanceType.M4_4X, StorageVolumeType.ST1, true, true,
+        BFDCapacityPlanner.BinCountSearch.GALLOPING).solve();
+
+    Assert.assertEquals(replicas.size(), response.body.getInt("replicas"));
+    Assert.assertEquals(expected.size(), response.body.getInt("brokers"));
+    Assert.assertTrue(response.body.getInt("lowerBound") <= expected.size());
+    Assert.assertEquals(expected.size(), response.body.getObject("assignment").size());
+  }
+
+  @Test
+  public void testWhatIfAndMetrics() throws IOException {
+    Response response = post("/whatif", "{instanceType: M4_4X, " + TOPICS + ", removeTopics: [t2], " +
+        "addTopics: [{name: t3, produceRate: 1000000, avgMessageSize: 234, partitions: 10, replicationFactor: 3, retentionHours: 1}]}");
+    Assert.assertEquals(200, response.status);
+    Assert.assertEquals(2, response.body.getConfigList("changes").size());
+    Assert.assertEquals("remove", response.body.getConfigList("changes").get(0).getString("action"));
+    Assert.assertEquals(30, response.body.getConfigList("changes").get(1).getInt("replicas"));
+
+    Assert.assertEquals(400, post("/plan", "{instanceType: NOT_AN_INSTANCE, " + TOPICS + "}").status);
+    Assert.assertEquals(400, post("/plan", "{instanceType: M4_4X}").status);
+    Assert.assertEquals(405, get("/plan").status);
+
+    Response metrics = get("/metrics");
+    Assert.assertEquals(200, metrics.status);
+    Assert.assertEquals(1, metrics.body.getInt("endpoints.\"/whatif\".count"));
+    Assert.assertEquals(3, metrics.body.getInt("endpoints.\"/plan\".errors"));
+    Assert.assertEquals(0, metrics.body.getInt("inFlight"));
+  }
+
+  @Test
+  public void testRebalanceAssignment() throws IOException {
+    String assignment = "assignment: {a: [\"t:0:0\", \"t:1:0\"], b: []}";
+    String topics = "topics: [{name: t, produceRate: 100000, avgMessageSize: 234, partitions: 2, replicationFactor: 1, retentionHours: 1}]";
+    Response response = post("/rebalance", "{instanceType: M4_4X, " + topics + ", " + assignment + "}");
+    Assert.assertEquals(200, response.status);
+    Assert.assertEquals(1, response.body.getConfigList("moves").size());
+    Assert.assertEquals("b", response.body.getConfigList("moves").get(0).getString("to"));
+
+    Assert.assertEquals(400, post("/rebalance", "{instanceType: M4_4X, " + topics + ", assignment: {a: [\"t:0:0\"]}}").status);
+  }
+
+  @Test
+  public void testSaturatedPlanningLeavesHealthChecksThrough() throws Exception {
+    server.stop();
+    server = new PlannerServer();
+    server.port = 0;
+    server.maxConcurrentRequests = 1;
+    server.acquireTimeoutMillis = 60000;
+    port = server.start();
+
+    // One request plans a large workload while a second one waits for its slot
+    ExecutorService clients = Executors.newFixedThreadPool(2);
+    try {
+      String slow = "{instanceType: M4_2X, workload: {replicas: 40000, seed: 1}}";
+      Future<Response> planning = clients.submit(() -> post("/plan", slow));
+      awaitMetric("inFlight", 1);
+      Future<Response> queued = clients.submit(() -> post("/plan", slow));
+      awaitMetric("waiting", 1);
+
+      Assert.assertEquals(503, post("/plan", slow).status);
+      Assert.assertEquals(503, post("/whatif", "{instanceType: M4_4X, " + TOPICS + "}").status);
+      Assert.assertEquals(200, get("/health").status);
+      Response metrics = get("/metrics");
+      Assert.assertEquals(1, metrics.body.getInt("inFlight"));
+      Assert.assertEquals(1, metrics.body.getInt("waiting"));
+
+      Assert.assertEquals(200, planning.get().status);
+      Assert.assertEquals(200, queued.get().status);
+      Assert.assertEquals(1, get("/metrics").body.getInt("endpoints.\"/plan\".rejected"));
+    } finally {
+      clients.shutdownNow();
+    }
+  }
+
+  private void awaitMetric(String path, int value) throws IOException, InterruptedException {
+    long deadline = System.currentTimeMillis() + 30000;
+    while (get("/metrics").body.getInt(path) != value) {
+      Assert.assertTrue("Timed out waiting for " + path + " to reach " + value, System.currentTimeMillis() < deadline);
+      Thread.sleep(5);
+    }
+  }
+
+  private Response post(String path, String body) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + path).openConnection();
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    try (OutputStream out = connection.getOutputStream()) {
+      out.write(body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    return read(connection);
+  }
+
+  private Response get(String path) throws IOException {
+    return read((HttpURLConnection) new URL("http://127.0.0.1:" + port + path).openConnection());
+  }
+
+  private static Response read(HttpURLConnection connection) throws IOException {
+    int status = connection.getResponseCode();
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = in.read(buffer)) > 0) {
+        body.write(buffer, 0, read);
+      }
+    }
+
+    return new Response(status, ConfigFactory.parseString(new String(body.toByteArray(), StandardCharsets.UTF_8)));
+  }
+
+  private static class Response {
+    final int status;
+    final Config body;
+
+    Response(int status, Config body) {
+      this.status = status;
+      this.body = body;
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package org.pathirage.thulitha;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class RebalancerTest extends BaseTest {
+
+  @Test
+  public void testRebalanceOntoNewBrokers() {
+    List<Replica> replicas = getHighNetworkOutReplicas();
+    List<Broker> brokers = new BFDCapacityPlanner(replicas, CCInstanceType.M4_4X, StorageVolumeType.ST1, true, true,
+        BFDCapacityPlanner.BinCountSearch.GALLOPING).solve();
+    int packed = brokers.size();
+    for (int i = 0; i < 10; i++) {
+      brokers.add(new Broker("extra-" + i, CCInstanceType.M4_4X, StorageVolumeType.ST1, 128, false));
+    }
+
+    Map<Replica, Broker> originalHosts = new IdentityHashMap<>();
+    for (Broker b : brokers) {
+      for (Replica r : b.getReplicas()) {
+        originalHosts.put(r, b);
+      }
+    }
+
+    Rebalancer rebalancer = new Rebalancer(brokers);
+    rebalancer.setTargetSpread(0.01);
+    Rebalancer.Result result = rebalancer.rebalance();
+
+    Assert.assertFalse(result.getMoves().isEmpty());
+    Assert.assertTrue(result.getFinalSpread() < result.getInitialSpread());
+    for (int i = packed; i < brokers.size(); i++) {
+      Assert.assertFalse(brokers.get(i).isEmpty());
+    }
+
+    // Net moves: one per replica, from its original broker to the one hosting it now
+    Set<Replica> movedReplicas = Collections.newSetFromMap(new IdentityHashMap<>());
+    long movedMB = 0;
+    for (Rebalancer.Move move : result.getMoves()) {
+      Assert.assertTrue(movedReplicas.add(move.getReplica()));
+      Assert.assertSame(originalHosts.get(move.getReplica()), move.getFrom());
+      Assert.assertNotSame(move.getFrom(), move.getTo());
+      Assert.assertTrue(move.getTo().getReplicas().contains(move.getReplica()));
+      movedMB += move.getReplica().getDimension(1);
+    }
+    Assert.assertEquals(movedMB, result.getMovedMB());
+    Assert.assertTrue(result.getSteps() >= result.getMoves().size());
+    for (Broker b : brokers) {
+      for (Replica r : b.getReplicas()) {
+        Assert.assertTrue(movedReplicas.contains(r) || originalHosts.get(r) == b);
+      }
+    }
+
+    assertValidPlan(brokers, replicas.size());
+  }
+
+  @Test
+  public void testZeroBudgetMakesNoMoves() {
+    List<Broker> brokers = new BFDCapacityPlanner(getHighNetworkOutReplicas(), CCInstanceType.M4_4X,
+        StorageVolumeType.ST1, true, true, BFDCapacityPlanner.BinCountSearch.GALLOPING).solve();
+    brokers.add(new Broker("extra", CCInstanceType.M4_4X, StorageVolumeType.ST1, 128, false));
+
+    Rebalancer rebalancer = new Rebalancer(brokers);
+    rebalancer.setTimeBudgetMillis(0);
+    Rebalancer.Result result = rebalancer.rebalance();
+    Assert.assertTrue(result.getMoves().isEmpty());
+    Assert.assertEquals(result.getInitialSpread(), result.getFinalSpread(), 1e-9);
+  }
+}
@@ -0,0 +1,47 @@
+package org.pathirage.thulitha;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.pathirage.thulitha.utils.ReplicaQueue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class ReplicaQueueTest extends BaseTest {
+
+  @Test
+  public void testOrderMatchesMaxAndRemove() {
+    List<Replica> replicas = getHighNetworkOutReplicas();
+    Random random = new Random(7);
+    for (Replica r : replicas) {
+      // Few distinct sizes so that ties are common
+      r.setSize(random.nextInt(10));
+    }
+
+    ReplicaQueue queue = new ReplicaQueue(replicas);
+    List<Replica> remaining = new ArrayList<>(replicas);
+    while (!remaining.isEmpty()) {
+      Replica expected = Collections.max(remaining);
+      remaining.remove(expected);
+      Assert.assertSame(expected, queue.poll());
+    }
+
+    Assert.assertTrue(queue.isEmpty());
+  }
+
+  @Test
+  public void testRekey() {
+    List<Replica> replicas = getNoReplayAndSingleConsumer().subList(0, 4);
+    double[] sizes = {4, 3, 2, 1};
+    ReplicaQueue queue = new ReplicaQueue(replicas, sizes);
+    Assert.assertSame(replicas.get(0), queue.poll());
+
+    sizes[3] = 10;
+    queue.rekey();
+    Assert.assertSame(replicas.get(3), queue.poll());
+    Assert.assertSame(replicas.get(1), queue.poll());
+    Assert.assertSame(replicas.get(2), queue.poll());
+  }
+}
@@ -0,0 +1,56 @@
+package org.pathirage.thulitha;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.pathirage.thulitha.utils.SizeUtility;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class ReplicaTableTest extends BaseTest {
+
+  @Test
+  public void testRoundTrip() {
+    List<Replica> replicas = getHighNetworkOutReplicas();
+    ReplicaTable table = new ReplicaTable(4); // forces the columns to grow
+    for (Replica r : replicas) {
+      table.add(r);
+    }
+    table.trimToSize();
+
+    Assert.assertEquals(replicas.size(), table.size());
+    for (int row = 0; row < table.size(); row++) {
+      Replica expected = replicas.get(row);
+      Replica actual = table.getReplica(row);
+      Assert.assertEquals(expected.getTopicPartition(), actual.getTopicPartition());
+      Assert.assertEquals(expected.getId(), actual.getId());
+      Assert.assertArrayEquals(expected.getRequirements(), actual.getRequirements());
+      Assert.assertArrayEquals(expected.getReplayRates(), actual.getReplayRates());
+      Assert.assertEquals(expected.getReadPercentage(), actual.getReadPercentage());
+    }
+
+    Assert.assertArrayEquals(SizeUtility.computeTotalSizeOfItems(replicas), table.computeTotalSizeOfItems());
+
+    List<Broker> brokers = Collections.singletonList(new Broker(CCInstanceType.M4_4X, StorageVolumeType.ST1STATIC, 128));
+    Assert.assertTrue(Arrays.equals(SizeUtility.computeReplicaSizes(replicas, brokers), SizeUtility.computeReplicaSizes(table, brokers)));
+  }
+
+  @Test
+  public void testTablePlanMatchesListPlan() {
+    List<Replica> replicas = getHighNetworkOutReplicas();
+    BFDCapacityPlanner listPlanner = new BFDCapacityPlanner(replicas, CCInstanceType.M4_4X, StorageVolumeType.ST1,
+        true, true, BFDCapacityPlanner.BinCountSearch.GALLOPING);
+    BFDCapacityPlanner tablePlanner = new BFDCapacityPlanner(ReplicaTable.fromReplicas(replicas), CCInstanceType.M4_4X,
+        StorageVolumeType.ST1, true, true, BFDCapacityPlanner.BinCountSearch.GALLOPING, 1);
+
+    List<Broker> expected = listPlanner.solve();
+    List<Broker> actual = tablePlanner.solve();
+
+    Assert.assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      Assert.assertEquals(expected.get(i).getReplicaCount(), actual.get(i).getReplicaCount());
+      Assert.assertEquals(expected.get(i).getReplicas().get(0).getTopicPartition(), actual.get(i).getReplicas().get(0).getTopicPartition());
+    }
+  }
+}
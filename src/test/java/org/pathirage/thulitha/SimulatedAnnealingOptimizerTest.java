@@ -0,0 +1,72 @@
+package org.pathirage.thulitha;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.pathirage.thulitha.workloads.WorkloadGenerator;
+import org.pathirage.thulitha.workloads.WorkloadGeneratorConfig;
+
+import java.util.List;
+
+public class SimulatedAnnealingOptimizerTest extends BaseTest {
+
+  @Test
+  public void testNeverWorseThanBFD() {
+    List<Replica> replicas = getHighNetworkOutReplicas();
+    List<Broker> bfd = new BFDCapacityPlanner(replicas, CCInstanceType.M4_4X, StorageVolumeType.ST1, true, true,
+        BFDCapacityPlanner.BinCountSearch.GALLOPING).solve();
+
+    SimulatedAnnealingOptimizer optimizer = new SimulatedAnnealingOptimizer(bfd);
+    optimizer.setChains(2);
+    optimizer.setEpochs(20);
+    optimizer.setStepsPerEpoch(2000);
+    optimizer.setSeed(42);
+    SimulatedAnnealingOptimizer.Result result = optimizer.optimize();
+
+    Assert.assertEquals(bfd.size(), result.getInitialBrokerCount());
+    Assert.assertTrue(result.getBrokerCount() <= bfd.size());
+    if (result.getBrokerCount() == bfd.size()) {
+      Assert.assertTrue(result.getFinalSpread() <= result.getInitialSpread() + 1e-9);
+    }
+    Assert.assertEquals(result.getBrokerCount(), result.getBrokers().size());
+
+    for (Broker b : result.getBrokers()) {
+      Assert.assertFalse(b.isEmpty());
+    }
+    assertValidPlan(result.getBrokers(), replicas.size());
+
+    // The planner's brokers are left untouched
+    int bfdReplicas = 0;
+    for (Broker b : bfd) {
+      bfdReplicas += b.getReplicaCount();
+    }
+    Assert.assertEquals(replicas.size(), bfdReplicas);
+  }
+
+  @Test
+  public void testResultCanBeOptimizedAgain() {
+    // Brokers open volumes depending on the order replicas arrive in, every optimized broker must still be one that
+    // a new broker reaches by adding its replicas
+    List<Replica> replicas = new WorkloadGenerator(new WorkloadGeneratorConfig(null)).run(3000, 42);
+    List<Broker> brokers = new BFDCapacityPlanner(replicas, CCInstanceType.M4_10X, StorageVolumeType.ST1, true, true,
+        BFDCapacityPlanner.BinCountSearch.GALLOPING).solve();
+
+    for (int run = 0; run < 2; run++) {
+      SimulatedAnnealingOptimizer optimizer = new SimulatedAnnealingOptimizer(brokers);
+      optimizer.setChains(2);
+      optimizer.setEpochs(20);
+      optimizer.setStepsPerEpoch(2000);
+      optimizer.setSeed(42 + run);
+      brokers = optimizer.optimize().getBrokers();
+
+      // Load dependent ST1 volumes can end up below the IOPS they were filled against, so this only checks placement
+      int placed = 0;
+      for (Broker b : brokers) {
+        Broker replayed = b.copy(b.getId());
+        Assert.assertArrayEquals(b.getRemainingCapacity(), replayed.getRemainingCapacity());
+        Assert.assertEquals(b.getStorageVolumeCount(), replayed.getStorageVolumeCount());
+        placed += b.getReplicaCount();
+      }
+      Assert.assertEquals(replicas.size(), placed);
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package org.pathirage.thulitha;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StoragePerfModelCacheTest {
+
+  @Test
+  public void testCachedPredictionsMatchModel() {
+    StoragePerfModelCache cache = new StoragePerfModelCache(StoragePerfModelCache.DEFAULT_MAX_ENTRIES);
+    for (StorageVolumeType type : new StorageVolumeType[]{StorageVolumeType.ST1, StorageVolumeType.D2HDD}) {
+      for (int leaders = 0; leaders < 6; leaders++) {
+        for (int followers = 0; followers < 6; followers++) {
+          for (int writePct = 0; writePct <= 100; writePct += 10) {
+            int expected = type.predictIOPS(128, 550, writePct, leaders, followers);
+            Assert.assertEquals(expected, cache.effectiveIOPS(type, 128, 550, writePct, leaders, followers));
+            Assert.assertEquals(expected, cache.effectiveIOPS(type, 128, 550, writePct, leaders, followers));
+          }
+        }
+      }
+    }
+
+    Assert.assertEquals(cache.getHits(), cache.getMisses());
+    Assert.assertEquals(cache.getMisses(), cache.size());
+  }
+
+  @Test
+  public void testBoundAndWarmUp() {
+    StoragePerfModelCache cache = new StoragePerfModelCache(100);
+    int computed = cache.warmUp(CCInstanceType.D2_4X, StorageVolumeType.D2HDD, 128, 10);
+    Assert.assertEquals(100, computed);
+    Assert.assertEquals(100, cache.size());
+
+    // Not admitted any more, but still answered by the model
+    int iops = cache.effectiveIOPS(StorageVolumeType.D2HDD, 128, 550, 100, 10, 0);
+    Assert.assertEquals(StorageVolumeType.D2HDD.predictIOPS(128, 550, 100, 10, 0), iops);
+    Assert.assertEquals(100, cache.size());
+  }
+
+  @Test
+  public void testOutOfRangeKeysBypassCache() {
+    Assert.assertTrue(StoragePerfModelCache.key(StorageVolumeType.ST1, 128, 1250, 10000, 4095, 4095) >= 0);
+    Assert.assertEquals(-1, StoragePerfModelCache.key(StorageVolumeType.ST1, 128, 1250, 100, 5000, 0));
+    Assert.assertEquals(-1, StoragePerfModelCache.key(StorageVolumeType.ST1, 128, 1250, -1, 1, 0));
+  }
+}
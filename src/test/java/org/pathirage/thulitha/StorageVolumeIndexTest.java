@@ -0,0 +1,44 @@
+package org.pathirage.thulitha;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class StorageVolumeIndexTest extends BaseTest {
+
+  @Test
+  public void testFirstFeasibleMatchesLinearScan() {
+    StorageVolumeIndex index = new StorageVolumeIndex();
+    List<StorageVolume> volumes = new ArrayList<>();
+    for (int i = 0; i < 24; i++) {
+      StorageVolume volume = new StorageVolume("broker", StorageVolumeType.D2HDDSTATIC, CCInstanceType.D2_8X, 128);
+      volumes.add(volume);
+      Assert.assertEquals(i, index.add(volume));
+    }
+
+    Random random = new Random(11);
+    long[] demand = new long[2];
+    for (Replica r : getHighNetworkOutReplicas()) {
+      demand[0] = r.getDimension(1);
+      demand[1] = (r.getDimension(2) * 1024) / 128;
+
+      int expected = -1;
+      for (int i = 0; i < volumes.size(); i++) {
+        if (volumes.get(i).isFeasible(r)) {
+          expected = i;
+          break;
+        }
+      }
+
+      Assert.assertEquals(expected, index.findFirstFeasible(demand));
+
+      int position = random.nextInt(volumes.size());
+      if (volumes.get(position).addReplica(r, r.getId() == 0)) {
+        index.update(position);
+      }
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package org.pathirage.thulitha;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+public class SweepExecutorTest {
+
+  @Test
+  public void testResultsInCellOrder() {
+    List<Supplier<Integer>> cells = new ArrayList<>();
+    for (int i = 0; i < 32; i++) {
+      int cell = i;
+      cells.add(() -> {
+        try {
+          Thread.sleep((32 - cell) % 5);
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        return cell;
+      });
+    }
+
+    List<Integer> results = new SweepExecutor(4).run(cells);
+    for (int i = 0; i < 32; i++) {
+      Assert.assertEquals(i, results.get(i).intValue());
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testCellFailurePropagates() {
+    List<Supplier<Integer>> cells = new ArrayList<>();
+    cells.add(() -> 1);
+    cells.add(() -> {
+      throw new IllegalStateException("cell failed");
+    });
+
+    new SweepExecutor(2).run(cells);
+  }
+}
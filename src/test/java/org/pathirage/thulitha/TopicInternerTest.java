@@ -0,0 +1,50 @@
+package org.pathirage.thulitha;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.pathirage.thulitha.utils.TopicInterner;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class TopicInternerTest {
+
+  @Test
+  public void testResetWaitsForScopes() throws Exception {
+    TopicInterner.intern("interner-test-a");
+    int id = TopicInterner.intern("interner-test-b");
+    Assert.assertEquals(id, TopicInterner.intern("interner-test-b"));
+
+    TopicInterner.enterScope();
+    try {
+      // Within twice the limit another thread skips the reset while a plan is being built
+      int limit = TopicInterner.size() - 1;
+      Assert.assertFalse(CompletableFuture.supplyAsync(() -> TopicInterner.resetIfLargerThan(limit)).get());
+      Assert.assertEquals(id, TopicInterner.intern("interner-test-b"));
+    } finally {
+      TopicInterner.exitScope();
+    }
+
+    Assert.assertFalse(TopicInterner.resetIfLargerThan(TopicInterner.size()));
+
+    // Past twice the limit the reset waits for the plan to finish
+    TopicInterner.enterScope();
+    CompletableFuture<Boolean> reset;
+    try {
+      reset = CompletableFuture.supplyAsync(() -> TopicInterner.resetIfLargerThan(0));
+      try {
+        reset.get(100, TimeUnit.MILLISECONDS);
+        Assert.fail("Reset while a scope was open.");
+      } catch (TimeoutException e) {
+        Assert.assertEquals(id, TopicInterner.intern("interner-test-b"));
+      }
+    } finally {
+      TopicInterner.exitScope();
+    }
+
+    Assert.assertTrue(reset.get());
+    Assert.assertEquals(0, TopicInterner.size());
+    Assert.assertEquals(0, TopicInterner.intern("interner-test-b"));
+  }
+}
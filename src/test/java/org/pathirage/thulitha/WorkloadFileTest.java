@@ -0,0 +1,105 @@
+package org.pathirage.thulitha;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pathirage.thulitha.workloads.WorkloadFileReader;
+import org.pathirage.thulitha.workloads.WorkloadFileWriter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class WorkloadFileTest extends BaseTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    List<Replica> replicas = getHighNetworkOutReplicas();
+    Path path = folder.newFile("replicas.thwl").toPath();
+    WorkloadFileWriter.write(path, replicas);
+
+    try (WorkloadFileReader reader = new WorkloadFileReader(path)) {
+      Assert.assertEquals(replicas.size(), reader.size());
+      List<Replica> read = reader.toReplicas();
+      ReplicaTable table = reader.toReplicaTable();
+      for (int row = 0; row < replicas.size(); row++) {
+        Replica expected = replicas.get(row);
+        assertSameReplica(expected, read.get(row));
+        assertSameReplica(expected, table.getReplica(row));
+        Assert.assertEquals(expected.getRequirements()[2], reader.getDimension(row, 2));
+        Assert.assertEquals(expected.getTopic(), reader.getTopic(row));
+      }
+    }
+
+    // Writing the table back produces the same bytes
+    Path copy = folder.newFile("copy.thwl").toPath();
+    WorkloadFileWriter.write(copy, ReplicaTable.fromReplicas(replicas));
+    Assert.assertArrayEquals(Files.readAllBytes(path), Files.readAllBytes(copy));
+  }
+
+  @Test
+  public void testInterruptedWriteLeavesNoFile() throws IOException {
+    List<Replica> replicas = getHighNetworkOutReplicas();
+    Path path = folder.getRoot().toPath().resolve("replicas.thwl");
+    Iterable<Replica> failing = () -> new Iterator<Replica>() {
+      private int next = 0;
+
+      @Override
+      public boolean hasNext() {
+        return true;
+      }
+
+      @Override
+      public Replica next() {
+        if (next == replicas.size() / 2) {
+          throw new IllegalStateException("Workload generation failed");
+        }
+        return replicas.get(next++);
+      }
+    };
+
+    try {
+      WorkloadFileWriter.write(path, failing);
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+      Assert.assertEquals(0, files.count());
+    }
+
+    // A complete file replaces whatever was left at the path
+    Files.write(path, new byte[64]);
+    WorkloadFileWriter.write(path, replicas);
+    try (WorkloadFileReader reader = new WorkloadFileReader(path)) {
+      Assert.assertEquals(replicas.size(), reader.size());
+    }
+    try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+      Assert.assertEquals(1, files.count());
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testRejectsOtherFiles() throws IOException {
+    Path path = folder.newFile("other.thwl").toPath();
+    Files.write(path, new byte[64]);
+    new WorkloadFileReader(path);
+  }
+
+  private static void assertSameReplica(Replica expected, Replica actual) {
+    Assert.assertEquals(expected.getTopicPartition(), actual.getTopicPartition());
+    Assert.assertEquals(expected.getId(), actual.getId());
+    Assert.assertArrayEquals(expected.getRequirements(), actual.getRequirements());
+    Assert.assertArrayEquals(expected.getReplayRates(), actual.getReplayRates());
+    Assert.assertEquals(expected.getReadPercentage(), actual.getReadPercentage());
+    Assert.assertEquals(expected.getAvgMessageSize(), actual.getAvgMessageSize());
+    Assert.assertEquals(expected.getProduceRate(), actual.getProduceRate());
+  }
+}
@@ -5,7 +5,10 @@ import org.junit.Test;
 import org.pathirage.thulitha.workloads.WorkloadGenerator;
 import org.pathirage.thulitha.workloads.WorkloadGeneratorConfig;
 
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.stream.Collectors;
 
 public class WorkloadGeneratorTest {
 
@@ -16,4 +19,38 @@ public class WorkloadGeneratorTest {
     List<Replica> replicaList = workloadGenerator.run(1000);
     Assert.assertTrue(replicaList.size() >= 500);
   }
+
+  @Test
+  public void testSameSeedSameWorkload() {
+    WorkloadGenerator workloadGenerator = new WorkloadGenerator(new WorkloadGeneratorConfig(null));
+
+    List<Replica> sequential = workloadGenerator.run(20000, 42);
+    List<Replica> parallel = workloadGenerator.stream(20000, 42, true).collect(Collectors.toList());
+    List<Replica> other = new WorkloadGenerator(new WorkloadGeneratorConfig(null)).run(20000, 42);
+    Assert.assertTrue(sequential.size() >= 20000);
+    assertSameReplicas(sequential, parallel);
+    assertSameReplicas(sequential, other);
+
+    Iterator<Replica> iterator = workloadGenerator.iterator(20000, 42);
+    for (Replica r : sequential) {
+      Assert.assertEquals(r.toString(), iterator.next().toString());
+    }
+    Assert.assertFalse(iterator.hasNext());
+
+    Assert.assertEquals(sequential.size(), workloadGenerator.spliterator(20000, 42).estimateSize());
+    Assert.assertNotEquals(sequential.size(), workloadGenerator.run(20000, 43).size());
+  }
+
+  private static void assertSameReplicas(List<Replica> expected, List<Replica> actual) {
+    Assert.assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      Replica e = expected.get(i);
+      Replica a = actual.get(i);
+      Assert.assertEquals(e.getTopicPartition(), a.getTopicPartition());
+      Assert.assertEquals(e.getId(), a.getId());
+      Assert.assertArrayEquals(e.getRequirements(), a.getRequirements());
+      Assert.assertEquals(e.getReadPercentage(), a.getReadPercentage());
+      Assert.assertTrue(Arrays.equals(e.getReplayRates(), a.getReplayRates()));
+    }
+  }
 }